@@ -0,0 +1,296 @@
+package com.termux.api;
+
+import android.content.Intent;
+
+import com.termux.api.util.ApiMetrics;
+import com.termux.api.util.JsonWriter;
+import com.termux.shared.logger.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Limits the number of requests of an `api_method` running at the same time, like one camera
+ * capture at a time, so that a client calling it in a loop can't pile up requests for the same
+ * hardware or content provider.
+ *
+ * Requests over the limit wait in a queue of their API method, which takes turns between the
+ * clients that sent them, so one client can't starve the others, and is first in first out for
+ * the requests of each client. A request is rejected with a `busy` error if the queue is full or
+ * it waited longer than the queue timeout.
+ *
+ * A request holds its slot until its result has been returned, see {@link #release(Intent)}. The
+ * slot of a request whose handler never returns a result is reclaimed after
+ * {@link #MAX_HOLD_TIME}. Only requests received by the {@link SocketListener} are scheduled.
+ */
+public class ApiScheduler {
+
+    /** The intent extra with the ticket of a request holding a slot. */
+    public static final String TICKET_EXTRA = "scheduler_ticket";
+
+    /**
+     * Default limits, see {@link TermuxAPIProperties#KEY_API_CONCURRENCY_LIMITS}. API methods
+     * without a limit are not scheduled.
+     */
+    private static final String DEFAULT_LIMITS = "CameraPhoto:1,Location:2,CallLog:2,ContactList:2,SmsInbox:2";
+    /** Default number of requests waiting per API method, see {@link TermuxAPIProperties#KEY_API_QUEUE_SIZE}. */
+    private static final int DEFAULT_QUEUE_SIZE = 16;
+    /** Default milliseconds a request may wait, see {@link TermuxAPIProperties#KEY_API_QUEUE_TIMEOUT}. */
+    private static final int DEFAULT_QUEUE_TIMEOUT = 30000;
+    /** Milliseconds after which the slot of a request that never returned a result is reclaimed. */
+    private static final long MAX_HOLD_TIME = 10 * 60 * 1000;
+
+    private static final String LOG_TAG = "ApiScheduler";
+
+    private static class Request {
+        final long ticket;
+        final String client;
+        final Intent intent;
+        final Runnable dispatch;
+        final Consumer<String> reject;
+        final long queuedTime = System.nanoTime();
+        ScheduledFuture<?> timeout;
+
+        Request(long ticket, String client, Intent intent, Runnable dispatch, Consumer<String> reject) {
+            this.ticket = ticket;
+            this.client = client;
+            this.intent = intent;
+            this.dispatch = dispatch;
+            this.reject = reject;
+        }
+    }
+
+    private static class ApiQueue {
+        final String apiMethod;
+        final int limit;
+        /** The start times of the running requests by ticket. */
+        final Map<Long, Long> running = new HashMap<>();
+        /** The waiting requests of every client, in the order the clients take turns. */
+        final LinkedHashMap<String, ArrayDeque<Request>> waiting = new LinkedHashMap<>();
+        int waitingCount;
+        long rejected;
+
+        ApiQueue(String apiMethod, int limit) {
+            this.apiMethod = apiMethod;
+            this.limit = limit;
+        }
+
+        void add(Request request) {
+            ArrayDeque<Request> requests = waiting.get(request.client);
+            if (requests == null) {
+                requests = new ArrayDeque<>();
+                waiting.put(request.client, requests);
+            }
+            requests.add(request);
+            waitingCount++;
+        }
+
+        boolean remove(Request request) {
+            ArrayDeque<Request> requests = waiting.get(request.client);
+            if (requests == null || !requests.remove(request)) return false;
+            if (requests.isEmpty()) waiting.remove(request.client);
+            waitingCount--;
+            return true;
+        }
+
+        /** Take the next request of the client whose turn it is, and move the client to the end. */
+        Request poll() {
+            Iterator<Map.Entry<String, ArrayDeque<Request>>> iterator = waiting.entrySet().iterator();
+            if (!iterator.hasNext()) return null;
+            Map.Entry<String, ArrayDeque<Request>> entry = iterator.next();
+            iterator.remove();
+            ArrayDeque<Request> requests = entry.getValue();
+            Request request = requests.poll();
+            if (!requests.isEmpty()) waiting.put(entry.getKey(), requests);
+            waitingCount--;
+            return request;
+        }
+
+        void reclaimExpired(long now) {
+            Iterator<Map.Entry<Long, Long>> iterator = running.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Long> entry = iterator.next();
+                if (now - entry.getValue() > TimeUnit.MILLISECONDS.toNanos(MAX_HOLD_TIME)) {
+                    Logger.logError(LOG_TAG, apiMethod + " request " + entry.getKey() + " did not return a result in time, reclaiming its slot");
+                    iterator.remove();
+                    tickets.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private static Map<String, ApiQueue> queues;
+    private static final Map<Long, ApiQueue> tickets = new HashMap<>();
+    private static int queueSize;
+    private static int queueTimeout;
+    private static long lastTicket;
+    private static ScheduledThreadPoolExecutor timer;
+
+    private static synchronized void init() {
+        if (queues != null) return;
+        queueSize = TermuxAPIProperties.getInt(TermuxAPIProperties.KEY_API_QUEUE_SIZE, DEFAULT_QUEUE_SIZE, 0, 4096);
+        queueTimeout = TermuxAPIProperties.getInt(TermuxAPIProperties.KEY_API_QUEUE_TIMEOUT, DEFAULT_QUEUE_TIMEOUT, 0, Integer.MAX_VALUE);
+
+        Map<String, Integer> limits = new TreeMap<>();
+        parseLimits(DEFAULT_LIMITS, limits);
+        parseLimits(TermuxAPIProperties.getString(TermuxAPIProperties.KEY_API_CONCURRENCY_LIMITS, ""), limits);
+
+        queues = new HashMap<>();
+        for (Map.Entry<String, Integer> limit : limits.entrySet()) {
+            if (limit.getValue() > 0) queues.put(limit.getKey(), new ApiQueue(limit.getKey(), limit.getValue()));
+        }
+        Logger.logDebug(LOG_TAG, "Concurrency limits " + limits + ", queue size " + queueSize + " and queue timeout " + queueTimeout + "ms");
+
+        timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, LOG_TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /** Parse comma separated `ApiMethod:limit` pairs, a limit of 0 removes the limit. */
+    private static void parseLimits(String value, Map<String, Integer> limits) {
+        for (String pair : value.split(",")) {
+            pair = pair.trim();
+            if (pair.isEmpty()) continue;
+            int separator = pair.indexOf(':');
+            try {
+                if (separator <= 0) throw new NumberFormatException();
+                int limit = Integer.parseInt(pair.substring(separator + 1).trim());
+                if (limit < 0) throw new NumberFormatException();
+                limits.put(pair.substring(0, separator).trim(), limit);
+            } catch (NumberFormatException e) {
+                Logger.logError(LOG_TAG, "Invalid concurrency limit \"" + pair + "\", must be \"ApiMethod:limit\"");
+            }
+        }
+    }
+
+    /**
+     * Run the dispatch of the request now if its API method is below its limit, or once another
+     * request of it returned its result. Either runs on the calling thread, or the thread that
+     * returned the result.
+     *
+     * @param client The client the request is from, whose requests take turns with the ones of other clients.
+     * @param reject Called with an error message instead of the dispatch if the request is rejected.
+     */
+    public static void submit(Intent intent, String client, Runnable dispatch, Consumer<String> reject) {
+        init();
+        String apiMethod = intent.getStringExtra("api_method");
+        ApiQueue queue = apiMethod == null ? null : queues.get(apiMethod);
+        if (queue == null) {
+            dispatch.run();
+            return;
+        }
+
+        Request request;
+        boolean runNow = false;
+        synchronized (ApiScheduler.class) {
+            request = new Request(++lastTicket, client, intent, dispatch, reject);
+            intent.putExtra(TICKET_EXTRA, request.ticket);
+            queue.reclaimExpired(request.queuedTime);
+            if (queue.running.size() < queue.limit && queue.waitingCount == 0) {
+                start(queue, request);
+                runNow = true;
+            } else if (queue.waitingCount >= queueSize) {
+                queue.rejected++;
+            } else {
+                queue.add(request);
+                if (queueTimeout > 0)
+                    request.timeout = timer.schedule(() -> timeout(queue, request), queueTimeout, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+
+        if (runNow) {
+            run(queue, request);
+        } else {
+            Logger.logError(LOG_TAG, "Too many pending " + apiMethod + " requests, rejecting request");
+            request.reject.accept("busy: Too many pending " + apiMethod + " requests\n");
+        }
+    }
+
+    private static void timeout(ApiQueue queue, Request request) {
+        synchronized (ApiScheduler.class) {
+            if (!queue.remove(request)) return;
+            queue.rejected++;
+        }
+        Logger.logError(LOG_TAG, queue.apiMethod + " request waited longer than " + queueTimeout + "ms, rejecting request");
+        request.reject.accept("busy: Timed out waiting for other " + queue.apiMethod + " requests\n");
+    }
+
+    private static void start(ApiQueue queue, Request request) {
+        queue.running.put(request.ticket, System.nanoTime());
+        tickets.put(request.ticket, queue);
+    }
+
+    private static void run(ApiQueue queue, Request request) {
+        ApiMetrics.record(queue.apiMethod, ApiMetrics.Stage.QUEUE, System.nanoTime() - request.queuedTime);
+        try {
+            request.dispatch.run();
+        } catch (RuntimeException e) {
+            release(request.intent);
+            throw e;
+        }
+    }
+
+    /**
+     * Free the slot of the request once its result has been returned, and dispatch the next
+     * waiting request of its API method.
+     */
+    public static void release(Intent intent) {
+        long ticket = intent.getLongExtra(TICKET_EXTRA, -1);
+        if (ticket == -1) return;
+
+        ApiQueue queue;
+        Request next;
+        synchronized (ApiScheduler.class) {
+            queue = tickets.remove(ticket);
+            if (queue == null) return;
+            queue.running.remove(ticket);
+            next = queue.poll();
+            if (next == null) return;
+            if (next.timeout != null) next.timeout.cancel(false);
+            start(queue, next);
+        }
+
+        try {
+            run(queue, next);
+        } catch (RuntimeException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Error dispatching queued " + queue.apiMethod + " request", e);
+            next.reject.accept("Exception in the plugin\n");
+        }
+    }
+
+    /** Write the limits, running and waiting requests of every scheduled API method as a JSON object. */
+    public static void writeStats(JsonWriter out) throws IOException {
+        init();
+        out.beginObject();
+        synchronized (ApiScheduler.class) {
+            for (ApiQueue queue : new TreeMap<>(queues).values()) {
+                out.name(queue.apiMethod).beginObject();
+                out.name("limit").value(queue.limit);
+                out.name("running").value(queue.running.size());
+                out.name("waiting").value(queue.waitingCount);
+                out.name("rejected").value(queue.rejected);
+                out.endObject();
+            }
+        }
+        out.endObject();
+    }
+
+    public static synchronized void resetStats() {
+        init();
+        for (ApiQueue queue : queues.values()) queue.rejected = 0;
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.termux.api;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.ResultReturner;
+import com.termux.shared.logger.Logger;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatches requests received by the {@link SocketListener} straight to the handler of their
+ * `api_method` on a worker thread of the API process, instead of sending an ordered broadcast to
+ * the {@link TermuxApiReceiver}. The broadcast goes through the system server and waits for the
+ * main thread of the app before the handler even runs.
+ *
+ * Only API methods whose handlers need neither the main thread, like the ones showing a
+ * {@link android.widget.Toast}, nor the background start allowance of a broadcast, like the ones
+ * starting a service, are dispatched directly. All others and
+ * requests that don't fit into the queue still use the broadcast.
+ */
+public class DirectDispatcher {
+
+    /** API methods whose handlers can run on any thread. */
+    private static final Set<String> DIRECT_API_METHODS = new HashSet<>(Arrays.asList(
+            "AudioInfo",
+            "Batch",
+            "BatteryStatus",
+            "Benchmark",
+            "CallLog",
+            "CameraInfo",
+            "ContactList",
+            "Echo",
+            "InfraredFrequencies",
+            "Location",
+            "Log",
+            "Metrics",
+            "SmsInbox",
+            "TelephonyCellInfo",
+            "TelephonyDeviceInfo",
+            "Volume",
+            "WifiConnectionInfo",
+            "WifiScanInfo"
+    ));
+
+    private static final int WORKERS = 4;
+    private static final int QUEUE_SIZE = 64;
+
+    private static ThreadPoolExecutor executor;
+    private static Boolean enabled;
+
+    private static final String LOG_TAG = "DirectDispatcher";
+
+    /**
+     * Run the handler of the request on a worker thread, if it can be dispatched directly.
+     *
+     * @return false if the request must be sent as a broadcast instead.
+     */
+    public static boolean dispatch(final Context context, final Intent intent) {
+        if (!isEnabled()) return false;
+
+        final String apiMethod = intent.getStringExtra("api_method");
+        if (apiMethod == null || !DIRECT_API_METHODS.contains(apiMethod)) return false;
+
+        final long dispatchTime = SystemClock.elapsedRealtime();
+        final TermuxApiReceiver receiver = new TermuxApiReceiver(new ResultReturner.AsyncResult() {
+            private int resultCode;
+
+            @Override
+            public void setResultCode(int resultCode) {
+                this.resultCode = resultCode;
+            }
+
+            @Override
+            public void finish() {
+                AsyncLogger.logDebug(LOG_TAG, "%s finished with result code %d in %dms",
+                        apiMethod, resultCode, SystemClock.elapsedRealtime() - dispatchTime);
+            }
+        });
+
+        try {
+            getExecutor().execute(() -> receiver.onReceiveDirect(context.getApplicationContext(), intent));
+        } catch (RejectedExecutionException e) {
+            AsyncLogger.logDebug(LOG_TAG, "Queue full, falling back to broadcast for %s", apiMethod);
+            return false;
+        }
+        return true;
+    }
+
+    private static synchronized boolean isEnabled() {
+        if (enabled == null)
+            enabled = TermuxAPIProperties.getBoolean(TermuxAPIProperties.KEY_DIRECT_DISPATCH, true);
+        return enabled;
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = new ThreadPoolExecutor(WORKERS, WORKERS, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_SIZE), r -> new Thread(r, LOG_TAG + "-" + threadCount.incrementAndGet()));
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+}
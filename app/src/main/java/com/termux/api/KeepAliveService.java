@@ -1,24 +1,96 @@
 package com.termux.api;
 
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
+import android.os.Build;
 import android.os.IBinder;
 
 import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
 
+import com.termux.api.util.LooperPool;
+import com.termux.api.util.SystemServices;
 import com.termux.shared.logger.Logger;
 
+/**
+ * Keeps the app process alive in the foreground in warm mode, see
+ * {@link TermuxAPIProperties#KEY_WARM_MODE}, so termux-* commands don't pay for starting the
+ * process, and the system services and threads preloaded by {@link #start(Context)} stay around.
+ *
+ * The service is sticky, so if the process is killed anyway Android restarts it, and with it the
+ * process, which is warmed up again.
+ */
 public class KeepAliveService extends Service {
 
+    private static final int NOTIFICATION_ID = 0x5442;
+    private static final String CHANNEL_ID = "termux-api-keep-alive";
+
     private static final String LOG_TAG = "KeepAliveService";
 
+    /** Whether warm mode is enabled in the properties. */
+    public static boolean isWarmMode() {
+        return TermuxAPIProperties.getBoolean(TermuxAPIProperties.KEY_WARM_MODE, false);
+    }
+
+    /**
+     * Warm up the process and start the service keeping it alive. Called from
+     * {@link TermuxAPIApplication#onCreate()} if warm mode is enabled.
+     */
+    public static void start(final Context context) {
+        Thread preloader = new Thread(() -> {
+            SystemServices.preload(context);
+            LooperPool.startThreads();
+        }, LOG_TAG);
+        preloader.setDaemon(true);
+        preloader.start();
+
+        try {
+            Intent serviceIntent = new Intent(context, KeepAliveService.class);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(serviceIntent);
+            } else {
+                context.startService(serviceIntent);
+            }
+        } catch (RuntimeException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to start service", e);
+        }
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Logger.logDebug(LOG_TAG, "onStartCommand");
 
+        // a service started with startForegroundService() must always call startForeground()
+        startForeground(NOTIFICATION_ID, buildNotification());
+        if (!isWarmMode()) {
+            // restarted by Android after warm mode was disabled
+            stopForeground(true);
+            stopSelf();
+            return Service.START_NOT_STICKY;
+        }
         return Service.START_STICKY;
     }
 
+    private android.app.Notification buildNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.keep_alive_channel), NotificationManager.IMPORTANCE_MIN);
+            manager.createNotificationChannel(channel);
+        }
+
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_whatshot_black_24dp)
+                .setContentTitle(getString(R.string.keep_alive_title))
+                .setContentText(getString(R.string.keep_alive_text))
+                .setOngoing(true)
+                .setPriority(NotificationCompat.PRIORITY_MIN)
+                .build();
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
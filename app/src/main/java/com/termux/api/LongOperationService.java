@@ -0,0 +1,190 @@
+package com.termux.api;
+
+import android.annotation.SuppressLint;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+
+import com.termux.api.apis.LocationAPI;
+import com.termux.api.util.ResultReturner;
+import com.termux.shared.logger.Logger;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A foreground service hosting API calls that may take longer than a broadcast receiver is allowed
+ * to run, like big `SAF` copies or recursive `MediaScanner` runs.
+ *
+ * {@link ResultReturner} adopts such calls with {@link #adopt(Context, Intent, ResultReturner.AsyncResult)}:
+ * the broadcast is finished right away, and the call keeps running on its thread and writing to
+ * its socket while the service keeps the process in the foreground. One notification lists all
+ * calls in flight, and the service stops when the last one finished.
+ */
+public class LongOperationService extends Service {
+
+    /**
+     * API methods whose calls may outlive the broadcast deadline. `Location` calls only do for
+     * {@link LocationAPI#REQUEST_UPDATES}, see {@link #isLongOperation(Intent)}.
+     */
+    private static final Set<String> LONG_API_METHODS = new HashSet<>(Arrays.asList(
+            "Location",
+            "MediaScanner",
+            "SAF"
+    ));
+
+    private static final int NOTIFICATION_ID = 0x5441; // "TA"
+    private static final String CHANNEL_ID = "termux-api-long-operations";
+
+    /** The api_method of every call in flight by id. */
+    private static final Map<Long, String> operations = new LinkedHashMap<>();
+    private static long lastOperationId;
+
+    @SuppressLint("StaticFieldLeak")
+    private static LongOperationService instance;
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private int lastStartId;
+
+    private static final String LOG_TAG = "LongOperationService";
+
+    /** Whether the call of the intent should be adopted by the service. */
+    public static boolean isLongOperation(Intent intent) {
+        String apiMethod = intent.getStringExtra("api_method");
+        if (!LONG_API_METHODS.contains(apiMethod)) return false;
+        // the last known location and a single fix return within the deadline
+        if ("Location".equals(apiMethod))
+            return LocationAPI.REQUEST_UPDATES.equals(intent.getStringExtra("request"));
+        return true;
+    }
+
+    /**
+     * Finish the broadcast of a call now and host the rest of it in the service.
+     *
+     * @return The result to finish once the call has written its result instead of the broadcast result.
+     */
+    public static ResultReturner.AsyncResult adopt(final Context context, Intent intent, ResultReturner.AsyncResult broadcastResult) {
+        final long id;
+        synchronized (operations) {
+            id = ++lastOperationId;
+            operations.put(id, intent.getStringExtra("api_method"));
+        }
+
+        try {
+            // start it for every call, so a service that is just stopping starts again
+            Intent serviceIntent = new Intent(context, LongOperationService.class);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(serviceIntent);
+            } else {
+                context.startService(serviceIntent);
+            }
+        } catch (RuntimeException e) {
+            // the call still runs, only without the service protecting it
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to start service", e);
+        }
+
+        broadcastResult.setResultCode(0);
+        broadcastResult.finish();
+
+        return new ResultReturner.AsyncResult() {
+            @Override
+            public void setResultCode(int resultCode) {
+                // nobody waits for the result code of the finished broadcast
+            }
+
+            @Override
+            public void finish() {
+                synchronized (operations) {
+                    operations.remove(id);
+                }
+                mainHandler.post(LongOperationService::updateInstance);
+            }
+        };
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        Logger.logDebug(LOG_TAG, "onStartCommand");
+
+        instance = this;
+        lastStartId = startId;
+        // a service started with startForegroundService() must always call startForeground()
+        startForeground(NOTIFICATION_ID, buildNotification());
+        update();
+        return Service.START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        Logger.logDebug(LOG_TAG, "onDestroy");
+
+        super.onDestroy();
+        if (instance == this) instance = null;
+    }
+
+    private static void updateInstance() {
+        if (instance != null) instance.update();
+    }
+
+    /** Show the calls in flight, or stop the service if there are none left. Runs on the main thread. */
+    private void update() {
+        boolean empty;
+        synchronized (operations) {
+            empty = operations.isEmpty();
+        }
+        if (empty) {
+            stopForeground(true);
+            // does nothing if a call was adopted after the last start
+            stopSelf(lastStartId);
+        } else {
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.notify(NOTIFICATION_ID, buildNotification());
+        }
+    }
+
+    private android.app.Notification buildNotification() {
+        int count;
+        StringBuilder text = new StringBuilder();
+        synchronized (operations) {
+            count = operations.size();
+            Iterator<String> apiMethods = operations.values().iterator();
+            while (apiMethods.hasNext()) {
+                text.append(apiMethods.next());
+                if (apiMethods.hasNext()) text.append(", ");
+            }
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.long_operations_channel), NotificationManager.IMPORTANCE_LOW);
+            manager.createNotificationChannel(channel);
+        }
+
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_event_note_black_24dp)
+                .setContentTitle(getResources().getQuantityString(R.plurals.long_operations_title, count, count))
+                .setContentText(text)
+                .setOngoing(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .build();
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
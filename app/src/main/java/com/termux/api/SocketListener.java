@@ -1,239 +1,560 @@
 package com.termux.api;
 
 import android.app.Application;
+import android.content.Context;
 import android.content.Intent;
 import android.net.LocalServerSocket;
 import android.net.LocalSocket;
+import android.system.ErrnoException;
+import android.system.Os;
 
+import com.termux.api.util.ApiMetrics;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.BinaryRequestReader;
+import com.termux.api.util.CommandLineParser;
+import com.termux.api.util.ResultReturner;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxConstants;
 
 import java.io.BufferedWriter;
 import java.io.DataInputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Listens for requests from the `termux-api` client on the {@link #LISTEN_ADDRESS} socket.
+ *
+ * A request is a u16 big endian length followed by an `am` style command line, or one of the
+ * protocols selected by {@link #PROTOCOL_MAGIC}. The listener replies with a null byte once the
+ * request has been dispatched, or with error messages.
+ *
+ * If the request has a `socket_output` extra, the result of the API call is written to a new
+ * connection to that socket and input is read from the `socket_input` socket. Otherwise the
+ * result is written to the request connection after the null byte, input is read from the request
+ * connection after the request until the client shuts down its side, and file descriptors are
+ * sent on it. The listener closes the connection once the result has been written.
+ *
+ * The client can also send its own file descriptors as ancillary data (`SCM_RIGHTS`) with the
+ * request: the first one is used for the output and the optional second one for the input, instead
+ * of any socket, see {@link FdResultChannel}. File descriptors sent back and the end of the result
+ * still use the request connection.
+ *
+ * Requests are dispatched by the {@link ApiScheduler}, which may delay or reject them with a
+ * `busy` error returned as their result.
+ */
 public class SocketListener {
 
     public static final String LISTEN_ADDRESS = TermuxConstants.TERMUX_API_PACKAGE_NAME + "://listen";
-    private static final Pattern EXTRA_STRING = Pattern.compile("(-e|--es|--esa) +([^ ]+) +\"(.*?)(?<!\\\\)\"", Pattern.DOTALL);
-    private static final Pattern EXTRA_BOOLEAN = Pattern.compile("--ez +([^ ]+) +([^ ]+)");
-    private static final Pattern EXTRA_INT = Pattern.compile("--ei +([^ ]+) +(-?[0-9]+)");
-    private static final Pattern EXTRA_FLOAT = Pattern.compile("--ef +([^ ]+) +(-?[0-9]+(?:\\.[0-9]+))");
-    private static final Pattern EXTRA_INT_LIST = Pattern.compile("--eia +([^ ]+) +(-?[0-9]+(?:,-?[0-9]+)*)");
-    private static final Pattern EXTRA_LONG_LIST = Pattern.compile("--ela +([^ ]+) +(-?[0-9]+(?:,-?[0-9]+)*)");
-    private static final Pattern EXTRA_UNSUPPORTED = Pattern.compile("--e[^izs ] +[^ ]+ +[^ ]+");
-    private static final Pattern ACTION = Pattern.compile("-a *([^ ]+)");
-    
+
+    /**
+     * Sent after a zero length prefix, instead of the length of the command line, to use one of the
+     * protocols below.
+     */
+    static final int PROTOCOL_MAGIC = 0x54415049; // "TAPI"
+    static final int PROTOCOL_VERSION = 1;
+    /** A persistent connection carrying many requests, see {@link SocketSession}. */
+    static final int MODE_SESSION = 1;
+    /**
+     * A single request in the binary format read by {@link BinaryRequestReader}, answered like
+     * a command line request.
+     */
+    static final int MODE_BINARY_REQUEST = 2;
+
+    /** Default number of threads handling connections, see {@link TermuxAPIProperties#KEY_SOCKET_LISTENER_WORKERS}. */
+    private static final int DEFAULT_WORKERS = 4;
+    /** Default number of connections waiting for a thread, see {@link TermuxAPIProperties#KEY_SOCKET_LISTENER_QUEUE_SIZE}. */
+    private static final int DEFAULT_QUEUE_SIZE = 64;
+    /** Default milliseconds to wait for the request, see {@link TermuxAPIProperties#KEY_SOCKET_LISTENER_READ_TIMEOUT}. */
+    private static final int DEFAULT_READ_TIMEOUT = 5000;
+    /** Default number of open sessions, see {@link TermuxAPIProperties#KEY_SOCKET_LISTENER_MAX_SESSIONS}. */
+    private static final int DEFAULT_MAX_SESSIONS = 16;
+    /** Default milliseconds a session waits for its requests, see {@link TermuxAPIProperties#KEY_SOCKET_SESSION_DRAIN_TIMEOUT}. */
+    private static final int DEFAULT_SESSION_DRAIN_TIMEOUT = 30000;
+
     private static Thread listener = null;
+    private static ThreadPoolExecutor workers = null;
+    private static int maxSessions;
+    private static int sessionDrainTimeout;
+    private static final AtomicInteger sessionCount = new AtomicInteger();
 
     private static final String LOG_TAG = "SocketListener";
 
+    /**
+     * A connection of a client, the {@link LocalSocket} accepted by the listener except in tests
+     * that drive the request handling without a socket.
+     */
+    public interface Connection extends java.io.Closeable {
+        InputStream getInputStream() throws java.io.IOException;
+
+        OutputStream getOutputStream() throws java.io.IOException;
+
+        /** Set the milliseconds a read may block, 0 to block forever. */
+        void setSoTimeout(int timeout) throws java.io.IOException;
+
+        /** The file descriptors the client sent along with the data read so far, or null. */
+        FileDescriptor[] getAncillaryFileDescriptors() throws java.io.IOException;
+
+        /** Send the file descriptors along with the next write. */
+        void setFileDescriptorsForSend(FileDescriptor[] fds);
+
+        FileDescriptor getFileDescriptor();
+
+        void shutdownInput() throws java.io.IOException;
+
+        void shutdownOutput() throws java.io.IOException;
+
+        /** Identify the client process at the other end, for the {@link ApiScheduler} to take turns between clients. */
+        String getClient();
+
+        /**
+         * Create the intent a request received on the connection is parsed into, which is
+         * delivered to the {@link TermuxApiReceiver}.
+         */
+        Intent newIntent(Context context);
+    }
+
+    /**
+     * Start the listener thread. It only accepts connections and hands them to a bounded pool of
+     * worker threads, so a slow client doesn't delay the requests of other clients.
+     */
     public static void createSocketListener(Application app) {
         if (listener == null) {
+            int workerCount = TermuxAPIProperties.getInt(TermuxAPIProperties.KEY_SOCKET_LISTENER_WORKERS, DEFAULT_WORKERS, 1, 64);
+            int queueSize = TermuxAPIProperties.getInt(TermuxAPIProperties.KEY_SOCKET_LISTENER_QUEUE_SIZE, DEFAULT_QUEUE_SIZE, 1, 4096);
+            final int readTimeout = TermuxAPIProperties.getInt(TermuxAPIProperties.KEY_SOCKET_LISTENER_READ_TIMEOUT, DEFAULT_READ_TIMEOUT, 0, Integer.MAX_VALUE);
+            maxSessions = TermuxAPIProperties.getInt(TermuxAPIProperties.KEY_SOCKET_LISTENER_MAX_SESSIONS, DEFAULT_MAX_SESSIONS, 0, 1024);
+            sessionDrainTimeout = TermuxAPIProperties.getInt(TermuxAPIProperties.KEY_SOCKET_SESSION_DRAIN_TIMEOUT, DEFAULT_SESSION_DRAIN_TIMEOUT, 0, Integer.MAX_VALUE);
+            Logger.logDebug(LOG_TAG, "Starting with " + workerCount + " workers, queue size " + queueSize + " and read timeout " + readTimeout + "ms");
+
+            final AtomicInteger threadCount = new AtomicInteger();
+            workers = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueSize), r -> new Thread(r, LOG_TAG + "-worker-" + threadCount.incrementAndGet()));
+            workers.allowCoreThreadTimeOut(true);
+
             listener = new Thread(() -> {
                 try (LocalServerSocket listen = new LocalServerSocket(LISTEN_ADDRESS)) {
                     while (true) {
-                        try (LocalSocket con = listen.accept();
-                             DataInputStream in = new DataInputStream(con.getInputStream());
-                             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(con.getOutputStream()))) {
+                        LocalSocket con = null;
+                        try {
+                            con = listen.accept();
                             // only accept connections from Termux programs
                             if (con.getPeerCredentials().getUid() != app.getApplicationInfo().uid) {
+                                con.close();
                                 continue;
                             }
-                            try {
-                                //System.out.println("connection");
-                                int length = in.readUnsignedShort();
-                                byte[] b = new byte[length];
-                                in.readFully(b);
-                                String cmdline = new String(b, StandardCharsets.UTF_8);
-                        
-                                Intent intent = new Intent(app.getApplicationContext(), TermuxApiReceiver.class);
-                                //System.out.println(cmdline.replaceAll("--es socket_input \".*?\"","").replaceAll("--es socket_output \".*?\"",""));
-                                HashMap<String, String> stringExtras = new HashMap<>();
-                                HashMap<String, String[]> stringArrayExtras = new HashMap<>();
-                                HashMap<String, Boolean> booleanExtras = new HashMap<>();
-                                HashMap<String, Integer> intExtras = new HashMap<>();
-                                HashMap<String, Float> floatExtras = new HashMap<>();
-                                HashMap<String, int[]> intArrayExtras = new HashMap<>();
-                                HashMap<String, long[]> longArrayExtras = new HashMap<>();
-                                boolean err = false;
-                        
-                                // extract and remove the string extras first, so another argument embedded in a string isn't counted as an argument
-                                Matcher m = EXTRA_STRING.matcher(cmdline);
-                                while (m.find()) {
-                                    String option = m.group(1);
-                                    if ("-e".equals(option) || "--es".equals(option)) {
-                                        // unescape "
-                                        stringExtras.put(m.group(2), Objects.requireNonNull(m.group(3)).replaceAll("\\\\\"", "\""));
-                                    }
-                                    else {
-                                        // split the list
-                                        String[] list = Objects.requireNonNull(m.group(3)).split("(?<!\\\\),");
-                                        for (int i = 0; i < list.length; i++) {
-                                            /// unescape the ","
-                                            list[i] = list[i].replaceFirst("\\\\,", ",");
-                                        }
-                                        stringArrayExtras.put(m.group(2), list);
-                                    }
-                            
-                                }
-                                cmdline = m.replaceAll("");
-                        
-                                m = EXTRA_BOOLEAN.matcher(cmdline);
-                                while (m.find()) {
-                                    booleanExtras.put(m.group(1), Boolean.parseBoolean(m.group(2)));
-                                }
-                                cmdline = m.replaceAll("");
-                        
-                                m = EXTRA_INT.matcher(cmdline);
-                                while (m.find()) {
-                                    try {
-                                        intExtras.put(m.group(1), Integer.parseInt(Objects.requireNonNull(m.group(2))));
-                                    }
-                                    catch (NumberFormatException e) {
-                                        String msg = "Invalid integer extra: " + m.group(0) + "\n";
-                                        Logger.logInfo(LOG_TAG, msg);
-                                        out.write(msg);
-                                        err = true;
-                                        break;
-                                    }
-                                }
-                                cmdline = m.replaceAll("");
-                        
-                                m = EXTRA_FLOAT.matcher(cmdline);
-                                while (m.find()) {
-                                    try {
-                                        floatExtras.put(m.group(1), Float.parseFloat(Objects.requireNonNull(m.group(2))));
-                                    }
-                                    catch (NumberFormatException e) {
-                                        String msg = "Invalid float extra: " + m.group(0) + "\n";
-                                        Logger.logInfo(LOG_TAG, msg);
-                                        out.write(msg);
-                                        err = true;
-                                        break;
-                                    }
-                                }
-                                cmdline = m.replaceAll("");
-                        
-                                m = EXTRA_INT_LIST.matcher(cmdline);
-                                while (m.find()) {
-                                    try {
-                                        String[] parts = Objects.requireNonNull(m.group(2)).split(",");
-                                        int[] ints = new int[parts.length];
-                                        for (int i = 0; i < parts.length; i++) {
-                                            ints[i] = Integer.parseInt(parts[i]);
-                                        }
-                                        intArrayExtras.put(m.group(1), ints);
-                                    }
-                                    catch (NumberFormatException e) {
-                                        String msg = "Invalid int array extra: " + m.group(0) + "\n";
-                                        Logger.logInfo(LOG_TAG, msg);
-                                        out.write(msg);
-                                        err = true;
-                                        break;
-                                    }
-                                }
-                                cmdline = m.replaceAll("");
-                        
-                                m = EXTRA_LONG_LIST.matcher(cmdline);
-                                while (m.find()) {
-                                    try {
-                                        String[] parts = Objects.requireNonNull(m.group(2)).split(",");
-                                        long[] longs = new long[parts.length];
-                                        for (int i = 0; i < parts.length; i++) {
-                                            longs[i] = Long.parseLong(parts[i]);
-                                        }
-                                        longArrayExtras.put(m.group(1), longs);
-                                    }
-                                    catch (NumberFormatException e) {
-                                        String msg = "Invalid long array extra: " + m.group(0) + "\n";
-                                        Logger.logInfo(LOG_TAG, msg);
-                                        out.write(msg);
-                                        err = true;
-                                        break;
-                                    }
-                                }
-                                cmdline = m.replaceAll("");
-                        
-                                m = ACTION.matcher(cmdline);
-                                while (m.find()) {
-                                    intent.setAction(m.group(1));
-                                }
-                                cmdline = m.replaceAll("");
-                        
-                                m = EXTRA_UNSUPPORTED.matcher(cmdline);
-                                if (m.find()) {
-                                    String msg = "Unsupported argument type: " + m.group(0) + "\n";
-                                    Logger.logInfo(LOG_TAG, msg);
-                                    out.write(msg);
-                                    err = true;
-                                }
-                                cmdline = m.replaceAll("");
-                        
-                                // check if there are any non-whitespace characters left after parsing all the options
-                                cmdline = cmdline.replaceAll("\\s", "");
-                                if (!"".equals(cmdline)) {
-                                    String msg = "Unsupported options: " + cmdline + "\n";
-                                    Logger.logInfo(LOG_TAG, msg);
-                                    out.write(msg);
-                                    err = true;
-                                }
-                        
-                                if (err) {
-                                    out.flush();
-                                    continue;
-                                }
-                        
-                                // set the intent extras
-                                for (Map.Entry<String, String> e : stringExtras.entrySet()) {
-                                    intent.putExtra(e.getKey(), e.getValue());
-                                }
-                                for (Map.Entry<String, String[]> e : stringArrayExtras.entrySet()) {
-                                    intent.putExtra(e.getKey(), e.getValue());
-                                }
-                                for (Map.Entry<String, Integer> e : intExtras.entrySet()) {
-                                    intent.putExtra(e.getKey(), e.getValue());
-                                }
-                                for (Map.Entry<String, Boolean> e : booleanExtras.entrySet()) {
-                                    intent.putExtra(e.getKey(), e.getValue());
-                                }
-                                for (Map.Entry<String, Float> e : floatExtras.entrySet()) {
-                                    intent.putExtra(e.getKey(), e.getValue());
-                                }
-                                for (Map.Entry<String, int[]> e : intArrayExtras.entrySet()) {
-                                    intent.putExtra(e.getKey(), e.getValue());
-                                }
-                                for (Map.Entry<String, long[]> e : longArrayExtras.entrySet()) {
-                                    intent.putExtra(e.getKey(), e.getValue());
-                                }
-                                app.getApplicationContext().sendOrderedBroadcast(intent, null);
-                                // send a null byte as a sign that the arguments have been successfully received, parsed and the broadcast receiver is called
-                                con.getOutputStream().write(0);
-                                con.getOutputStream().flush();
-                            }
-                            catch (Exception e) {
-                                Logger.logStackTraceWithMessage(LOG_TAG, "Error parsing arguments", e);
-                                out.write("Exception in the plugin\n");
-                                out.flush();
-                            }
+                            final Connection connection = new SocketConnection(con);
+                            workers.execute(() -> handleConnection(app, connection, readTimeout));
+                        }
+                        catch (RejectedExecutionException e) {
+                            Logger.logError(LOG_TAG, "Too many pending connections, rejecting connection");
+                            rejectConnection(con);
                         }
                         catch (java.io.IOException e) {
                             Logger.logStackTraceWithMessage(LOG_TAG, "Connection error", e);
+                            closeConnection(con);
                         }
                     }
                 }
                 catch (Exception e) {
                     Logger.logStackTraceWithMessage(LOG_TAG, "Error listening for connections", e);
                 }
-            });
+            }, LOG_TAG);
             listener.start();
         }
     }
 
+    /**
+     * Read and handle the request of a connection, on one of the worker threads. Also called by
+     * tests with a {@link Connection} in memory, to run requests through the whole plugin.
+     */
+    public static void handleConnection(Application app, Connection con, int readTimeout) {
+        boolean keepOpen = false;
+        try {
+            DataInputStream in = new DataInputStream(con.getInputStream());
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(con.getOutputStream()));
+            // don't let a client that never sends its request block a worker forever
+            con.setSoTimeout(readTimeout);
+            try {
+                //System.out.println("connection");
+                int length = in.readUnsignedShort();
+                if (length == 0) {
+                    // an empty command line is never sent, so it is used to select one of the newer protocols
+                    keepOpen = handleProtocolHeader(app, con, in, out);
+                    return;
+                }
+                byte[] b = new byte[length];
+                in.readFully(b);
+                long receivedTime = System.nanoTime();
+                String cmdline = new String(b, StandardCharsets.UTF_8);
+
+                Intent intent = con.newIntent(app);
+                //System.out.println(cmdline.replaceAll("--es socket_input \".*?\"","").replaceAll("--es socket_output \".*?\"",""));
+                String errors = CommandLineParser.parse(cmdline, intent);
+                recordParsed(intent, receivedTime);
+                keepOpen = finishRequest(app, con, out, intent, errors);
+            }
+            catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Error parsing arguments", e);
+                out.write("Exception in the plugin\n");
+                out.flush();
+            }
+        }
+        catch (java.io.IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Connection error", e);
+        }
+        finally {
+            if (!keepOpen) closeConnection(con);
+        }
+    }
+
+    /**
+     * Reply to a parsed request, dispatching it if there were no errors.
+     *
+     * @return true if the result is written to the connection and it must be kept open.
+     */
+    private static boolean finishRequest(Application app, Connection con, BufferedWriter out, Intent intent, String errors) throws java.io.IOException {
+        // received along with the bytes of the request
+        FileDescriptor[] fds = con.getAncillaryFileDescriptors();
+        if (errors != null) {
+            closeFileDescriptors(fds, 0);
+            AsyncLogger.logInfo(LOG_TAG, errors);
+            out.write(errors);
+            out.flush();
+            return false;
+        }
+
+        if (fds != null && fds.length > 0) {
+            AsyncLogger.logDebug(LOG_TAG, "Using %d file descriptors of the client", fds.length);
+            closeFileDescriptors(fds, 2);
+            return registerAndDispatch(app, con, intent, new FdResultChannel(con, fds));
+        }
+
+        if (intent.hasExtra(ResultReturner.SOCKET_OUTPUT_EXTRA)) {
+            dispatchIntent(app, intent, con.getClient());
+            // send a null byte as a sign that the arguments have been successfully received, parsed and the broadcast receiver is called
+            con.getOutputStream().write(0);
+            con.getOutputStream().flush();
+            return false;
+        }
+
+        // the result follows the null byte on the same connection, so it has to be sent before the API call can write anything
+        return registerAndDispatch(app, con, intent, new ConnectionResultChannel(con));
+    }
+
+    /**
+     * Register the channel for the result, reply with the null byte and dispatch the request.
+     *
+     * @return true, the connection is closed by the channel.
+     */
+    private static boolean registerAndDispatch(Application app, Connection con, Intent intent, ResultReturner.ResultChannel channel) throws java.io.IOException {
+        String channelId = ResultReturner.registerResultChannel(intent, channel);
+        con.getOutputStream().write(0);
+        con.getOutputStream().flush();
+        // input to the API call may take any time to arrive
+        con.setSoTimeout(0);
+        try {
+            dispatchIntent(app, intent, con.getClient());
+        } catch (Exception e) {
+            ResultReturner.unregisterResultChannel(channelId);
+            // the channel is never closed by the ResultReturner
+            if (channel instanceof FdResultChannel) ((FdResultChannel) channel).closeStreams();
+            throw e;
+        }
+        return true;
+    }
+
+    /** Close the received file descriptors from the index on, which are not used. */
+    private static void closeFileDescriptors(FileDescriptor[] fds, int from) {
+        if (fds == null) return;
+        for (int i = from; i < fds.length; i++) {
+            try {
+                Os.close(fds[i]);
+            } catch (ErrnoException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to close file descriptor of the client", e);
+            }
+        }
+    }
+
+    /**
+     * Read the header sent after a zero length prefix:
+     *
+     * `u32 PROTOCOL_MAGIC | u8 PROTOCOL_VERSION | u8 mode`
+     *
+     * @return true if the connection was handed over to another thread and must be kept open.
+     */
+    private static boolean handleProtocolHeader(Application app, Connection con, DataInputStream in, BufferedWriter out) throws java.io.IOException {
+        int magic = in.readInt();
+        int version = in.readUnsignedByte();
+        int mode = in.readUnsignedByte();
+        if (magic != PROTOCOL_MAGIC || version != PROTOCOL_VERSION) {
+            String msg = "Unsupported protocol version " + version + "\n";
+            AsyncLogger.logInfo(LOG_TAG, msg);
+            out.write(msg);
+            out.flush();
+            return false;
+        }
+
+        switch (mode) {
+            case MODE_SESSION:
+                return startSession(app, con);
+            case MODE_BINARY_REQUEST: {
+                long receivedTime = System.nanoTime();
+                Intent intent = con.newIntent(app);
+                String errors = BinaryRequestReader.read(in, intent);
+                recordParsed(intent, receivedTime);
+                return finishRequest(app, con, out, intent, errors);
+            }
+            default:
+                String msg = "Unsupported protocol mode " + mode + "\n";
+                AsyncLogger.logInfo(LOG_TAG, msg);
+                out.write(msg);
+                out.flush();
+                return false;
+        }
+    }
+
+    private static boolean startSession(Application app, Connection con) throws java.io.IOException {
+        SocketSession session = new SocketSession(app, con, sessionDrainTimeout);
+        if (sessionCount.incrementAndGet() > maxSessions) {
+            sessionCount.decrementAndGet();
+            Logger.logError(LOG_TAG, "Too many sessions, rejecting session");
+            session.writeError(0, "Too many sessions\n");
+            return false;
+        }
+
+        // sessions are idle between requests
+        con.setSoTimeout(0);
+        // a session whose client stopped sending stays open until its last request finished or the drain timeout
+        session.setOnClose(sessionCount::decrementAndGet);
+        new Thread(session, SocketSession.class.getSimpleName()).start();
+        return true;
+    }
+
+    /**
+     * Record the time it took to parse a request, and the time it was received for the total
+     * time of the request, in the {@link ApiMetrics}.
+     */
+    static void recordParsed(Intent intent, long receivedTime) {
+        ApiMetrics.record(intent.getStringExtra("api_method"), ApiMetrics.Stage.PARSE, System.nanoTime() - receivedTime);
+        intent.putExtra(ApiMetrics.EXTRA_RECEIVED_TIME, receivedTime);
+    }
+
+    /**
+     * Deliver the parsed request to the {@link TermuxApiReceiver} once the {@link ApiScheduler}
+     * allows it, or return a `busy` error as its result. Also used for the sub-requests of the
+     * {@link com.termux.api.apis.BatchAPI}.
+     *
+     * @param client The client that sent the request, see {@link Connection#getClient()}.
+     */
+    public static void dispatchIntent(Application app, Intent intent, String client) {
+        ApiScheduler.submit(intent, client, () -> deliverIntent(app, intent),
+                message -> ResultReturner.returnError(app, intent, message));
+    }
+
+    /**
+     * Deliver the request to the {@link TermuxApiReceiver}, directly with the
+     * {@link DirectDispatcher} if possible, otherwise with a broadcast.
+     */
+    private static void deliverIntent(Application app, Intent intent) {
+        intent.putExtra(ApiMetrics.EXTRA_DISPATCH_TIME, System.nanoTime());
+        if (DirectDispatcher.dispatch(app, intent)) return;
+        app.getApplicationContext().sendOrderedBroadcast(intent, null);
+    }
+
+    private static void closeConnection(java.io.Closeable con) {
+        if (con == null) return;
+        try {
+            con.close();
+        }
+        catch (java.io.IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to close connection", e);
+        }
+    }
+
+    /**
+     * The {@link ResultReturner.ResultChannel} of a request without a `socket_output` extra, which
+     * uses the request connection for the result, input and file descriptors.
+     */
+    private static class ConnectionResultChannel implements ResultReturner.ResultChannel {
+        private final Connection con;
+
+        ConnectionResultChannel(Connection con) {
+            this.con = con;
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws java.io.IOException {
+            return con.getOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() throws java.io.IOException {
+            return con.getInputStream();
+        }
+
+        @Override
+        public void setFileDescriptorsForSend(FileDescriptor[] fds) {
+            con.setFileDescriptorsForSend(fds);
+        }
+
+        @Override
+        public FileDescriptor getFileDescriptor() {
+            return con.getFileDescriptor();
+        }
+
+        @Override
+        public void close(int resultCode) {
+            closeConnection(con);
+        }
+    }
+
+    /**
+     * The {@link ResultReturner.ResultChannel} of a request that was sent with file descriptors of
+     * the client. The result is written straight to the first one, like a pipe or file the client
+     * chose, and input is read from the second one or else from the request connection.
+     *
+     * The request connection is watched for the client closing it and closed after the result, so
+     * the client can wait for its end. File descriptors of the result are sent on it with a null
+     * byte, since nothing else is written to it.
+     */
+    private static class FdResultChannel implements ResultReturner.ResultChannel {
+        private final Connection con;
+        private final FileOutputStream output;
+        private final FileInputStream input;
+
+        FdResultChannel(Connection con, FileDescriptor[] fds) {
+            this.con = con;
+            output = new FileOutputStream(fds[0]);
+            input = fds.length > 1 ? new FileInputStream(fds[1]) : null;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public InputStream getInputStream() throws java.io.IOException {
+            return input != null ? input : con.getInputStream();
+        }
+
+        @Override
+        public void setFileDescriptorsForSend(FileDescriptor[] fds) throws java.io.IOException {
+            con.setFileDescriptorsForSend(fds);
+            con.getOutputStream().write(0);
+            con.getOutputStream().flush();
+        }
+
+        @Override
+        public FileDescriptor getFileDescriptor() {
+            return con.getFileDescriptor();
+        }
+
+        @Override
+        public void close(int resultCode) {
+            closeStreams();
+            closeConnection(con);
+        }
+
+        void closeStreams() {
+            for (java.io.Closeable stream : new java.io.Closeable[] { output, input }) {
+                if (stream == null) continue;
+                try {
+                    stream.close();
+                } catch (java.io.IOException e) {
+                    Logger.logStackTraceWithMessage(LOG_TAG, "Failed to close file descriptor of the client", e);
+                }
+            }
+        }
+    }
+
+    /** The {@link Connection} of a {@link LocalSocket} accepted by the listener. */
+    private static class SocketConnection implements Connection {
+        private final LocalSocket socket;
+
+        SocketConnection(LocalSocket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws java.io.IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws java.io.IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) throws java.io.IOException {
+            socket.setSoTimeout(timeout);
+        }
+
+        @Override
+        public FileDescriptor[] getAncillaryFileDescriptors() throws java.io.IOException {
+            return socket.getAncillaryFileDescriptors();
+        }
+
+        @Override
+        public void setFileDescriptorsForSend(FileDescriptor[] fds) {
+            socket.setFileDescriptorsForSend(fds);
+        }
+
+        @Override
+        public FileDescriptor getFileDescriptor() {
+            return socket.getFileDescriptor();
+        }
+
+        @Override
+        public void shutdownInput() throws java.io.IOException {
+            socket.shutdownInput();
+        }
+
+        @Override
+        public void shutdownOutput() throws java.io.IOException {
+            socket.shutdownOutput();
+        }
+
+        @Override
+        public String getClient() {
+            try {
+                return Integer.toString(socket.getPeerCredentials().getPid());
+            } catch (java.io.IOException e) {
+                return "unknown";
+            }
+        }
+
+        @Override
+        public Intent newIntent(Context context) {
+            return new Intent(context.getApplicationContext(), TermuxApiReceiver.class);
+        }
+
+        @Override
+        public void close() throws java.io.IOException {
+            socket.close();
+        }
+    }
+
+    private static void rejectConnection(LocalSocket con) {
+        if (con == null) return;
+        try (LocalSocket c = con) {
+            c.getOutputStream().write("Too many concurrent requests to the plugin\n".getBytes(StandardCharsets.UTF_8));
+            c.getOutputStream().flush();
+        }
+        catch (java.io.IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to reject connection", e);
+        }
+    }
+
 }
@@ -0,0 +1,368 @@
+package com.termux.api;
+
+import android.app.Application;
+import android.content.Intent;
+
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.BinaryRequestReader;
+import com.termux.api.util.CommandLineParser;
+import com.termux.api.util.ResultReturner;
+import com.termux.shared.logger.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A persistent connection to the {@link SocketListener} carrying many requests, so clients that
+ * poll the API don't pay for a new connection and a connection back to a `socket_output` socket
+ * for every call.
+ *
+ * A client opens a session by sending the {@link SocketListener#PROTOCOL_MAGIC} header with the
+ * {@link SocketListener#MODE_SESSION} mode instead of the length of a command line. After that
+ * both sides exchange frames, with all integers in big endian:
+ *
+ * `u8 type | u32 request id | u32 payload length | payload`
+ *
+ * Client frames:
+ * - {@link #FRAME_REQUEST}: the payload is an `am` style command line, like the one of a single
+ *   request. The `socket_output` extra is not needed.
+ * - {@link #FRAME_BINARY_REQUEST}: like {@link #FRAME_REQUEST}, but the payload is a request in the
+ *   format read by {@link BinaryRequestReader}.
+ *
+ * Server frames, all with the id of the request they belong to:
+ * - {@link #FRAME_ACCEPTED}: the request was parsed and dispatched.
+ * - {@link #FRAME_ERROR}: the request failed, the payload is the error message. No other frames
+ *   follow for the request.
+ * - {@link #FRAME_OUTPUT}: a chunk of the output of the API call.
+ * - {@link #FRAME_END}: the API call finished, the payload is a u8 result code which is 0 on
+ *   success. File descriptors sent by the API call are attached to this frame.
+ *
+ * The frames of different requests may be interleaved and requests may finish in any order. Input
+ * for API calls that read stdin is still read from the `socket_input` socket of the request.
+ *
+ * When the client shuts down its side of the connection, no more requests are read, but the
+ * requests still running finish and send their frames before the session is closed. Requests that
+ * haven't finished within the drain timeout are dropped, so a request that never returns a result
+ * doesn't keep the session open.
+ */
+class SocketSession implements Runnable {
+
+    static final int FRAME_REQUEST = 1;
+    static final int FRAME_BINARY_REQUEST = 2;
+
+    static final int FRAME_ACCEPTED = 1;
+    static final int FRAME_ERROR = 2;
+    static final int FRAME_OUTPUT = 3;
+    static final int FRAME_END = 4;
+
+    /** Upper bound of the payload length accepted from clients. */
+    static final int MAX_PAYLOAD_LENGTH = 16 * 1024 * 1024;
+
+    /** Size of the buffer output is collected in before it is sent in a {@link #FRAME_OUTPUT}. */
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    private static final String LOG_TAG = "SocketSession";
+
+    /** Runs the drain timeouts of all sessions. */
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, LOG_TAG + "-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private final Application app;
+    private final SocketListener.Connection socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final String client;
+    /** Milliseconds to wait for running requests after the input ended, 0 to wait forever. */
+    private final int drainTimeout;
+
+    /** Ids of the result channels of requests still running, also the lock of {@link #inputEnded}. */
+    private final Set<String> channelIds = ConcurrentHashMap.newKeySet();
+    /** Whether the client sent its last request, so the session is closed with the last result. */
+    private boolean inputEnded;
+    /** Closes the session if the requests still running don't finish in time after the input ended. */
+    private ScheduledFuture<?> drainTimer;
+    private volatile boolean closed;
+    /** Called once when the session is closed. */
+    private Runnable onClose;
+
+    SocketSession(Application app, SocketListener.Connection socket, int drainTimeout) throws IOException {
+        this.app = app;
+        this.socket = socket;
+        this.drainTimeout = drainTimeout;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.client = socket.getClient();
+    }
+
+    void setOnClose(Runnable onClose) {
+        this.onClose = onClose;
+    }
+
+    @Override
+    public void run() {
+        AsyncLogger.logDebug(LOG_TAG, "Session started");
+        boolean inputEnded = false;
+        try {
+            while (true) {
+                int type = in.readUnsignedByte();
+                int requestId = in.readInt();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_PAYLOAD_LENGTH)
+                    throw new IOException("Invalid payload length " + (length & 0xFFFFFFFFL));
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                long receivedTime = System.nanoTime();
+
+                switch (type) {
+                    case FRAME_REQUEST: {
+                        Intent intent = socket.newIntent(app);
+                        String errors = CommandLineParser.parse(new String(payload, StandardCharsets.UTF_8), intent);
+                        SocketListener.recordParsed(intent, receivedTime);
+                        handleRequest(requestId, intent, errors);
+                        break;
+                    }
+                    case FRAME_BINARY_REQUEST: {
+                        Intent intent = socket.newIntent(app);
+                        String errors;
+                        try (DataInputStream request = new DataInputStream(new ByteArrayInputStream(payload))) {
+                            errors = BinaryRequestReader.read(request, intent);
+                        } catch (EOFException e) {
+                            errors = "Truncated request\n";
+                        }
+                        SocketListener.recordParsed(intent, receivedTime);
+                        handleRequest(requestId, intent, errors);
+                        break;
+                    }
+                    default:
+                        writeError(requestId, "Unsupported frame type " + type + "\n");
+                }
+            }
+        } catch (EOFException e) {
+            // the client closed or shut down its side, a frame cut short can't be replied to anyway
+            inputEnded = true;
+        } catch (IOException e) {
+            if (!closed)
+                Logger.logStackTraceWithMessage(LOG_TAG, "Session connection error", e);
+        } finally {
+            if (inputEnded) {
+                endInput();
+            } else {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Stop reading requests, and close the session once the requests still running have finished
+     * or the drain timeout passed.
+     */
+    private void endInput() {
+        synchronized (channelIds) {
+            inputEnded = true;
+            if (!channelIds.isEmpty()) {
+                AsyncLogger.logDebug(LOG_TAG, "Session input ended, waiting for %d requests", channelIds.size());
+                if (drainTimeout > 0)
+                    drainTimer = timer.schedule(this::drainTimedOut, drainTimeout, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        close();
+    }
+
+    private void drainTimedOut() {
+        AsyncLogger.logInfo(LOG_TAG, "Session requests not finished within %dms, closing session", drainTimeout);
+        close();
+    }
+
+    /** Forget a request that finished, and close the session if it was the last one after the input ended. */
+    private void requestFinished(String id) {
+        synchronized (channelIds) {
+            channelIds.remove(id);
+            if (!inputEnded || !channelIds.isEmpty()) return;
+        }
+        close();
+    }
+
+    private void handleRequest(int requestId, Intent intent, String errors) throws IOException {
+        if (errors != null) {
+            AsyncLogger.logInfo(LOG_TAG, errors);
+            writeError(requestId, errors);
+            return;
+        }
+
+        SessionResultChannel channel = new SessionResultChannel(requestId);
+        channel.id = ResultReturner.registerResultChannel(intent, channel);
+        channelIds.add(channel.id);
+
+        writeFrame(FRAME_ACCEPTED, requestId, null, 0, 0);
+        try {
+            SocketListener.dispatchIntent(app, intent, client);
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Error dispatching request", e);
+            channelIds.remove(channel.id);
+            ResultReturner.unregisterResultChannel(channel.id);
+            writeError(requestId, "Exception in the plugin\n");
+        }
+    }
+
+    /** Reply with an error to a request, or to the whole session if the request id is 0. */
+    void writeError(int requestId, String message) throws IOException {
+        byte[] b = message.getBytes(StandardCharsets.UTF_8);
+        writeFrame(FRAME_ERROR, requestId, b, 0, b.length);
+    }
+
+    private void writeFrame(int type, int requestId, byte[] payload, int offset, int length) throws IOException {
+        synchronized (out) {
+            writeFrameLocked(type, requestId, payload, offset, length);
+        }
+    }
+
+    private void writeFrameLocked(int type, int requestId, byte[] payload, int offset, int length) throws IOException {
+        if (closed) throw new IOException("Session is closed");
+        out.writeByte(type);
+        out.writeInt(requestId);
+        out.writeInt(length);
+        if (length > 0) out.write(payload, offset, length);
+        out.flush();
+    }
+
+    void close() {
+        synchronized (channelIds) {
+            if (closed) return;
+            closed = true;
+            if (drainTimer != null) drainTimer.cancel(false);
+        }
+        for (String id : channelIds) {
+            ResultReturner.unregisterResultChannel(id);
+        }
+        channelIds.clear();
+        try {
+            // the DisconnectWatcher may still hold duplicates of the socket for running requests,
+            // the shut down tells them and the client that the session is over
+            socket.shutdownInput();
+            socket.shutdownOutput();
+        } catch (IOException ignored) {}
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to close session", e);
+        }
+        if (onClose != null) onClose.run();
+        AsyncLogger.logDebug(LOG_TAG, "Session finished");
+    }
+
+
+
+    /**
+     * The {@link ResultReturner.ResultChannel} of a request, writing the result as frames on the
+     * session connection.
+     */
+    private class SessionResultChannel implements ResultReturner.ResultChannel {
+        private final int requestId;
+        private String id;
+        private final FrameOutputStream outputStream = new FrameOutputStream();
+        private FileDescriptor[] fds;
+
+        SessionResultChannel(int requestId) {
+            this.requestId = requestId;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return null;
+        }
+
+        @Override
+        public void setFileDescriptorsForSend(FileDescriptor[] fds) {
+            this.fds = fds;
+        }
+
+        @Override
+        public FileDescriptor getFileDescriptor() {
+            return socket.getFileDescriptor();
+        }
+
+        @Override
+        public void close(int resultCode) throws IOException {
+            try {
+                outputStream.flush();
+                synchronized (out) {
+                    if (fds != null) {
+                        // the fds are sent with the next write to the socket, so write everything before the end frame first
+                        out.flush();
+                        socket.setFileDescriptorsForSend(fds);
+                    }
+                    writeFrameLocked(FRAME_END, requestId, new byte[] { (byte) resultCode }, 0, 1);
+                }
+            } finally {
+                // only after the end frame, so the session isn't closed before it was sent
+                requestFinished(id);
+            }
+        }
+
+        /** Collects output and sends it in {@link #FRAME_OUTPUT} frames. */
+        private class FrameOutputStream extends OutputStream {
+            private final byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+            private int count;
+
+            @Override
+            public synchronized void write(int b) throws IOException {
+                if (count == buffer.length) flush();
+                buffer[count++] = (byte) b;
+            }
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) throws IOException {
+                if (len >= buffer.length) {
+                    flush();
+                    writeFrame(FRAME_OUTPUT, requestId, b, off, len);
+                    return;
+                }
+                if (len > buffer.length - count) flush();
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+            }
+
+            @Override
+            public synchronized void flush() throws IOException {
+                if (count == 0) return;
+                int length = count;
+                count = 0;
+                writeFrame(FRAME_OUTPUT, requestId, buffer, 0, length);
+            }
+
+            /** The session connection stays open, the request is only finished by {@link SessionResultChannel#close(int)}. */
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        }
+    }
+
+}
@@ -2,7 +2,9 @@ package com.termux.api;
 
 import android.app.Application;
 import android.content.Context;
+import android.os.SystemClock;
 
+import com.termux.api.util.ApiMetrics;
 import com.termux.api.util.ResultReturner;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxConstants;
@@ -12,6 +14,13 @@ import com.termux.shared.termux.settings.preferences.TermuxAPIAppSharedPreferenc
 
 public class TermuxAPIApplication extends Application {
 
+    /** Milliseconds the log level read by {@link #refreshLogConfig(Context)} is reused in warm mode. */
+    private static final long LOG_CONFIG_MAX_AGE = 10000;
+
+    private static TermuxAPIAppSharedPreferences preferences;
+    private static volatile long logConfigReadTime;
+    private static boolean warmMode;
+
     public void onCreate() {
         super.onCreate();
 
@@ -24,16 +33,39 @@ public class TermuxAPIApplication extends Application {
 
         Logger.logDebug("Starting Application");
 
+        TermuxAPIProperties.loadProperties();
+
         SocketListener.createSocketListener(this);
+
+        warmMode = KeepAliveService.isWarmMode();
+        if (warmMode) KeepAliveService.start(this);
+
+        ApiMetrics.recordStartup(warmMode);
     }
 
     public static void setLogConfig(Context context, boolean commitToFile) {
         Logger.setDefaultLogTag(TermuxConstants.TERMUX_API_APP_NAME.replaceAll(":", ""));
 
         // Load the log level from shared preferences and set it to the {@link Logger.CURRENT_LOG_LEVEL}
-        TermuxAPIAppSharedPreferences preferences = TermuxAPIAppSharedPreferences.build(context);
+        TermuxAPIAppSharedPreferences preferences = getPreferences(context);
         if (preferences == null) return;
         preferences.setLogLevel(null, preferences.getLogLevel(true), commitToFile);
+        logConfigReadTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Pick up a log level changed from the Termux app settings before handling a request. In warm
+     * mode the log level is only read again if it is older than {@link #LOG_CONFIG_MAX_AGE}.
+     */
+    public static void refreshLogConfig(Context context) {
+        if (warmMode && SystemClock.elapsedRealtime() - logConfigReadTime < LOG_CONFIG_MAX_AGE) return;
+        setLogConfig(context, false);
+    }
+
+    /** Get the preferences, which are only built once since that creates a package context. */
+    private static synchronized TermuxAPIAppSharedPreferences getPreferences(Context context) {
+        if (preferences == null) preferences = TermuxAPIAppSharedPreferences.build(context.getApplicationContext());
+        return preferences;
     }
 
 }
@@ -0,0 +1,126 @@
+package com.termux.api;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Optional tuning options of the Termux:API app, read from {@link #PROPERTIES_FILE_PATH} in the
+ * same `key=value` format as the `termux.properties` file of the Termux app.
+ *
+ * The file is read once when the app process starts. Missing or invalid values fall back to
+ * their defaults.
+ */
+public class TermuxAPIProperties {
+
+    /** The path to the Termux:API properties file. */
+    public static final String PROPERTIES_FILE_PATH = TermuxConstants.TERMUX_HOME_DIR_PATH + "/.termux/termux-api.properties"; // Default: "/data/data/com.termux/files/home/.termux/termux-api.properties"
+
+    /** Number of threads handling connections to the {@link SocketListener}. */
+    public static final String KEY_SOCKET_LISTENER_WORKERS = "socket-listener-workers";
+    /** Number of accepted connections that may wait for a free {@link SocketListener} thread. */
+    public static final String KEY_SOCKET_LISTENER_QUEUE_SIZE = "socket-listener-queue-size";
+    /** Milliseconds the {@link SocketListener} waits for a client to send its request. */
+    public static final String KEY_SOCKET_LISTENER_READ_TIMEOUT = "socket-listener-read-timeout";
+    /** Maximum number of persistent {@link SocketSession} connections open at the same time. */
+    public static final String KEY_SOCKET_LISTENER_MAX_SESSIONS = "socket-listener-max-sessions";
+    /** Milliseconds a {@link SocketSession} waits for its running requests after the client stopped sending. */
+    public static final String KEY_SOCKET_SESSION_DRAIN_TIMEOUT = "socket-session-drain-timeout";
+    /** Whether requests from the {@link SocketListener} are run by the {@link DirectDispatcher} instead of a broadcast. */
+    public static final String KEY_DIRECT_DISPATCH = "direct-dispatch";
+    /** Number of threads of the {@link com.termux.api.util.ResultExecutor} pool for quick API calls. */
+    public static final String KEY_RESULT_EXECUTOR_QUICK_THREADS = "result-executor-quick-threads";
+    /** Number of quick API calls that may wait for a free thread. */
+    public static final String KEY_RESULT_EXECUTOR_QUICK_QUEUE_SIZE = "result-executor-quick-queue-size";
+    /** Number of threads of the {@link com.termux.api.util.ResultExecutor} pool for blocking API calls. */
+    public static final String KEY_RESULT_EXECUTOR_BLOCKING_THREADS = "result-executor-blocking-threads";
+    /** What happens to API calls that don't fit into their {@link com.termux.api.util.ResultExecutor} pool. */
+    public static final String KEY_RESULT_EXECUTOR_ADMISSION = "result-executor-admission";
+    /** Comma separated `ApiMethod:limit` pairs overriding the {@link ApiScheduler} limits of requests running at the same time. */
+    public static final String KEY_API_CONCURRENCY_LIMITS = "api-concurrency-limits";
+    /** Number of requests of an API method that may wait for the {@link ApiScheduler}. */
+    public static final String KEY_API_QUEUE_SIZE = "api-queue-size";
+    /** Milliseconds a request may wait for the {@link ApiScheduler} before it is rejected. */
+    public static final String KEY_API_QUEUE_TIMEOUT = "api-queue-timeout";
+    /** Whether the {@link KeepAliveService} keeps the app process and its system services warm. */
+    public static final String KEY_WARM_MODE = "warm-mode";
+    /** Number of messages that may wait for the {@link com.termux.api.util.AsyncLogger} before new ones are dropped. */
+    public static final String KEY_ASYNC_LOG_BUFFER_SIZE = "async-log-buffer-size";
+
+    private static final String LOG_TAG = "TermuxAPIProperties";
+
+    private static Properties properties;
+
+    /**
+     * Load the properties file. Called from {@link TermuxAPIApplication#onCreate()}, but the
+     * getters will also load it on first use.
+     */
+    public static synchronized void loadProperties() {
+        Properties newProperties = new Properties();
+        File file = new File(PROPERTIES_FILE_PATH);
+        if (file.isFile()) {
+            try (InputStreamReader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                newProperties.load(reader);
+                Logger.logDebug(LOG_TAG, "Loaded properties from \"" + PROPERTIES_FILE_PATH + "\"");
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load properties from \"" + PROPERTIES_FILE_PATH + "\"", e);
+            }
+        }
+        properties = newProperties;
+    }
+
+    private static synchronized String getProperty(String key) {
+        if (properties == null) loadProperties();
+        String value = properties.getProperty(key);
+        return value == null ? null : value.trim();
+    }
+
+    /**
+     * Get an int property, or the default value if it is not set, not a number or outside the
+     * [min, max] range.
+     */
+    public static int getInt(String key, int defaultValue, int min, int max) {
+        String value = getProperty(key);
+        if (value == null || value.isEmpty()) return defaultValue;
+        try {
+            int result = Integer.parseInt(value);
+            if (result >= min && result <= max) return result;
+        } catch (NumberFormatException ignored) {}
+        Logger.logError(LOG_TAG, "Invalid value \"" + value + "\" for \"" + key + "\", must be an integer between " + min + " and " + max + ". Using default " + defaultValue + ".");
+        return defaultValue;
+    }
+
+    /** Get a string property, or the default value if it is not set. */
+    public static String getString(String key, String defaultValue) {
+        String value = getProperty(key);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    /** Get a string property, or the default value if it is not set or not one of the allowed values. */
+    public static String getString(String key, String defaultValue, String... allowedValues) {
+        String value = getProperty(key);
+        if (value == null || value.isEmpty()) return defaultValue;
+        for (String allowedValue : allowedValues) {
+            if (allowedValue.equals(value)) return value;
+        }
+        Logger.logError(LOG_TAG, "Invalid value \"" + value + "\" for \"" + key + "\", must be one of " + Arrays.toString(allowedValues) + ". Using default " + defaultValue + ".");
+        return defaultValue;
+    }
+
+    /** Get a boolean property, or the default value if it is not set or not "true" or "false". */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getProperty(key);
+        if (value == null || value.isEmpty()) return defaultValue;
+        if ("true".equalsIgnoreCase(value)) return true;
+        if ("false".equalsIgnoreCase(value)) return false;
+        Logger.logError(LOG_TAG, "Invalid value \"" + value + "\" for \"" + key + "\", must be \"true\" or \"false\". Using default " + defaultValue + ".");
+        return defaultValue;
+    }
+
+}
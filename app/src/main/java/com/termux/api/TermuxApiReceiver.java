@@ -9,7 +9,9 @@ import android.provider.Settings;
 import android.widget.Toast;
 
 import com.termux.api.apis.AudioAPI;
+import com.termux.api.apis.BatchAPI;
 import com.termux.api.apis.BatteryStatusAPI;
+import com.termux.api.apis.BenchmarkAPI;
 import com.termux.api.apis.BrightnessAPI;
 import com.termux.api.apis.CallLogAPI;
 import com.termux.api.apis.CameraInfoAPI;
@@ -18,11 +20,14 @@ import com.termux.api.apis.ClipboardAPI;
 import com.termux.api.apis.ContactListAPI;
 import com.termux.api.apis.DialogAPI;
 import com.termux.api.apis.DownloadAPI;
+import com.termux.api.apis.EchoAPI;
 import com.termux.api.apis.FingerprintAPI;
 import com.termux.api.apis.InfraredAPI;
 import com.termux.api.apis.JobSchedulerAPI;
 import com.termux.api.apis.KeystoreAPI;
 import com.termux.api.apis.LocationAPI;
+import com.termux.api.apis.LogAPI;
+import com.termux.api.apis.MetricsAPI;
 import com.termux.api.apis.MediaPlayerAPI;
 import com.termux.api.apis.MediaScannerAPI;
 import com.termux.api.apis.MicRecorderAPI;
@@ -46,21 +51,224 @@ import com.termux.api.apis.VolumeAPI;
 import com.termux.api.apis.WallpaperAPI;
 import com.termux.api.apis.WifiAPI;
 import com.termux.api.activities.TermuxApiPermissionActivity;
+import com.termux.api.util.ApiMetrics;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.ResultCache;
 import com.termux.api.util.ResultReturner;
-import com.termux.shared.data.IntentUtils;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxConstants;
 import com.termux.shared.termux.plugins.TermuxPluginUtils;
 
-public class TermuxApiReceiver extends BroadcastReceiver {
+import java.util.HashMap;
+import java.util.Map;
+
+public class TermuxApiReceiver extends BroadcastReceiver implements ResultReturner.DirectReceiver {
 
     private static final String LOG_TAG = "TermuxApiReceiver";
 
+    /** Handles the requests of one API method. */
+    private interface ApiMethodHandler {
+        void onReceive(TermuxApiReceiver receiver, Context context, Intent intent);
+    }
+
+    /** The handlers of the API methods, by their `api_method` name. */
+    private static final Map<String, ApiMethodHandler> API_METHODS = new HashMap<>();
+
+    static {
+        API_METHODS.put("AudioInfo", (receiver, context, intent) -> {
+            if (receiver.returnCachedResult(intent)) return;
+            AudioAPI.onReceive(receiver, context, intent);
+        });
+        API_METHODS.put("Batch", BatchAPI::onReceive);
+        API_METHODS.put("BatteryStatus", (receiver, context, intent) -> {
+            if (receiver.returnCachedResult(intent)) return;
+            BatteryStatusAPI.onReceive(receiver, context, intent);
+        });
+        API_METHODS.put("Benchmark", BenchmarkAPI::onReceive);
+        API_METHODS.put("Brightness", (receiver, context, intent) -> {
+            if (!Settings.System.canWrite(context)) {
+                // the error is only returned if the permission is not granted as a runtime one
+                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.WRITE_SETTINGS))
+                    ResultReturner.returnError(context, intent, "Please enable the WRITE_SETTINGS permission for Termux:API\n");
+                Toast.makeText(context, "Please enable permission for Termux:API", Toast.LENGTH_LONG).show();
+
+                // user must enable WRITE_SETTINGS permission this special way
+                Intent settingsIntent = new Intent(Settings.ACTION_MANAGE_WRITE_SETTINGS);
+                context.startActivity(settingsIntent);
+                return;
+            }
+            BrightnessAPI.onReceive(receiver, context, intent);
+        });
+        API_METHODS.put("CameraInfo", (receiver, context, intent) -> {
+            if (receiver.returnCachedResult(intent)) return;
+            CameraInfoAPI.onReceive(receiver, context, intent);
+        });
+        API_METHODS.put("CameraPhoto", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.CAMERA)) {
+                CameraPhotoAPI.onReceive(receiver, context, intent);
+            }
+        });
+        API_METHODS.put("CallLog", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.READ_CALL_LOG)) {
+                CallLogAPI.onReceive(context, intent);
+            }
+        });
+        API_METHODS.put("Clipboard", ClipboardAPI::onReceive);
+        API_METHODS.put("ContactList", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.READ_CONTACTS)) {
+                ContactListAPI.onReceive(receiver, context, intent);
+            }
+        });
+        API_METHODS.put("Dialog", (receiver, context, intent) -> DialogAPI.onReceive(context, intent));
+        API_METHODS.put("Download", DownloadAPI::onReceive);
+        API_METHODS.put("Echo", EchoAPI::onReceive);
+        API_METHODS.put("Fingerprint", (receiver, context, intent) -> FingerprintAPI.onReceive(context, intent));
+        API_METHODS.put("InfraredFrequencies", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.TRANSMIT_IR)) {
+                if (receiver.returnCachedResult(intent)) return;
+                InfraredAPI.onReceiveCarrierFrequency(receiver, context, intent);
+            }
+        });
+        API_METHODS.put("InfraredTransmit", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.TRANSMIT_IR)) {
+                InfraredAPI.onReceiveTransmit(receiver, context, intent);
+            }
+        });
+        API_METHODS.put("JobScheduler", JobSchedulerAPI::onReceive);
+        API_METHODS.put("Keystore", (receiver, context, intent) -> KeystoreAPI.onReceive(receiver, intent));
+        API_METHODS.put("Location", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.ACCESS_FINE_LOCATION)) {
+                LocationAPI.onReceive(receiver, context, intent);
+            }
+        });
+        API_METHODS.put("Log", LogAPI::onReceive);
+        API_METHODS.put("Metrics", MetricsAPI::onReceive);
+        API_METHODS.put("MediaPlayer", (receiver, context, intent) -> MediaPlayerAPI.onReceive(context, intent));
+        API_METHODS.put("MediaScanner", MediaScannerAPI::onReceive);
+        API_METHODS.put("MicRecorder", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.RECORD_AUDIO)) {
+                MicRecorderAPI.onReceive(context, intent);
+            }
+        });
+        API_METHODS.put("Nfc", (receiver, context, intent) -> NfcAPI.onReceive(context, intent));
+        API_METHODS.put("NotificationList", (receiver, context, intent) -> {
+            ComponentName cn = new ComponentName(context, NotificationListAPI.NotificationService.class);
+            String flat = Settings.Secure.getString(context.getContentResolver(), "enabled_notification_listeners");
+            final boolean NotificationServiceEnabled = flat != null && flat.contains(cn.flattenToString());
+            if (!NotificationServiceEnabled) {
+                Toast.makeText(context,"Please give Termux:API Notification Access", Toast.LENGTH_LONG).show();
+                context.startActivity(new Intent("android.settings.ACTION_NOTIFICATION_LISTENER_SETTINGS").addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
+                ResultReturner.returnError(context, intent, "Please give Termux:API Notification Access\n");
+            } else {
+                NotificationListAPI.onReceive(receiver, context, intent);
+            }
+        });
+        API_METHODS.put("Notification", NotificationAPI::onReceiveShowNotification);
+        API_METHODS.put("NotificationChannel", NotificationAPI::onReceiveChannel);
+        API_METHODS.put("NotificationRemove", NotificationAPI::onReceiveRemoveNotification);
+        API_METHODS.put("NotificationReply", NotificationAPI::onReceiveReplyToNotification);
+        API_METHODS.put("SAF", SAFAPI::onReceive);
+        API_METHODS.put("Sensor", (receiver, context, intent) -> {
+            if (receiver.returnCachedResult(intent)) return;
+            SensorAPI.onReceive(context, intent);
+        });
+        API_METHODS.put("Share", ShareAPI::onReceive);
+        API_METHODS.put("SmsInbox", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.READ_SMS, Manifest.permission.READ_CONTACTS)) {
+                SmsInboxAPI.onReceive(receiver, context, intent);
+            }
+        });
+        API_METHODS.put("SmsSend", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.READ_PHONE_STATE, Manifest.permission.SEND_SMS)) {
+                SmsSendAPI.onReceive(receiver, context, intent);
+            }
+        });
+        API_METHODS.put("StorageGet", StorageGetAPI::onReceive);
+        API_METHODS.put("SpeechToText", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.RECORD_AUDIO)) {
+                SpeechToTextAPI.onReceive(context, intent);
+            }
+        });
+        API_METHODS.put("TelephonyCall", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.CALL_PHONE)) {
+                TelephonyAPI.onReceiveTelephonyCall(receiver, context, intent);
+            }
+        });
+        API_METHODS.put("TelephonyCellInfo", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.ACCESS_COARSE_LOCATION)) {
+                TelephonyAPI.onReceiveTelephonyCellInfo(receiver, context, intent);
+            }
+        });
+        API_METHODS.put("TelephonyDeviceInfo", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.READ_PHONE_STATE)) {
+                if (receiver.returnCachedResult(intent)) return;
+                TelephonyAPI.onReceiveTelephonyDeviceInfo(receiver, context, intent);
+            }
+        });
+        API_METHODS.put("TextToSpeech", (receiver, context, intent) -> TextToSpeechAPI.onReceive(context, intent));
+        API_METHODS.put("Toast", (receiver, context, intent) -> ToastAPI.onReceive(context, intent));
+        API_METHODS.put("Torch", TorchAPI::onReceive);
+        API_METHODS.put("Usb", UsbAPI::onReceive);
+        API_METHODS.put("Vibrate", VibrateAPI::onReceive);
+        API_METHODS.put("Volume", VolumeAPI::onReceive);
+        API_METHODS.put("Wallpaper", (receiver, context, intent) -> WallpaperAPI.onReceive(context, intent));
+        API_METHODS.put("WifiConnectionInfo", (receiver, context, intent) -> {
+            if (receiver.returnCachedResult(intent)) return;
+            WifiAPI.onReceiveWifiConnectionInfo(receiver, context, intent);
+        });
+        API_METHODS.put("WifiScanInfo", (receiver, context, intent) -> {
+            if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.ACCESS_FINE_LOCATION)) {
+                WifiAPI.onReceiveWifiScanInfo(receiver, context, intent);
+            }
+        });
+        API_METHODS.put("WifiEnable", WifiAPI::onReceiveWifiEnable);
+    }
+
+    /** The result of a request dispatched by the {@link DirectDispatcher}, {@code null} for broadcasts. */
+    private ResultReturner.AsyncResult directResult;
+
+    public TermuxApiReceiver() {
+    }
+
+    TermuxApiReceiver(ResultReturner.AsyncResult directResult) {
+        this.directResult = directResult;
+    }
+
     @Override
     public void onReceive(Context context, Intent intent) {
-        TermuxAPIApplication.setLogConfig(context, false);
-        Logger.logDebug(LOG_TAG, "Intent Received:\n" + IntentUtils.getIntentString(intent));
+        TermuxAPIApplication.refreshLogConfig(context);
+        AsyncLogger.logDebug(LOG_TAG, "Intent Received:\n%s", intent);
+
+        handleIntent(context, intent);
+    }
+
+    /**
+     * Handle a request of the {@link DirectDispatcher} on the calling thread, without a broadcast.
+     */
+    void onReceiveDirect(Context context, Intent intent) {
+        AsyncLogger.logDebug(LOG_TAG, "Intent Received Directly:\n%s", intent);
+
+        handleIntent(context, intent);
+    }
+
+    @Override
+    public ResultReturner.AsyncResult goAsyncDirect() {
+        ResultReturner.AsyncResult result = directResult;
+        directResult = null;
+        return result;
+    }
 
+    /**
+     * Whether the API method is handled by the receiver, so state kept per `api_method`, like the
+     * {@link ApiMetrics}, doesn't grow with every name clients send.
+     */
+    public static boolean isApiMethod(String apiMethod) {
+        return apiMethod != null && API_METHODS.containsKey(apiMethod);
+    }
+
+    private void handleIntent(Context context, Intent intent) {
+        ApiMetrics.recordSince(intent, ApiMetrics.EXTRA_DISPATCH_TIME, ApiMetrics.Stage.DISPATCH);
+        long startTime = System.nanoTime();
         try {
             doWork(context, intent);
         } catch (Throwable t) {
@@ -74,199 +282,40 @@ public class TermuxApiReceiver extends BroadcastReceiver {
 
             ResultReturner.noteDone(this, intent);
         }
+        ApiMetrics.record(intent.getStringExtra("api_method"), ApiMetrics.Stage.WORK, System.nanoTime() - startTime);
     }
 
     private void doWork(Context context, Intent intent) {
         String apiMethod = intent.getStringExtra("api_method");
         if (apiMethod == null) {
             Logger.logError(LOG_TAG, "Missing 'api_method' extra");
+            // the client waits for a result on the socket until one is returned
+            ResultReturner.returnError(context, intent, "Missing 'api_method' extra\n");
             return;
         }
 
-        switch (apiMethod) {
-            case "AudioInfo":
-                AudioAPI.onReceive(this, context, intent);
-                break;
-            case "BatteryStatus":
-                BatteryStatusAPI.onReceive(this, context, intent);
-                break;
-            case "Brightness":
-                if (!Settings.System.canWrite(context)) {
-                    TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.WRITE_SETTINGS);
-                    Toast.makeText(context, "Please enable permission for Termux:API", Toast.LENGTH_LONG).show();
-
-                    // user must enable WRITE_SETTINGS permission this special way
-                    Intent settingsIntent = new Intent(Settings.ACTION_MANAGE_WRITE_SETTINGS);
-                    context.startActivity(settingsIntent);
-                    return;
-                }
-                BrightnessAPI.onReceive(this, context, intent);
-                break;
-            case "CameraInfo":
-                CameraInfoAPI.onReceive(this, context, intent);
-                break;
-            case "CameraPhoto":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.CAMERA)) {
-                    CameraPhotoAPI.onReceive(this, context, intent);
-                }
-                break;
-            case "CallLog":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.READ_CALL_LOG)) {
-                    CallLogAPI.onReceive(context, intent);
-                }
-                break;
-            case "Clipboard":
-                ClipboardAPI.onReceive(this, context, intent);
-                break;
-            case "ContactList":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.READ_CONTACTS)) {
-                    ContactListAPI.onReceive(this, context, intent);
-                }
-                break;
-            case "Dialog":
-                DialogAPI.onReceive(context, intent);
-                break;
-            case "Download":
-                DownloadAPI.onReceive(this, context, intent);
-                break;
-            case "Fingerprint":
-                FingerprintAPI.onReceive(context, intent);
-                break;
-            case "InfraredFrequencies":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.TRANSMIT_IR)) {
-                    InfraredAPI.onReceiveCarrierFrequency(this, context, intent);
-                }
-                break;
-            case "InfraredTransmit":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.TRANSMIT_IR)) {
-                    InfraredAPI.onReceiveTransmit(this, context, intent);
-                }
-                break;
-            case "JobScheduler":
-                JobSchedulerAPI.onReceive(this, context, intent);
-                break;
-            case "Keystore":
-                KeystoreAPI.onReceive(this, intent);
-                break;
-            case "Location":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.ACCESS_FINE_LOCATION)) {
-                    LocationAPI.onReceive(this, context, intent);
-                }
-                break;
-            case "MediaPlayer":
-                MediaPlayerAPI.onReceive(context, intent);
-                break;
-            case "MediaScanner":
-                MediaScannerAPI.onReceive(this, context, intent);
-                break;
-            case "MicRecorder":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.RECORD_AUDIO)) {
-                    MicRecorderAPI.onReceive(context, intent);
-                }
-                break;
-            case "Nfc":
-                NfcAPI.onReceive(context, intent);
-                break;
-            case "NotificationList":
-                ComponentName cn = new ComponentName(context, NotificationListAPI.NotificationService.class);
-                String flat = Settings.Secure.getString(context.getContentResolver(), "enabled_notification_listeners");
-                final boolean NotificationServiceEnabled = flat != null && flat.contains(cn.flattenToString());
-                if (!NotificationServiceEnabled) {
-                    Toast.makeText(context,"Please give Termux:API Notification Access", Toast.LENGTH_LONG).show();
-                    context.startActivity(new Intent("android.settings.ACTION_NOTIFICATION_LISTENER_SETTINGS").addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
-                } else {
-                    NotificationListAPI.onReceive(this, context, intent);
-                }
-                break;
-            case "Notification":
-                NotificationAPI.onReceiveShowNotification(this, context, intent);
-                break;
-            case "NotificationChannel":
-                NotificationAPI.onReceiveChannel(this, context, intent);
-                break;
-            case "NotificationRemove":
-                NotificationAPI.onReceiveRemoveNotification(this, context, intent);
-                break;
-            case "NotificationReply":
-                NotificationAPI.onReceiveReplyToNotification(this, context, intent);
-                break;
-            case "SAF":
-                SAFAPI.onReceive(this, context, intent);
-                break;
-            case "Sensor":
-                SensorAPI.onReceive(context, intent);
-                break;
-            case "Share":
-                ShareAPI.onReceive(this, context, intent);
-                break;
-            case "SmsInbox":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.READ_SMS, Manifest.permission.READ_CONTACTS)) {
-                    SmsInboxAPI.onReceive(this, context, intent);
-                }
-                break;
-            case "SmsSend":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.READ_PHONE_STATE, Manifest.permission.SEND_SMS)) {
-                    SmsSendAPI.onReceive(this, context, intent);
-                }
-                break;
-            case "StorageGet":
-                StorageGetAPI.onReceive(this, context, intent);
-                break;
-            case "SpeechToText":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.RECORD_AUDIO)) {
-                    SpeechToTextAPI.onReceive(context, intent);
-                }
-                break;
-            case "TelephonyCall":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.CALL_PHONE)) {
-                    TelephonyAPI.onReceiveTelephonyCall(this, context, intent);
-                }
-                break;
-            case "TelephonyCellInfo":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.ACCESS_COARSE_LOCATION)) {
-                    TelephonyAPI.onReceiveTelephonyCellInfo(this, context, intent);
-                }
-                break;
-            case "TelephonyDeviceInfo":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.READ_PHONE_STATE)) {
-                    TelephonyAPI.onReceiveTelephonyDeviceInfo(this, context, intent);
-                }
-                break;
-            case "TextToSpeech":
-                TextToSpeechAPI.onReceive(context, intent);
-                break;
-            case "Toast":
-                ToastAPI.onReceive(context, intent);
-                break;
-            case "Torch":
-                TorchAPI.onReceive(this, context, intent);
-                break;
-            case "Usb":
-                UsbAPI.onReceive(this, context, intent);
-                break;
-            case "Vibrate":
-                VibrateAPI.onReceive(this, context, intent);
-                break;
-            case "Volume":
-                VolumeAPI.onReceive(this, context, intent);
-                break;
-            case "Wallpaper":
-                WallpaperAPI.onReceive(context, intent);
-                break;
-            case "WifiConnectionInfo":
-                WifiAPI.onReceiveWifiConnectionInfo(this, context, intent);
-                break;
-            case "WifiScanInfo":
-                if (TermuxApiPermissionActivity.checkAndRequestPermissions(context, intent, Manifest.permission.ACCESS_FINE_LOCATION)) {
-                    WifiAPI.onReceiveWifiScanInfo(this, context, intent);
-                }
-                break;
-            case "WifiEnable":
-                WifiAPI.onReceiveWifiEnable(this, context, intent);
-                break;
-            default:
-                Logger.logError(LOG_TAG, "Unrecognized 'api_method' extra: '" + apiMethod + "'");
+        ApiMethodHandler handler = API_METHODS.get(apiMethod);
+        if (handler == null) {
+            Logger.logError(LOG_TAG, "Unrecognized 'api_method' extra: '" + apiMethod + "'");
+            ResultReturner.returnError(context, intent, "Unrecognized 'api_method' extra: '" + apiMethod + "'\n");
+            return;
         }
+        handler.onReceive(this, context, intent);
+    }
+
+    /**
+     * Return the cached result of the request if there is one recent enough. Called by the API
+     * methods in {@link ResultCache} only after their permission checks, so a result cached for
+     * an earlier request never bypasses a permission that has since been revoked.
+     *
+     * @return Whether the cached result was returned.
+     */
+    private boolean returnCachedResult(Intent intent) {
+        ResultReturner.ResultWriter cachedResultWriter = ResultCache.getCachedResultWriter(intent);
+        if (cachedResultWriter == null) return false;
+        AsyncLogger.logDebug(LOG_TAG, "Returning cached result");
+        ResultReturner.returnData(this, intent, cachedResultWriter);
+        return true;
     }
 
 }
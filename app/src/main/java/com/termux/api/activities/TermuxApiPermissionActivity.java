@@ -4,8 +4,8 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.text.TextUtils;
-import android.util.JsonWriter;
 
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
 import com.termux.shared.android.PermissionUtils;
 import com.termux.shared.logger.Logger;
@@ -6,20 +6,21 @@ import android.media.AudioAttributes;
 import android.media.AudioManager;
 import android.media.AudioTrack;
 import android.os.Build;
-import android.util.JsonWriter;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
-import com.termux.shared.logger.Logger;
+import com.termux.api.util.SystemServices;
 
 public class AudioAPI {
 
     private static final String LOG_TAG = "AudioAPI";
 
     public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
-        AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        AudioManager am = SystemServices.get(context, Context.AUDIO_SERVICE);
         final String SampleRate = am.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE);
         final String framesPerBuffer = am.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER);
         final boolean bluetootha2dp = am.isBluetoothA2dpOn();
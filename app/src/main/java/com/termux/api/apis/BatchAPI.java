@@ -0,0 +1,257 @@
+package com.termux.api.apis;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.Intent;
+import android.os.CancellationSignal;
+
+import com.termux.api.SocketListener;
+import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.CommandLineParser;
+import com.termux.api.util.JsonWriter;
+import com.termux.api.util.ResultReturner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs several API calls at the same time and returns their results as one JSON object, so a
+ * client polling many API methods pays for one request instead of one for each.
+ *
+ * The sub-requests are passed in the `requests` string array extra as `name=ApiMethod options`,
+ * where the options are `am` style extras like the ones of a single request. They are dispatched
+ * like requests received by the {@link SocketListener}, and write their results to a
+ * {@link SubRequest} channel in memory. The object returned has an entry for every name with the
+ * `api_method`, `result_code` and `time_ms` of the sub-request, and either its JSON `result`, its
+ * text `output` or its `error`. A sub-request that did not finish within the `timeout_ms` extra
+ * gets an error, the others are still returned. Sub-requests that timed out, or are still running
+ * when the batch is cancelled, are cancelled like their client closed the connection. Sub-requests
+ * of unknown API methods get an error without being dispatched.
+ */
+public class BatchAPI {
+
+    public static final String REQUESTS_EXTRA = "requests";
+    public static final String TIMEOUT_EXTRA = "timeout_ms";
+
+    private static final int DEFAULT_TIMEOUT = 10000;
+
+    private static final String LOG_TAG = "BatchAPI";
+
+    /** A sub-request and the {@link ResultReturner.ResultChannel} its result is written to. */
+    private static class SubRequest implements ResultReturner.ResultChannel {
+        final String name;
+        String apiMethod;
+        /** An error that kept the sub-request from being dispatched. */
+        String error;
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final CompletableFuture<Integer> resultCode = new CompletableFuture<>();
+        /** Cancels the API call of the sub-request when its result is no longer wanted. */
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        /** The id the channel was registered with, until the API call opened it or it was unregistered. */
+        String channelId;
+        volatile boolean json;
+        long startTime;
+        volatile long endTime;
+
+        SubRequest(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            // sub-requests have no input
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public void setFileDescriptorsForSend(FileDescriptor[] fds) {
+            // only sent over sockets
+        }
+
+        @Override
+        public FileDescriptor getFileDescriptor() {
+            return null;
+        }
+
+        @Override
+        public CancellationSignal getCancellationSignal() {
+            return cancellationSignal;
+        }
+
+        @Override
+        public void setJsonMode(String mode) {
+            json = true;
+        }
+
+        @Override
+        public void close(int resultCode) {
+            endTime = System.nanoTime();
+            this.resultCode.complete(resultCode);
+        }
+
+        /**
+         * Stop waiting for the result, and stop the API call if it is still running, or drop its
+         * channel if the call never opened it.
+         */
+        void cancel() {
+            resultCode.cancel(false);
+            cancellationSignal.cancel();
+            if (channelId != null) ResultReturner.unregisterResultChannel(channelId);
+        }
+
+        String getOutput() {
+            synchronized (output) {
+                return new String(output.toByteArray(), StandardCharsets.UTF_8).trim();
+            }
+        }
+    }
+
+    public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, final Intent intent) {
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
+
+        final String[] requests = intent.getStringArrayExtra(REQUESTS_EXTRA);
+        final int timeout = intent.getIntExtra(TIMEOUT_EXTRA, DEFAULT_TIMEOUT);
+        final Application app = (Application) context.getApplicationContext();
+
+        ResultReturner.returnData(apiReceiver, intent, new ResultReturner.ResultJsonWriter() {
+            @Override
+            public void writeJson(JsonWriter out) throws Exception {
+                if (requests == null || requests.length == 0) {
+                    out.beginObject().name("error").value("Missing '" + REQUESTS_EXTRA + "' extra").endObject();
+                    return;
+                }
+
+                List<SubRequest> subRequests = dispatch(app, requests);
+                CancellationSignal cancellationSignal = getCancellationSignal();
+                if (cancellationSignal != null) {
+                    cancellationSignal.setOnCancelListener(() -> {
+                        for (SubRequest subRequest : subRequests) subRequest.cancel();
+                    });
+                }
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+                out.beginObject();
+                for (SubRequest subRequest : subRequests) {
+                    out.name(subRequest.name);
+                    writeSubRequest(out, subRequest, deadline, timeout);
+                }
+                out.endObject();
+            }
+        });
+    }
+
+    /** Parse and dispatch all sub-requests, without waiting for their results. */
+    private static List<SubRequest> dispatch(Application app, String[] requests) {
+        List<SubRequest> subRequests = new ArrayList<>(requests.length);
+        Set<String> names = new HashSet<>();
+        for (String request : requests) {
+            request = request.trim();
+            int separator = request.indexOf('=');
+            SubRequest subRequest = new SubRequest(separator > 0 ? request.substring(0, separator).trim() : request);
+            subRequests.add(subRequest);
+            if (separator <= 0) {
+                subRequest.error = "Invalid sub-request \"" + request + "\", must be \"name=ApiMethod options\"";
+                continue;
+            }
+            if (!names.add(subRequest.name)) {
+                subRequest.error = "Duplicate sub-request name \"" + subRequest.name + "\"";
+                continue;
+            }
+
+            String cmdline = request.substring(separator + 1).trim();
+            int end = 0;
+            while (end < cmdline.length() && !Character.isWhitespace(cmdline.charAt(end))) end++;
+            subRequest.apiMethod = cmdline.substring(0, end);
+            if (!TermuxApiReceiver.isApiMethod(subRequest.apiMethod) || "Batch".equals(subRequest.apiMethod)) {
+                subRequest.error = "Invalid api_method \"" + subRequest.apiMethod + "\"";
+                continue;
+            }
+
+            Intent subIntent = new Intent(app.getApplicationContext(), TermuxApiReceiver.class);
+            String errors = CommandLineParser.parse(cmdline.substring(end), subIntent);
+            if (errors != null) {
+                subRequest.error = errors.trim();
+                continue;
+            }
+            subIntent.putExtra("api_method", subRequest.apiMethod);
+            // the results are embedded as they are, or transcoded by binary writers
+            subIntent.putExtra(JsonWriter.JSON_MODE_EXTRA, JsonWriter.MODE_COMPACT);
+            subRequest.channelId = ResultReturner.registerResultChannel(subIntent, subRequest);
+
+            subRequest.startTime = System.nanoTime();
+            try {
+                SocketListener.dispatchIntent(app, subIntent, "batch");
+            } catch (Exception e) {
+                AsyncLogger.logError(LOG_TAG, "Error dispatching %s sub-request: %s", subRequest.apiMethod, e);
+                ResultReturner.unregisterResultChannel(subRequest.channelId);
+                subRequest.error = "Exception in the plugin";
+            }
+        }
+        return subRequests;
+    }
+
+    private static void writeSubRequest(JsonWriter out, SubRequest subRequest, long deadline, int timeout) throws Exception {
+        out.beginObject();
+        out.name("api_method").value(subRequest.apiMethod);
+        if (subRequest.error != null) {
+            out.name("error").value(subRequest.error);
+            out.endObject();
+            return;
+        }
+
+        Integer resultCode;
+        try {
+            resultCode = subRequest.resultCode.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            subRequest.cancel();
+            out.name("error").value("Timed out after " + timeout + "ms");
+            out.endObject();
+            return;
+        } catch (CancellationException | ExecutionException e) {
+            out.name("error").value("Cancelled");
+            out.endObject();
+            return;
+        }
+
+        out.name("result_code").value(resultCode);
+        out.name("time_ms").value((subRequest.endTime - subRequest.startTime) / 1e6);
+        String output = subRequest.getOutput();
+        if (resultCode != 0) {
+            out.name("error").value(output);
+        } else if (subRequest.json && !output.isEmpty()) {
+            out.name("result");
+            int newline = output.indexOf('\n');
+            if (newline == -1) {
+                out.jsonValue(output);
+            } else {
+                // compact JSON has newlines only between values, return all of them
+                out.beginArray();
+                for (String value : output.split("\n")) out.jsonValue(value);
+                out.endArray();
+            }
+        } else if (!output.isEmpty()) {
+            out.name("output").value(output);
+        }
+        out.endObject();
+    }
+
+}
@@ -4,10 +4,12 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.BatteryManager;
-import android.util.JsonWriter;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
+import com.termux.api.util.SystemServices;
 import com.termux.api.util.ResultReturner.ResultJsonWriter;
 import com.termux.shared.logger.Logger;
 
@@ -16,7 +18,7 @@ public class BatteryStatusAPI {
     private static final String LOG_TAG = "BatteryStatusAPI";
 
     public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         ResultReturner.returnData(apiReceiver, intent, new ResultJsonWriter() {
             @Override
@@ -102,7 +104,7 @@ public class BatteryStatusAPI {
                         batteryStatusString = "UNKNOWN";
                 }
 
-                BatteryManager batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+                BatteryManager batteryManager = SystemServices.get(context, Context.BATTERY_SERVICE);
 
                 out.beginObject();
                 out.name("health").value(batteryHealth);
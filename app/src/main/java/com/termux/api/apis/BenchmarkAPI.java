@@ -0,0 +1,292 @@
+package com.termux.api.apis;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.CancellationSignal;
+
+import com.termux.api.SocketListener;
+import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.ApiMetrics;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
+import com.termux.api.util.LatencyHistogram;
+import com.termux.api.util.ResultReturner;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A load generator measuring what the plugin itself costs per call. It runs simulated clients
+ * that send `Echo` requests to the {@link SocketListener} like `termux-api` does, one after the
+ * other, and returns their throughput and round trip latencies along with the {@link ApiMetrics}
+ * of the `Echo` calls, which split the latency into the stages of a request.
+ *
+ * With the `connect_back` extra, which is the default, every client listens on its own
+ * `socket_output` socket the result is written to, otherwise the result is read from the request
+ * connection. The clients run in the app process, so they compete with the plugin for the CPU.
+ */
+public class BenchmarkAPI {
+
+    public static final String CLIENTS_EXTRA = "clients";
+    public static final String REQUESTS_EXTRA = "requests";
+    public static final String CONNECT_BACK_EXTRA = "connect_back";
+
+    private static final int DEFAULT_CLIENTS = 4;
+    private static final int DEFAULT_REQUESTS = 100;
+    private static final String ECHO_API_METHOD = "Echo";
+
+    private static final String LOG_TAG = "BenchmarkAPI";
+
+    /**
+     * The sockets the simulated clients use, so that the {@link LoadGenerator} can also run against
+     * a listener that is not the {@link SocketListener}.
+     */
+    interface Transport {
+        /** Connect to the listener the requests are sent to. */
+        Connection connect() throws IOException;
+
+        /** Listen on the `socket_output` address results are written to. */
+        Server listen(String address) throws IOException;
+    }
+
+    interface Connection extends Closeable {
+        InputStream getInputStream() throws IOException;
+
+        OutputStream getOutputStream() throws IOException;
+    }
+
+    interface Server extends Closeable {
+        /** Wait for the next connection, throws if the server is closed while waiting. */
+        Connection accept() throws IOException;
+    }
+
+    /** The {@link Transport} of the abstract namespace unix sockets `termux-api` uses. */
+    static class LocalSocketTransport implements Transport {
+        @Override
+        public Connection connect() throws IOException {
+            LocalSocket socket = new LocalSocket();
+            try {
+                socket.connect(new LocalSocketAddress(SocketListener.LISTEN_ADDRESS));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            return wrap(socket);
+        }
+
+        @Override
+        public Server listen(String address) throws IOException {
+            LocalServerSocket server = new LocalServerSocket(address);
+            return new Server() {
+                @Override
+                public Connection accept() throws IOException {
+                    return wrap(server.accept());
+                }
+
+                @Override
+                public void close() throws IOException {
+                    server.close();
+                }
+            };
+        }
+
+        private static Connection wrap(LocalSocket socket) {
+            return new Connection() {
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return socket.getInputStream();
+                }
+
+                @Override
+                public OutputStream getOutputStream() throws IOException {
+                    return socket.getOutputStream();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    socket.close();
+                }
+            };
+        }
+    }
+
+    /** A run of the simulated clients. */
+    static class LoadGenerator {
+        final Transport transport;
+        final int clients;
+        final int requests;
+        final int size;
+        final boolean connectBack;
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        /** The output sockets of the clients, closed when cancelled so no client waits for a result. */
+        final List<Server> servers = new ArrayList<>();
+        volatile boolean cancelled;
+        long elapsedNanos;
+
+        LoadGenerator(Transport transport, int clients, int requests, int size, boolean connectBack) {
+            this.transport = transport;
+            this.clients = clients;
+            this.requests = requests;
+            this.size = size;
+            this.connectBack = connectBack;
+        }
+
+        void run() throws InterruptedException {
+            Thread[] threads = new Thread[clients];
+            long startTime = System.nanoTime();
+            for (int i = 0; i < clients; i++) {
+                final int client = i;
+                threads[i] = new Thread(() -> runClient(client), LOG_TAG + "-client-" + i);
+                threads[i].start();
+            }
+            for (Thread thread : threads) thread.join();
+            elapsedNanos = System.nanoTime() - startTime;
+        }
+
+        void cancel() {
+            cancelled = true;
+            synchronized (servers) {
+                for (Server server : servers) closeQuietly(server);
+            }
+        }
+
+        private void runClient(int client) {
+            Server server = null;
+            try {
+                String outputAddress = null;
+                if (connectBack) {
+                    outputAddress = TermuxConstants.TERMUX_API_PACKAGE_NAME + "://benchmark-" + System.nanoTime() + "-" + client;
+                    server = transport.listen(outputAddress);
+                    synchronized (servers) {
+                        if (cancelled) return;
+                        servers.add(server);
+                    }
+                }
+
+                byte[] request = encodeRequest(outputAddress);
+                for (int i = 0; i < requests && !cancelled; i++) {
+                    long startTime = System.nanoTime();
+                    long received = call(request, server);
+                    if (received == size) {
+                        latency.recordNanos(System.nanoTime() - startTime);
+                        completed.incrementAndGet();
+                    } else {
+                        errors.incrementAndGet();
+                    }
+                    if (received > 0) bytes.addAndGet(received);
+                }
+            } catch (IOException e) {
+                if (!cancelled) {
+                    Logger.logStackTraceWithMessage(LOG_TAG, "Benchmark client " + client + " failed", e);
+                    errors.incrementAndGet();
+                }
+            } finally {
+                closeQuietly(server);
+            }
+        }
+
+        /** Encode the command line of an `Echo` request with its u16 length prefix. */
+        private byte[] encodeRequest(String outputAddress) throws IOException {
+            String cmdline = "--es api_method \"" + ECHO_API_METHOD + "\" --ei " + EchoAPI.SIZE_EXTRA + " " + size;
+            if (outputAddress != null)
+                cmdline += " --es " + ResultReturner.SOCKET_OUTPUT_EXTRA + " \"" + outputAddress + "\"";
+            byte[] b = cmdline.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream request = new ByteArrayOutputStream(b.length + 2);
+            DataOutputStream out = new DataOutputStream(request);
+            out.writeShort(b.length);
+            out.write(b);
+            return request.toByteArray();
+        }
+
+        /**
+         * Send one request and read its result.
+         *
+         * @return The number of bytes of the result, or -1 if the listener returned an error.
+         */
+        private long call(byte[] request, Server server) throws IOException {
+            try (Connection con = transport.connect()) {
+                con.getOutputStream().write(request);
+                con.getOutputStream().flush();
+                InputStream in = con.getInputStream();
+                // the listener replies with a null byte, or with error messages
+                if (in.read() != 0) return -1;
+                if (server == null) return drain(in);
+                try (Connection output = server.accept()) {
+                    return drain(output.getInputStream());
+                }
+            }
+        }
+
+        private static long drain(InputStream in) throws IOException {
+            byte[] buffer = new byte[8192];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) total += read;
+            return total;
+        }
+    }
+
+    public static void onReceive(TermuxApiReceiver apiReceiver, Context context, Intent intent) {
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
+
+        final int clients = Math.max(1, Math.min(64, intent.getIntExtra(CLIENTS_EXTRA, DEFAULT_CLIENTS)));
+        final int requests = Math.max(1, intent.getIntExtra(REQUESTS_EXTRA, DEFAULT_REQUESTS));
+        final int size = Math.max(0, intent.getIntExtra(EchoAPI.SIZE_EXTRA, 0));
+        final boolean connectBack = intent.getBooleanExtra(CONNECT_BACK_EXTRA, true);
+
+        ResultReturner.returnData(apiReceiver, intent, new ResultReturner.ResultJsonWriter() {
+            @Override
+            public void writeJson(JsonWriter out) throws Exception {
+                LoadGenerator generator = new LoadGenerator(new LocalSocketTransport(), clients, requests, size, connectBack);
+                CancellationSignal cancellationSignal = getCancellationSignal();
+                if (cancellationSignal != null) cancellationSignal.setOnCancelListener(generator::cancel);
+
+                ApiMetrics.reset(ECHO_API_METHOD);
+                generator.run();
+
+                double elapsedSeconds = generator.elapsedNanos / 1e9;
+                out.beginObject();
+                out.name("clients").value(clients);
+                out.name("requests").value(requests);
+                out.name("size").value(size);
+                out.name("connect_back").value(connectBack);
+                out.name("cancelled").value(generator.cancelled);
+                out.name("elapsed_s").value(elapsedSeconds);
+                out.name("completed").value(generator.completed.get());
+                out.name("errors").value(generator.errors.get());
+                out.name("requests_per_s").value(elapsedSeconds > 0 ? generator.completed.get() / elapsedSeconds : 0);
+                out.name("bytes_per_s").value(elapsedSeconds > 0 ? generator.bytes.get() / elapsedSeconds : 0);
+                out.name("latency");
+                generator.latency.writeJson(out);
+                out.name("stages");
+                ApiMetrics.writeJson(out, ECHO_API_METHOD, elapsedSeconds);
+                out.endObject();
+            }
+        });
+    }
+
+    private static void closeQuietly(Closeable server) {
+        if (server == null) return;
+        try {
+            server.close();
+        } catch (IOException ignored) {}
+    }
+
+}
@@ -6,15 +6,15 @@ import android.content.Intent;
 import android.provider.Settings;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
 import com.termux.api.util.ResultReturner;
-import com.termux.shared.logger.Logger;
 
 public class BrightnessAPI {
 
     private static final String LOG_TAG = "BrightnessAPI";
 
     public static void onReceive(final TermuxApiReceiver receiver, final Context context, final Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         final ContentResolver contentResolver = context.getContentResolver();
         if (intent.hasExtra("auto")) {
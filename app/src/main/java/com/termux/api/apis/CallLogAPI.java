@@ -5,10 +5,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.provider.CallLog;
-import android.util.JsonWriter;
 
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
-import com.termux.shared.logger.Logger;
 
 import java.io.IOException;
 import java.text.DateFormat;
@@ -24,7 +24,7 @@ public class CallLogAPI {
     private static final String LOG_TAG = "CallLogAPI";
 
     public static void onReceive(final Context context, final Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         final int offset = intent.getIntExtra("offset", 0);
         final int limit = intent.getIntExtra("limit", 50);
@@ -7,26 +7,27 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.params.StreamConfigurationMap;
-import android.util.JsonWriter;
 import android.util.Size;
 import android.util.SizeF;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
+import com.termux.api.util.SystemServices;
 import com.termux.api.util.ResultReturner.ResultJsonWriter;
-import com.termux.shared.logger.Logger;
 
 public class CameraInfoAPI {
 
     private static final String LOG_TAG = "CameraInfoAPI";
 
     public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         ResultReturner.returnData(apiReceiver, intent, new ResultJsonWriter() {
             @Override
             public void writeJson(JsonWriter out) throws Exception {
-                final CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+                final CameraManager manager = SystemServices.get(context, Context.CAMERA_SERVICE);
 
                 out.beginArray();
                 for (String cameraId : manager.getCameraIdList()) {
@@ -15,13 +15,16 @@ import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
-import android.os.Looper;
+import android.os.Handler;
 import android.util.Size;
 import android.view.Surface;
 import android.view.WindowManager;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.LooperPool;
 import com.termux.api.util.ResultReturner;
+import com.termux.api.util.SystemServices;
 import com.termux.shared.errors.Error;
 import com.termux.shared.file.FileUtils;
 import com.termux.shared.logger.Logger;
@@ -37,13 +40,19 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 public class CameraPhotoAPI {
 
     private static final String LOG_TAG = "CameraPhotoAPI";
 
+    /** Milliseconds the preview runs before the picture is taken, for auto exposure and focus to settle. */
+    private static final long PREVIEW_DURATION = 500;
+    /** Milliseconds to wait for the picture before giving up and closing the camera. */
+    private static final long CAPTURE_TIMEOUT = 30 * 1000;
+
     public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         final String filePath = intent.getStringExtra("file");
         final String cameraId = Objects.toString(intent.getStringExtra("camera"), "0");
@@ -78,20 +87,24 @@ public class CameraPhotoAPI {
 
     private static void takePicture(final PrintWriter stdout, final Context context, final File outputFile, String cameraId) {
         try {
-            final CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            final CameraManager manager = SystemServices.get(context, Context.CAMERA_SERVICE);
 
-            Looper.prepare();
-            final Looper looper = Looper.myLooper();
+            final Handler handler = LooperPool.getHandler();
+            final CompletableFuture<byte[]> result = new CompletableFuture<>();
+            LooperPool.scheduleTimeout(handler, result, CAPTURE_TIMEOUT);
 
             //noinspection MissingPermission
             manager.openCamera(cameraId, new CameraDevice.StateCallback() {
                 @Override
                 public void onOpened(final CameraDevice camera) {
+                    result.whenComplete((bytes, throwable) -> closeCamera(camera));
+                    // timed out while opening
+                    if (result.isDone()) return;
                     try {
-                        proceedWithOpenedCamera(context, manager, camera, outputFile, looper, stdout);
+                        proceedWithOpenedCamera(context, manager, camera, handler, result);
                     } catch (Exception e) {
                         Logger.logStackTraceWithMessage(LOG_TAG, "Exception in onOpened()", e);
-                        closeCamera(camera, looper);
+                        result.completeExceptionally(e);
                     }
                 }
 
@@ -103,11 +116,18 @@ public class CameraPhotoAPI {
                 @Override
                 public void onError(CameraDevice camera, int error) {
                     Logger.logError(LOG_TAG, "Failed opening camera: " + error);
-                    closeCamera(camera, looper);
+                    result.completeExceptionally(new IllegalStateException("Failed opening camera: " + error));
+                    closeCamera(camera);
                 }
-            }, null);
-
-            Looper.loop();
+            }, handler);
+
+            byte[] bytes = result.get();
+            try (FileOutputStream output = new FileOutputStream(outputFile)) {
+                output.write(bytes);
+            } catch (Exception e) {
+                stdout.println("Error writing image: " + e.getMessage());
+                Logger.logStackTraceWithMessage(LOG_TAG, "Error writing image", e);
+            }
         } catch (Exception e) {
             Logger.logStackTraceWithMessage(LOG_TAG, "Error getting camera", e);
         }
@@ -116,7 +136,7 @@ public class CameraPhotoAPI {
     // See answer on http://stackoverflow.com/questions/31925769/pictures-with-camera2-api-are-really-dark
     // See https://developer.android.com/reference/android/hardware/camera2/CameraDevice.html#createCaptureSession(java.util.List<android.view.Surface>, android.hardware.camera2.CameraCaptureSession.StateCallback, android.os.Handler)
     // for information about guaranteed support for output sizes and formats.
-    static void proceedWithOpenedCamera(final Context context, final CameraManager manager, final CameraDevice camera, final File outputFile, final Looper looper, final PrintWriter stdout) throws CameraAccessException, IllegalArgumentException {
+    static void proceedWithOpenedCamera(final Context context, final CameraManager manager, final CameraDevice camera, final Handler handler, final CompletableFuture<byte[]> result) throws CameraAccessException, IllegalArgumentException {
         final List<Surface> outputSurfaces = new ArrayList<>();
 
         final CameraCharacteristics characteristics = manager.getCameraCharacteristics(camera.getId());
@@ -139,26 +159,24 @@ public class CameraPhotoAPI {
         Size largest = Collections.max(sizes, bySize);
 
         final ImageReader mImageReader = ImageReader.newInstance(largest.getWidth(), largest.getHeight(), ImageFormat.JPEG, 2);
-        mImageReader.setOnImageAvailableListener(reader -> new Thread() {
-            @Override
-            public void run() {
-                try (final Image mImage = reader.acquireNextImage()) {
-                    ByteBuffer buffer = mImage.getPlanes()[0].getBuffer();
-                    byte[] bytes = new byte[buffer.remaining()];
-                    buffer.get(bytes);
-                    try (FileOutputStream output = new FileOutputStream(outputFile)) {
-                        output.write(bytes);
-                    } catch (Exception e) {
-                        stdout.println("Error writing image: " + e.getMessage());
-                        Logger.logStackTraceWithMessage(LOG_TAG, "Error writing image", e);
-                    }
-                } finally {
-                    mImageReader.close();
-                    releaseSurfaces(outputSurfaces);
-                    closeCamera(camera, looper);
-                }
+        // release everything however the capture ends, before the camera is closed
+        result.whenComplete((bytes, throwable) -> {
+            mImageReader.close();
+            releaseSurfaces(outputSurfaces);
+        });
+        mImageReader.setOnImageAvailableListener(reader -> {
+            // the image is written to the file by the thread waiting for the result
+            byte[] bytes;
+            try (final Image mImage = reader.acquireNextImage()) {
+                ByteBuffer buffer = mImage.getPlanes()[0].getBuffer();
+                bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+                return;
             }
-        }.start(), null);
+            result.complete(bytes);
+        }, handler);
         final Surface imageReaderSurface = mImageReader.getSurface();
         outputSurfaces.add(imageReaderSurface);
 
@@ -178,46 +196,52 @@ public class CameraPhotoAPI {
                     previewReq.set(CaptureRequest.CONTROL_AE_MODE, autoExposureModeFinal);
 
                     // continous preview-capture for 1/2 second
-                    session.setRepeatingRequest(previewReq.build(), null, null);
+                    session.setRepeatingRequest(previewReq.build(), null, handler);
                     Logger.logInfo(LOG_TAG, "preview started");
-                    Thread.sleep(500);
-                    session.stopRepeating();
-                    Logger.logInfo(LOG_TAG, "preview stoppend");
-
-                    final CaptureRequest.Builder jpegRequest = camera.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-                    // Render to our image reader:
-                    jpegRequest.addTarget(imageReaderSurface);
-                    // Configure auto-focus (AF) and auto-exposure (AE) modes:
-                    jpegRequest.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-                    jpegRequest.set(CaptureRequest.CONTROL_AE_MODE, autoExposureModeFinal);
-                    jpegRequest.set(CaptureRequest.JPEG_ORIENTATION, correctOrientation(context, characteristics));
-
-                    saveImage(camera, session, jpegRequest.build());
                 } catch (Exception e) {
                     Logger.logStackTraceWithMessage(LOG_TAG, "onConfigured() error in preview", e);
-                    mImageReader.close();
-                    releaseSurfaces(outputSurfaces);
-                    closeCamera(camera, looper);
+                    result.completeExceptionally(e);
+                    return;
                 }
+
+                // the looper is shared, so wait for the preview without blocking it
+                handler.postDelayed(() -> {
+                    if (result.isDone()) return;
+                    try {
+                        session.stopRepeating();
+                        Logger.logInfo(LOG_TAG, "preview stoppend");
+
+                        final CaptureRequest.Builder jpegRequest = camera.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+                        // Render to our image reader:
+                        jpegRequest.addTarget(imageReaderSurface);
+                        // Configure auto-focus (AF) and auto-exposure (AE) modes:
+                        jpegRequest.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                        jpegRequest.set(CaptureRequest.CONTROL_AE_MODE, autoExposureModeFinal);
+                        jpegRequest.set(CaptureRequest.JPEG_ORIENTATION, correctOrientation(context, characteristics));
+
+                        saveImage(camera, session, jpegRequest.build(), handler);
+                    } catch (Exception e) {
+                        Logger.logStackTraceWithMessage(LOG_TAG, "onConfigured() error in preview", e);
+                        result.completeExceptionally(e);
+                    }
+                }, PREVIEW_DURATION);
             }
 
             @Override
             public void onConfigureFailed(CameraCaptureSession session) {
                 Logger.logError(LOG_TAG, "onConfigureFailed() error in preview");
-                mImageReader.close();
-                releaseSurfaces(outputSurfaces);
-                closeCamera(camera, looper);
+                result.completeExceptionally(new IllegalStateException("Failed configuring capture session"));
             }
-        }, null);
+        }, handler);
     }
 
-    static void saveImage(final CameraDevice camera, CameraCaptureSession session, CaptureRequest request) throws CameraAccessException {
+    static void saveImage(final CameraDevice camera, CameraCaptureSession session, CaptureRequest request, Handler handler) throws CameraAccessException {
         session.capture(request, new CameraCaptureSession.CaptureCallback() {
             @Override
             public void onCaptureCompleted(CameraCaptureSession completedSession, CaptureRequest request, TotalCaptureResult result) {
                 Logger.logInfo(LOG_TAG, "onCaptureCompleted()");
             }
-        }, null);
+        }, handler);
     }
 
     /**
@@ -279,13 +303,12 @@ public class CameraPhotoAPI {
         Logger.logInfo(LOG_TAG, "surfaces released");
     }
 
-    static void closeCamera(CameraDevice camera, Looper looper) {
+    static void closeCamera(CameraDevice camera) {
         try {
             camera.close();
         } catch (RuntimeException e) {
             Logger.logInfo(LOG_TAG, "Exception closing camera: " + e.getMessage());
         }
-        if (looper != null) looper.quit();
     }
 
 }
\ No newline at end of file
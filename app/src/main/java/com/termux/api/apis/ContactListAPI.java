@@ -7,20 +7,20 @@ import android.database.Cursor;
 import android.provider.BaseColumns;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
-import android.util.JsonWriter;
 import android.util.SparseArray;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
 import com.termux.api.util.ResultReturner.ResultJsonWriter;
-import com.termux.shared.logger.Logger;
 
 public class ContactListAPI {
 
     private static final String LOG_TAG = "ContactListAPI";
 
     public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         ResultReturner.returnData(apiReceiver, intent, new ResultJsonWriter() {
             @Override
@@ -7,8 +7,8 @@ import android.content.Intent;
 import android.net.Uri;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
 import com.termux.api.util.ResultReturner;
-import com.termux.shared.logger.Logger;
 
 import java.io.File;
 
@@ -17,7 +17,7 @@ public class DownloadAPI {
     private static final String LOG_TAG = "DownloadAPI";
 
     public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, final Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         ResultReturner.returnData(apiReceiver, intent, out -> {
             final Uri downloadUri = intent.getData();
@@ -0,0 +1,62 @@
+package com.termux.api.apis;
+
+import android.content.Context;
+import android.content.Intent;
+
+import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.ResultReturner;
+
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Does nothing but return its input, or a payload of the `size` extra in bytes, so the cost of a
+ * call in the plugin itself can be measured, like by the {@link BenchmarkAPI}.
+ */
+public class EchoAPI {
+
+    public static final String SIZE_EXTRA = "size";
+
+    private static final byte[] PAYLOAD = new byte[8192];
+
+    static {
+        Arrays.fill(PAYLOAD, (byte) '.');
+    }
+
+    private static final String LOG_TAG = "EchoAPI";
+
+    public static void onReceive(TermuxApiReceiver apiReceiver, Context context, Intent intent) {
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
+
+        final int size = intent.getIntExtra(SIZE_EXTRA, -1);
+        if (size >= 0) {
+            ResultReturner.returnData(apiReceiver, intent, new ResultReturner.BinaryOutput() {
+                @Override
+                public void writeResult(OutputStream out) throws Exception {
+                    for (int remaining = size; remaining > 0; remaining -= PAYLOAD.length) {
+                        out.write(PAYLOAD, 0, Math.min(remaining, PAYLOAD.length));
+                    }
+                }
+            });
+            return;
+        }
+
+        ResultReturner.returnData(apiReceiver, intent, new ResultReturner.WithInput() {
+            @Override
+            public void writeResult(PrintWriter out) throws Exception {
+                Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+                char[] buffer = new char[4096];
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        });
+    }
+
+}
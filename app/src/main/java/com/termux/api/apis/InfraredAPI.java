@@ -3,9 +3,9 @@ package com.termux.api.apis;
 import android.content.Context;
 import android.content.Intent;
 import android.hardware.ConsumerIrManager;
-import android.util.JsonWriter;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
 import com.termux.shared.logger.Logger;
 
@@ -14,6 +14,7 @@ import androidx.annotation.RequiresApi;
 import android.text.TextUtils;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
 import com.termux.api.util.ResultReturner;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.shell.command.ExecutionCommand;
@@ -61,7 +62,7 @@ public class JobSchedulerAPI {
     }
 
     public static void onReceive(TermuxApiReceiver apiReceiver, Context context, Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         final String scriptPath = intent.getStringExtra("script");
 
@@ -8,13 +8,13 @@ import android.security.keystore.KeyInfo;
 import android.security.keystore.KeyProperties;
 import androidx.annotation.RequiresApi;
 import android.util.Base64;
-import android.util.JsonWriter;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
 import com.termux.api.util.ResultReturner.ResultJsonWriter;
 import com.termux.api.util.ResultReturner.WithInput;
-import com.termux.shared.logger.Logger;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -46,7 +46,7 @@ public class KeystoreAPI {
 
     @SuppressLint("NewApi")
     public static void onReceive(TermuxApiReceiver apiReceiver, Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         switch (intent.getStringExtra("command")) {
             case "list":
@@ -8,18 +8,25 @@ import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Looper;
+import android.os.Handler;
 import android.os.SystemClock;
-import android.util.JsonWriter;
 
 import androidx.annotation.RequiresPermission;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
+import com.termux.api.util.LooperPool;
 import com.termux.api.util.ResultReturner;
+import com.termux.api.util.SystemServices;
 import com.termux.api.util.ResultReturner.ResultJsonWriter;
 import com.termux.shared.logger.Logger;
 
 import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class LocationAPI {
 
@@ -27,16 +34,21 @@ public class LocationAPI {
 
     private static final String REQUEST_LAST_KNOWN = "last";
     private static final String REQUEST_ONCE = "once";
-    private static final String REQUEST_UPDATES = "updates";
+    public static final String REQUEST_UPDATES = "updates";
+
+    /** Milliseconds location updates are sent for. */
+    private static final long UPDATES_DURATION = 30 * 1000;
+    /** Queued after the last location update. */
+    private static final Object UPDATES_FINISHED = new Object();
 
     public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, final Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         ResultReturner.returnData(apiReceiver, intent, new ResultJsonWriter() {
             @RequiresPermission(Manifest.permission.ACCESS_FINE_LOCATION)
             @Override
             public void writeJson(final JsonWriter out) throws Exception {
-                LocationManager manager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+                LocationManager manager = SystemServices.get(context, Context.LOCATION_SERVICE);
 
                 String provider = intent.getStringExtra("provider");
                 if (provider == null)
@@ -58,9 +70,9 @@ public class LocationAPI {
                         Location lastKnownLocation = manager.getLastKnownLocation(provider);
                         locationToJson(lastKnownLocation, out);
                         break;
-                    case REQUEST_ONCE:
-                        Looper.prepare();
-                        manager.requestSingleUpdate(provider, new LocationListener() {
+                    case REQUEST_ONCE: {
+                        final CompletableFuture<Location> result = new CompletableFuture<>();
+                        LocationListener listener = new LocationListener() {
 
                             @Override
                             public void onStatusChanged(String changedProvider, int status, Bundle extras) {
@@ -79,20 +91,27 @@ public class LocationAPI {
 
                             @Override
                             public void onLocationChanged(Location location) {
-                                try {
-                                    locationToJson(location, out);
-                                } catch (IOException e) {
-                                    Logger.logStackTraceWithMessage(LOG_TAG, "Writing json", e);
-                                } finally {
-                                    Looper.myLooper().quit();
-                                }
+                                result.complete(location);
                             }
-                        }, null);
-                        Looper.loop();
+                        };
+                        getCancellationSignal().setOnCancelListener(() -> result.cancel(false));
+                        manager.requestSingleUpdate(provider, listener, LooperPool.getHandler().getLooper());
+                        try {
+                            locationToJson(result.get(), out);
+                        } catch (CancellationException e) {
+                            Logger.logInfo(LOG_TAG, "Client disconnected before a location was found");
+                        } finally {
+                            getCancellationSignal().setOnCancelListener(null);
+                            manager.removeUpdates(listener);
+                        }
                         break;
-                    case REQUEST_UPDATES:
-                        Looper.prepare();
-                        manager.requestLocationUpdates(provider, 5000, 50.f, new LocationListener() {
+                    }
+                    case REQUEST_UPDATES: {
+                        final Handler handler = LooperPool.getHandler();
+                        final CompletableFuture<Void> finished = new CompletableFuture<>();
+                        // the locations are written on this thread, so a slow client doesn't block the shared looper
+                        final BlockingQueue<Object> updates = new LinkedBlockingQueue<>();
+                        LocationListener listener = new LocationListener() {
 
                             @Override
                             public void onStatusChanged(String changedProvider, int status, Bundle extras) {
@@ -111,28 +130,27 @@ public class LocationAPI {
 
                             @Override
                             public void onLocationChanged(Location location) {
-                                try {
-                                    locationToJson(location, out);
-                                    out.flush();
-                                } catch (IOException e) {
-                                    Logger.logStackTraceWithMessage(LOG_TAG, "Writing json", e);
-                                }
+                                updates.offer(location);
                             }
-                        }, null);
-                        final Looper looper = Looper.myLooper();
-                        new Thread() {
-                            @Override
-                            public void run() {
-                                try {
-                                    Thread.sleep(30 * 1000);
-                                } catch (InterruptedException e) {
-                                    Logger.logStackTraceWithMessage(LOG_TAG, "INTER", e);
-                                }
-                                looper.quit();
+                        };
+                        finished.whenComplete((result, throwable) -> updates.offer(UPDATES_FINISHED));
+                        final Runnable stop = () -> finished.complete(null);
+                        getCancellationSignal().setOnCancelListener(stop::run);
+                        handler.postDelayed(stop, UPDATES_DURATION);
+                        manager.requestLocationUpdates(provider, 5000, 50.f, listener, handler.getLooper());
+                        try {
+                            Object update;
+                            while ((update = updates.take()) != UPDATES_FINISHED) {
+                                locationToJson((Location) update, out);
+                                out.flush();
                             }
-                        }.start();
-                        Looper.loop();
+                        } finally {
+                            handler.removeCallbacks(stop);
+                            getCancellationSignal().setOnCancelListener(null);
+                            manager.removeUpdates(listener);
+                        }
                         break;
+                    }
                     default:
                         out.beginObject()
                                 .name("API_ERROR")
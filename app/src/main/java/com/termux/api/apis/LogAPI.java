@@ -0,0 +1,30 @@
+package com.termux.api.apis;
+
+import android.content.Context;
+import android.content.Intent;
+
+import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
+import com.termux.api.util.ResultReturner;
+
+/**
+ * Returns the last messages written by the {@link AsyncLogger} and its counters of logged and
+ * dropped messages.
+ */
+public class LogAPI {
+
+    private static final String LOG_TAG = "LogAPI";
+
+    public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, final Intent intent) {
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
+
+        ResultReturner.returnData(apiReceiver, intent, new ResultReturner.ResultJsonWriter() {
+            @Override
+            public void writeJson(JsonWriter out) throws Exception {
+                AsyncLogger.writeJson(out);
+            }
+        });
+    }
+
+}
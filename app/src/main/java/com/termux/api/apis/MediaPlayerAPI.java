@@ -7,6 +7,7 @@ import android.media.MediaPlayer;
 import android.os.IBinder;
 import android.os.PowerManager;
 
+import com.termux.api.util.AsyncLogger;
 import com.termux.api.util.ResultReturner;
 import com.termux.shared.logger.Logger;
 
@@ -25,7 +26,7 @@ public class MediaPlayerAPI {
      * Starts our MediaPlayerService
      */
     public static void onReceive(final Context context, final Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         // Create intent for starting our player service and make sure
         // we retain all relevant info from this intent
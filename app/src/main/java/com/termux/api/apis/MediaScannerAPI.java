@@ -5,6 +5,7 @@ import android.content.Intent;
 import android.media.MediaScannerConnection;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
 import com.termux.api.util.ResultReturner;
 import com.termux.shared.logger.Logger;
 
@@ -18,7 +19,7 @@ public class MediaScannerAPI {
     private static final String LOG_TAG = "MediaScannerAPI";
 
     public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         final String[] filePaths = intent.getStringArrayExtra("paths");
         final boolean recursive = intent.getBooleanExtra("recursive", false);
@@ -0,0 +1,50 @@
+package com.termux.api.apis;
+
+import android.content.Context;
+import android.content.Intent;
+
+import com.termux.api.ApiScheduler;
+import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.ApiMetrics;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
+import com.termux.api.util.ResultCache;
+import com.termux.api.util.ResultExecutor;
+import com.termux.api.util.ResultReturner;
+
+/**
+ * Returns the {@link ApiMetrics} of all API methods and the counters of the {@link ApiScheduler},
+ * {@link ResultExecutor} and {@link ResultCache}. Resets them after returning them if the `reset` extra is true.
+ */
+public class MetricsAPI {
+
+    private static final String LOG_TAG = "MetricsAPI";
+
+    public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, final Intent intent) {
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
+
+        final boolean reset = intent.getBooleanExtra("reset", false);
+        ResultReturner.returnData(apiReceiver, intent, new ResultReturner.ResultJsonWriter() {
+            @Override
+            public void writeJson(JsonWriter out) throws Exception {
+                out.beginObject();
+                out.name("metrics");
+                ApiMetrics.writeJson(out);
+                out.name("scheduler");
+                ApiScheduler.writeStats(out);
+                out.name("executor");
+                ResultExecutor.writeStats(out);
+                out.name("cache");
+                ResultCache.writeStats(out);
+                out.endObject();
+
+                if (reset) {
+                    ApiMetrics.reset();
+                    ApiScheduler.resetStats();
+                    ResultCache.resetStats();
+                }
+            }
+        });
+    }
+
+}
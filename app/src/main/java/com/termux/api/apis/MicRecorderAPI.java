@@ -10,6 +10,7 @@ import android.util.ArrayMap;
 import android.util.SparseArray;
 import android.util.SparseIntArray;
 
+import com.termux.api.util.AsyncLogger;
 import com.termux.api.util.ResultReturner;
 import com.termux.shared.logger.Logger;
 
@@ -36,7 +37,7 @@ public class MicRecorderAPI {
      * Starts our MicRecorder service
      */
     public static void onReceive(final Context context, final Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         Intent recorderService = new Intent(context, MicRecorderService.class);
         recorderService.setAction(intent.getAction());
@@ -11,11 +11,12 @@ import android.nfc.Tag;
 import android.nfc.tech.Ndef;
 import android.os.Bundle;
 import android.os.Parcelable;
-import android.util.JsonWriter;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
 import com.termux.shared.logger.Logger;
 
@@ -24,7 +25,7 @@ public class NfcAPI {
     private static final String LOG_TAG = "NfcAPI";
 
     public static void onReceive(final Context context, final Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         context.startActivity(new Intent(context, NfcActivity.class).putExtras(intent.getExtras()).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
     }
@@ -36,6 +37,7 @@ public class NfcAPI {
         private NfcAdapter adapter;
         static String socket_input;
         static String socket_output;
+        static String result_channel;
         String mode;
         String param;
         String value;
@@ -75,6 +77,7 @@ public class NfcAPI {
                 value=intent.getStringExtra("value");
                 if (null == socket_input) socket_input = intent.getStringExtra("socket_input");
                 if (null == socket_output) socket_output = intent.getStringExtra("socket_output");
+                if (null == result_channel) result_channel = intent.getStringExtra("result_channel");
                 if (mode.equals("noData")) {
                     errorNfc(this, intent,"");
                     finish();
@@ -109,6 +112,7 @@ public class NfcAPI {
 
             intent.putExtra("socket_input", socket_input);
             intent.putExtra("socket_output", socket_output);
+            intent.putExtra("result_channel", result_channel);
 
             if (NfcAdapter.ACTION_TAG_DISCOVERED.equals(intent.getAction())) {
                 try {
@@ -135,6 +139,7 @@ public class NfcAPI {
 
             socket_input = null;
             socket_output = null;
+            result_channel = null;
             super.onDestroy();
         }
 
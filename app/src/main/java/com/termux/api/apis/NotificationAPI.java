@@ -23,6 +23,7 @@ import com.termux.api.R;
 import com.termux.api.TermuxAPIConstants;
 import com.termux.api.TermuxApiReceiver;
 import com.termux.api.util.ResultReturner;
+import com.termux.api.util.SystemServices;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.shell.command.ExecutionCommand;
 import com.termux.shared.termux.TermuxConstants;
@@ -55,7 +56,7 @@ public class NotificationAPI {
         ResultReturner.returnData(apiReceiver, intent, new ResultReturner.WithStringInput() {
             @Override
             public void writeResult(PrintWriter out) {
-                NotificationManager manager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+                NotificationManager manager = SystemServices.get(context, Context.NOTIFICATION_SERVICE);
 
                 if (!TextUtils.isEmpty(inputString)) {
                     if (inputString.contains("\n")) {
@@ -83,7 +84,7 @@ public class NotificationAPI {
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             try {
-                NotificationManager m = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+                NotificationManager m = SystemServices.get(context, Context.NOTIFICATION_SERVICE);
                 String channelId = intent.getStringExtra("id");
                 String channelName = intent.getStringExtra("name");
                 
@@ -322,7 +323,7 @@ public class NotificationAPI {
         ResultReturner.noteDone(apiReceiver, intent);
         String notificationId = intent.getStringExtra("id");
         if (notificationId != null) {
-            NotificationManager manager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            NotificationManager manager = SystemServices.get(context, Context.NOTIFICATION_SERVICE);
             manager.cancel(notificationId, 0);
         }
     }
@@ -8,18 +8,21 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.FileUtils;
+import android.os.ParcelFileDescriptor;
 import android.provider.DocumentsContract;
-import android.util.JsonWriter;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.documentfile.provider.DocumentFile;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
 import com.termux.shared.data.IntentUtils;
 import com.termux.shared.logger.Logger;
 
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -76,7 +79,7 @@ public class SAFAPI {
     }
 
     public static void onReceive(TermuxApiReceiver apiReceiver, Context context, Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         String method = intent.getStringExtra("safmethod");
         if (method == null) {
@@ -292,8 +295,10 @@ public class SAFAPI {
         {
             @Override
             public void writeResult(OutputStream out) throws Exception {
-                try (InputStream in = context.getContentResolver().openInputStream(f.getUri())) {
-                    writeInputStreamToOutputStream(in, out);
+                // copied by the kernel if the client passed a file descriptor for the output
+                try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(f.getUri(), "r");
+                     FileInputStream in = new FileInputStream(pfd.getFileDescriptor())) {
+                    writeFile(in);
                 }
             }
         });
@@ -9,20 +9,44 @@ import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.net.LocalSocket;
 import android.net.LocalSocketAddress;
+import android.os.CancellationSignal;
+import android.os.Handler;
 import android.os.IBinder;
 
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.DisconnectWatcher;
+import com.termux.api.util.JsonWriter;
+import com.termux.api.util.LooperPool;
 import com.termux.api.util.ResultReturner;
+import com.termux.api.util.SensorSampleBuffer;
+import com.termux.api.util.SystemServices;
+import com.termux.api.util.WindowAggregator;
 import com.termux.shared.logger.Logger;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
@@ -36,7 +60,7 @@ public class SensorAPI {
      * Starts our SensorReader service
      */
     public static void onReceive(final Context context, final Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         Intent serviceIntent = new Intent(context, SensorReaderService.class);
         serviceIntent.setAction(intent.getAction());
@@ -54,11 +78,11 @@ public class SensorAPI {
         protected static final int INDENTATION = 2;
 
         protected static SensorManager sensorManager;
-        protected static JSONObject sensorReadout;
-        protected static SensorOutputWriter outputWriter;
+        protected static final SensorHub sensorHub = new SensorHub();
 
-        // prevent concurrent modifications w/ sensor readout
-        protected static Semaphore semaphore;
+        /** The sessions of the clients listening to sensors by their ID, in the order they started. */
+        protected static final Map<String, SensorSession> sessions = new LinkedHashMap<>();
+        private static final AtomicInteger nextSessionId = new AtomicInteger(1);
 
         private static final String LOG_TAG = "SensorReaderService";
 
@@ -66,8 +90,6 @@ public class SensorAPI {
             Logger.logDebug(LOG_TAG, "onCreate");
 
             super.onCreate();
-            sensorReadout = new JSONObject();
-            semaphore = new Semaphore(1);
         }
 
         @Override
@@ -90,7 +112,7 @@ public class SensorAPI {
 
         protected static SensorManager getSensorManager(Context context) {
             if (sensorManager == null) {
-                sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+                sensorManager = SystemServices.get(context, Context.SENSOR_SERVICE);
             }
             return sensorManager;
         }
@@ -104,51 +126,60 @@ public class SensorAPI {
         }
 
         protected static void cleanup() {
-            if (outputWriter != null && outputWriter.isRunning()) {
-                outputWriter.interrupt();
-                outputWriter = null;
+            for (SensorSession session : getSessions()) {
+                stopSession(session);
             }
 
             if (sensorManager != null) {
-                sensorManager.unregisterListener(sensorEventListener);
+                sensorHub.unregisterAll(sensorManager);
                 sensorManager = null;
             }
         }
 
-        @Override
-        public IBinder onBind(Intent intent) {
-            return null;
+        protected static List<SensorSession> getSessions() {
+            synchronized (sessions) {
+                return new ArrayList<>(sessions.values());
+            }
         }
 
         /**
-         * Sensor event listener for reading sensor value updates and storing them
-         * in the sensorReadout JSON object
+         * Adds a session to the registry, which replaces and stops a running one with the same ID
          */
-        protected static SensorEventListener sensorEventListener = new SensorEventListener() {
-            @Override
-            public void onSensorChanged(SensorEvent sensorEvent) {
-                JSONArray sensorValuesArray = new JSONArray();
-                try {
-                    semaphore.acquire();
-                    for (int j = 0; j < sensorEvent.values.length; ++j) {
-                        sensorValuesArray.put(j, sensorEvent.values[j]);
-                    }
-                    JSONObject sensorInfo = new JSONObject();
-                    sensorInfo.put("values", sensorValuesArray);
-                    sensorReadout.put(sensorEvent.sensor.getName(), sensorInfo);
-                    semaphore.release();
-                } catch (JSONException e) {
-                    Logger.logStackTraceWithMessage(LOG_TAG, "onSensorChanged error", e);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+        protected static void startSession(SensorSession session) {
+            SensorSession replaced;
+            synchronized (sessions) {
+                replaced = sessions.put(session.id, session);
             }
+            if (replaced != null) {
+                Logger.logInfo(LOG_TAG, "Replacing sensor session " + session.id);
+                replaced.stop();
+            }
+            Logger.logInfo(LOG_TAG, "Started " + session.getType() + " sensor session " + session.id);
+        }
 
-            // unused
-            @Override
-            public void onAccuracyChanged(Sensor sensor, int i) {
+        /**
+         * Stops a session and removes it from the registry
+         */
+        protected static void stopSession(SensorSession session) {
+            endSession(session);
+            session.stop();
+        }
+
+        /**
+         * Removes a session that stopped from the registry, unless it was already replaced
+         */
+        protected static void endSession(SensorSession session) {
+            boolean removed;
+            synchronized (sessions) {
+                removed = sessions.remove(session.id, session);
             }
-        };
+            if (removed) Logger.logInfo(LOG_TAG, "Ended sensor session " + session.id);
+        }
+
+        @Override
+        public IBinder onBind(Intent intent) {
+            return null;
+        }
 
         protected static SensorCommandHandler getSensorCommandHandler(final String command) {
             switch (command == null ? "" : command) {
@@ -156,6 +187,8 @@ public class SensorAPI {
                     return listHandler;
                 case "cleanup":
                     return cleanupHandler;
+                case "sessions":
+                    return sessionsHandler;
                 case "sensors":
                     return sensorHandler;
                 default:
@@ -195,11 +228,26 @@ public class SensorAPI {
             SensorCommandResult result = new SensorCommandResult();
             JSONArray sensorArray = new JSONArray();
             List<Sensor> sensorList = sensorManager.getSensorList(Sensor.TYPE_ALL);
+            // the sampling capabilities of every sensor, instead of only its name
+            boolean details = intent.getBooleanExtra("details", false);
 
             try {
                 for (int j = 0; j < sensorList.size(); ++j) {
                     Sensor sensor = sensorList.get(j);
-                    sensorArray.put(sensor.getName());
+                    if (details) {
+                        JSONObject sensorInfo = new JSONObject();
+                        sensorInfo.put("name", sensor.getName());
+                        sensorInfo.put("type", sensor.getStringType());
+                        sensorInfo.put("vendor", sensor.getVendor());
+                        sensorInfo.put("min_delay_us", sensor.getMinDelay());
+                        sensorInfo.put("max_delay_us", sensor.getMaxDelay());
+                        sensorInfo.put("fifo_max_event_count", sensor.getFifoMaxEventCount());
+                        sensorInfo.put("fifo_reserved_event_count", sensor.getFifoReservedEventCount());
+                        sensorInfo.put("wake_up", sensor.isWakeUpSensor());
+                        sensorArray.put(sensorInfo);
+                    } else {
+                        sensorArray.put(sensor.getName());
+                    }
                 }
                 JSONObject output = new JSONObject();
                 output.put("sensors", sensorArray);
@@ -211,19 +259,58 @@ public class SensorAPI {
         };
 
         /**
-         * Handler for managing cleaning up sensor resources
+         * Handler for returning the running sessions and the sensor registrations they share
+         */
+        static SensorCommandHandler sessionsHandler = (sensorManager, context, intent) -> {
+            SensorCommandResult result = new SensorCommandResult();
+            try {
+                JSONArray sessionArray = new JSONArray();
+                for (SensorSession session : getSessions()) {
+                    JSONObject sessionInfo = new JSONObject();
+                    sessionInfo.put("id", session.id);
+                    sessionInfo.put("type", session.getType());
+                    JSONArray sensorArray = new JSONArray();
+                    for (SensorRegistration registration : session.sensors) {
+                        sensorArray.put(registration.sensor.getName());
+                    }
+                    sessionInfo.put("sensors", sensorArray);
+                    sessionInfo.put("started", session.startTime);
+                    sessionInfo.put("connected", session.isConnected());
+                    sessionArray.put(sessionInfo);
+                }
+                JSONObject output = new JSONObject();
+                output.put("sessions", sessionArray);
+                output.put("registrations", sensorHub.toJson());
+                result.message = output.toString(INDENTATION);
+            } catch (JSONException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "sessionsHandler JSON error", e);
+            }
+            return result;
+        };
+
+        /**
+         * Handler for managing cleaning up sensor resources: of the session of the `session` extra,
+         * or else of all sessions like before there were several
          */
         static SensorCommandHandler cleanupHandler = new SensorCommandHandler() {
             @Override
             public SensorCommandResult handle(SensorManager sensorManager, Context context, Intent intent) {
                 SensorCommandResult result = new SensorCommandResult();
 
-                if (outputWriter != null) {
-                    outputWriter.interrupt();
-                    outputWriter = null;
-                    sensorManager.unregisterListener(sensorEventListener);
+                String sessionId = intent.getStringExtra("session");
+                List<SensorSession> sessionsToStop = new ArrayList<>();
+                for (SensorSession session : getSessions()) {
+                    if (sessionId == null || sessionId.equals(session.id)) sessionsToStop.add(session);
+                }
+
+                if (!sessionsToStop.isEmpty()) {
+                    for (SensorSession session : sessionsToStop) {
+                        stopSession(session);
+                    }
                     result.message = "Sensor cleanup successful!";
-                    Logger.logInfo(LOG_TAG, "Cleanup()");
+                    Logger.logInfo(LOG_TAG, "Cleanup() of " + sessionsToStop.size() + " sessions");
+                } else if (sessionId != null) {
+                    result.message = "No sensor session " + sessionId;
                 } else {
                     result.message = "Sensor cleanup unnecessary";
                 }
@@ -240,20 +327,41 @@ public class SensorAPI {
                 SensorCommandResult result = new SensorCommandResult();
                 result.type = ResultType.CONTINUOUS;
 
-                clearSensorValues();
-
                 // sensor list user passed to us
                 String[] requestedSensors = getUserRequestedSensors(intent);
-                List<Sensor> sensorsToListenTo = getSensorsToListenTo(sensorManager, requestedSensors, intent);
+                List<SensorRegistration> sensorsToListenTo;
+                try {
+                    sensorsToListenTo = getSensorsToListenTo(sensorManager, requestedSensors, intent);
+                } catch (IllegalArgumentException e) {
+                    result.message = e.getMessage();
+                    result.type = ResultType.SINGLE;
+                    return result;
+                }
 
                 if (sensorsToListenTo.isEmpty()) {
                     result.message = "No valid sensors were registered!";
                     result.type = ResultType.SINGLE;
-                } else {
-                    if (outputWriter == null) {
-                        outputWriter = createSensorOutputWriter(intent);
-                        outputWriter.start();
+                    return result;
+                }
+
+                // every client has its own session, unless it names the one to replace
+                String sessionId = intent.hasExtra("session") ? intent.getStringExtra("session")
+                        : String.valueOf(nextSessionId.getAndIncrement());
+                if (intent.getBooleanExtra("stream", false)) {
+                    StreamSession session;
+                    try {
+                        session = new StreamSession(sessionId, sensorsToListenTo, sensorManager, intent);
+                    } catch (IllegalArgumentException e) {
+                        result.message = e.getMessage();
+                        result.type = ResultType.SINGLE;
+                        return result;
                     }
+                    startSession(session);
+                    ResultReturner.returnData(context, intent, session.stream);
+                } else {
+                    SnapshotSession session = new SnapshotSession(sessionId, sensorsToListenTo);
+                    startSession(session);
+                    session.start(sensorManager, intent);
                 }
                 return result;
             }
@@ -269,32 +377,42 @@ public class SensorAPI {
         }
 
         /**
-         * Gets a list of all sensors to listen to, that were requested and are available
+         * Gets a list of all sensors to listen to, that were requested and are available.
+         *
+         * Every requested sensor name may be followed by `:sampling_period_us` and
+         * `:max_report_latency_us`, otherwise the `sampling_period_us` and `max_report_latency_us`
+         * extras are used, which also apply to `all` sensors.
+         *
+         * @throws IllegalArgumentException if a sampling period or latency is not a number.
          */
-        protected static List<Sensor> getSensorsToListenTo(SensorManager sensorManager, String[] requestedSensors, Intent intent) {
+        protected static List<SensorRegistration> getSensorsToListenTo(SensorManager sensorManager, String[] requestedSensors, Intent intent) {
             List<Sensor> availableSensors = new ArrayList<>(sensorManager.getSensorList(Sensor.TYPE_ALL));
             Collections.sort(availableSensors, (s1, s2) -> s1.getName().compareTo(s2.getName()));
-            List<Sensor> sensorsToListenTo = new ArrayList<>();
+            List<SensorRegistration> sensorsToListenTo = new ArrayList<>();
 
             boolean listenToAll = intent.getBooleanExtra("all", false);
+            int samplingPeriodUs = intent.getIntExtra("sampling_period_us", SensorRegistration.DEFAULT);
+            int maxReportLatencyUs = intent.getIntExtra("max_report_latency_us", SensorRegistration.DEFAULT);
 
             if (listenToAll) {
                 for (Sensor sensor : availableSensors) {
-                    sensorManager.registerListener(sensorEventListener, sensor, SensorManager.SENSOR_DELAY_UI);
+                    sensorsToListenTo.add(new SensorRegistration(sensor, samplingPeriodUs, maxReportLatencyUs));
                 }
-                sensorsToListenTo = availableSensors;
                 Logger.logInfo(LOG_TAG, "Listening to ALL sensors");
             } else {
 
                 // try to find matching sensors that were sent in request
-                for (String sensorName : requestedSensors) {
+                for (String requestedSensor : requestedSensors) {
+                    String[] parts = requestedSensor.split(":", 3);
                     // ignore case
-                    sensorName = sensorName.toUpperCase();
+                    String sensorName = parts[0].toUpperCase();
+                    int sensorSamplingPeriodUs = parts.length > 1 ? parseMicroseconds(parts[1], requestedSensor) : samplingPeriodUs;
+                    int sensorMaxReportLatencyUs = parts.length > 2 ? parseMicroseconds(parts[2], requestedSensor) : maxReportLatencyUs;
 
                     for (Sensor sensor : availableSensors) {
                         if (sensor.getName().toUpperCase().contains(sensorName)) {
-                            sensorManager.registerListener(sensorEventListener, sensor, SensorManager.SENSOR_DELAY_UI);
-                            sensorsToListenTo.add(sensor);
+                            if (!isRegistered(sensorsToListenTo, sensor))
+                                sensorsToListenTo.add(new SensorRegistration(sensor, sensorSamplingPeriodUs, sensorMaxReportLatencyUs));
                             break;
                         }
                     }
@@ -303,27 +421,155 @@ public class SensorAPI {
             return sensorsToListenTo;
         }
 
+        private static int parseMicroseconds(String value, String requestedSensor) {
+            try {
+                int microseconds = Integer.parseInt(value.trim());
+                if (microseconds >= 0) return microseconds;
+            } catch (NumberFormatException ignored) {}
+            throw new IllegalArgumentException("Invalid sampling period or latency in \"" + requestedSensor + "\"");
+        }
+
+        private static boolean isRegistered(List<SensorRegistration> registrations, Sensor sensor) {
+            for (SensorRegistration registration : registrations) {
+                if (registration.sensor == sensor) return true;
+            }
+            return false;
+        }
+
+        /**
+         * A client listening to sensors until it disconnects, reaches its limit or is cleaned up.
+         * Its sensors are subscribed to in the {@link SensorHub}, so sessions listening to the
+         * same sensor share its registration.
+         */
+        abstract static class SensorSession {
+            final String id;
+            final List<SensorRegistration> sensors;
+            final long startTime = System.currentTimeMillis();
+
+            SensorSession(String id, List<SensorRegistration> sensors) {
+                this.id = id;
+                this.sensors = sensors;
+            }
+
+            abstract String getType();
+
+            /** Whether the output to the client is open. */
+            abstract boolean isConnected();
+
+            /** Stop writing to the client and unsubscribe from the sensors, from any thread. */
+            abstract void stop();
+        }
+
+        /**
+         * A session writing a snapshot of the last values of its sensors every `delay` milliseconds
+         */
+        static class SnapshotSession extends SensorSession implements SensorEventListener {
+            protected JSONObject sensorReadout = new JSONObject();
+            // prevent concurrent modifications w/ sensor readout
+            protected final Semaphore semaphore = new Semaphore(1);
+            protected SensorOutputWriter outputWriter;
+            private SensorManager sensorManager;
+
+            SnapshotSession(String id, List<SensorRegistration> sensors) {
+                super(id, sensors);
+            }
+
+            @Override
+            String getType() {
+                return "snapshot";
+            }
+
+            @Override
+            boolean isConnected() {
+                return outputWriter != null && outputWriter.connected;
+            }
+
+            void start(SensorManager sensorManager, Intent intent) {
+                this.sensorManager = sensorManager;
+                for (SensorRegistration registration : sensors) {
+                    sensorHub.subscribe(sensorManager, registration, this, SensorManager.SENSOR_DELAY_UI);
+                }
+                outputWriter = createSensorOutputWriter(intent, this);
+                outputWriter.start();
+            }
+
+            @Override
+            void stop() {
+                if (outputWriter != null && outputWriter.isRunning()) {
+                    outputWriter.interrupt();
+                }
+                if (sensorManager != null) sensorHub.unsubscribe(sensorManager, this);
+            }
+
+            /**
+             * Reads sensor value updates and stores them in the sensorReadout JSON object
+             */
+            @Override
+            public void onSensorChanged(SensorEvent sensorEvent) {
+                JSONArray sensorValuesArray = new JSONArray();
+                try {
+                    for (int j = 0; j < sensorEvent.values.length; ++j) {
+                        sensorValuesArray.put(j, sensorEvent.values[j]);
+                    }
+                    JSONObject sensorInfo = new JSONObject();
+                    sensorInfo.put("values", sensorValuesArray);
+                    semaphore.acquire();
+                    try {
+                        sensorReadout.put(sensorEvent.sensor.getName(), sensorInfo);
+                    } finally {
+                        semaphore.release();
+                    }
+                } catch (JSONException e) {
+                    Logger.logStackTraceWithMessage(LOG_TAG, "onSensorChanged error", e);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            // unused
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int i) {
+            }
+        }
+
         /**
-         * Clears out sensorEventListener as well as our sensorReadout JSON object
+         * A session writing every sample of its sensors with a {@link SensorStream}
          */
-        protected static void clearSensorValues() {
-            // prevent duplicate listeners
-            sensorManager.unregisterListener(sensorEventListener);
+        static class StreamSession extends SensorSession {
+            final SensorStream stream;
+
+            StreamSession(String id, List<SensorRegistration> sensors, SensorManager sensorManager, Intent intent) {
+                super(id, sensors);
+                stream = new SensorStream(id, sensorHub, sensorManager, sensors, intent, () -> endSession(this));
+            }
 
-            // clear out old values
-            sensorReadout = new JSONObject();
+            @Override
+            String getType() {
+                return "stream";
+            }
+
+            @Override
+            boolean isConnected() {
+                return stream.connected;
+            }
+
+            @Override
+            void stop() {
+                // the stream unsubscribes when its writer finishes
+                stream.stop();
+            }
         }
 
 
         /**
          * Creates SensorOutputWriter to write sensor values to stdout
          */
-        protected static SensorOutputWriter createSensorOutputWriter(Intent intent) {
+        protected static SensorOutputWriter createSensorOutputWriter(Intent intent, SnapshotSession session) {
             String socketAddress = intent.getStringExtra("socket_output");
 
-            outputWriter = new SensorOutputWriter(socketAddress);
+            SensorOutputWriter outputWriter = new SensorOutputWriter(session, socketAddress);
             outputWriter.setOnErrorListener(e -> {
-                outputWriter = null;
+                stopSession(session);
                 Logger.logStackTraceWithMessage(LOG_TAG, "SensorOutputWriter error", e);
             });
 
@@ -348,21 +594,24 @@ public class SensorAPI {
 
             static final int DEFAULT_LIMIT = Integer.MAX_VALUE;
 
+            protected final SnapshotSession session;
             protected String outputSocketAddress;
             protected boolean isRunning;
+            protected volatile boolean connected;
             protected int delay;
             protected int counter;
             protected int limit;
             protected SocketWriterErrorListener errorListener;
 
 
-            public SensorOutputWriter(String outputSocketAddress, int delay) {
+            public SensorOutputWriter(SnapshotSession session, String outputSocketAddress, int delay) {
+                this.session = session;
                 this.outputSocketAddress = outputSocketAddress;
                 this.delay = delay;
             }
 
-            public SensorOutputWriter(String outputSocketAddress) {
-                this(outputSocketAddress, DEFAULT_DELAY);
+            public SensorOutputWriter(SnapshotSession session, String outputSocketAddress) {
+                this(session, outputSocketAddress, DEFAULT_DELAY);
             }
 
             public boolean isRunning() {
@@ -386,26 +635,42 @@ public class SensorAPI {
                 isRunning = true;
                 counter = 0;
 
+                // stop listening to the sensors as soon as the client is gone, instead of when the next write fails
+                CancellationSignal cancellationSignal = new CancellationSignal();
+                cancellationSignal.setOnCancelListener(() -> {
+                    Logger.logInfo(LOG_TAG, "Client disconnected! Performing cleanup of session " + session.id);
+                    stopSession(session);
+                });
+
                 try {
                     try (LocalSocket outputSocket = new LocalSocket()) {
                         outputSocket.connect(new LocalSocketAddress(this.outputSocketAddress));
+                        connected = true;
+                        DisconnectWatcher.watch(outputSocket.getFileDescriptor(), cancellationSignal);
 
                         try (PrintWriter writer = new PrintWriter(outputSocket.getOutputStream())) {
-
                             while (isRunning) {
                                 try {
                                     Thread.sleep(this.delay);
                                 } catch (InterruptedException e) {
                                     Logger.logInfo(LOG_TAG, "SensorOutputWriter interrupted: " + e.getMessage());
                                 }
-                                semaphore.acquire();
-                                writer.write(sensorReadout.toString(INDENTATION) + "\n");
+                                if (!isRunning) break;
+                                // format under the semaphore, but write after releasing it, so a slow
+                                // client never blocks the event thread shared with other sessions
+                                String readout;
+                                session.semaphore.acquire();
+                                try {
+                                    readout = session.sensorReadout.toString(INDENTATION);
+                                } finally {
+                                    session.semaphore.release();
+                                }
+                                writer.write(readout + "\n");
                                 writer.flush();
-                                semaphore.release();
 
                                 if (++counter >= limit) {
-                                    Logger.logInfo(LOG_TAG, "SensorOutput limit reached! Performing cleanup");
-                                    cleanup();
+                                    Logger.logInfo(LOG_TAG, "SensorOutput limit reached! Performing cleanup of session " + session.id);
+                                    stopSession(session);
                                 }
                             }
                             Logger.logInfo(LOG_TAG, "SensorOutputWriter finished");
@@ -417,6 +682,9 @@ public class SensorAPI {
                     if (errorListener != null) {
                         errorListener.onError(e);
                     }
+                } finally {
+                    connected = false;
+                    DisconnectWatcher.unwatch(cancellationSignal);
                 }
             }
 
@@ -428,6 +696,777 @@ public class SensorAPI {
         }
     }
 
+    /**
+     * Streams every sample of the sensors, instead of a snapshot of their last values every
+     * `delay` milliseconds like the {@link SensorReaderService.SensorOutputWriter}.
+     *
+     * Events are received on a thread of the {@link LooperPool} and their values are copied into a
+     * {@link SensorSampleBuffer} of their sensor, without allocating or locking, so none are lost
+     * while the result is written. The thread writing the result sleeps until samples arrive, or
+     * for `delay` milliseconds if it is set, and then writes all waiting samples as NDJSON lines
+     * with the `timestamp` of the event in nanoseconds, flushing them together. The samples of
+     * different sensors are written in batches per sensor, so they are only ordered by timestamp
+     * for each sensor.
+     *
+     * The `decimation` extra keeps every Nth sample of each sensor, and `limit` stops the stream
+     * after that many samples. It also stops when the client disconnects or on `cleanup` of its
+     * session. The sensors are subscribed to in the {@link SensorHub}, which delivers the events of
+     * every sensor on one thread, so every buffer keeps a single producer.
+     *
+     * With the `window_ms` extra, the samples of every sensor are summarized by a
+     * {@link WindowAggregator} on the writer thread and only a line with the `stats` of every
+     * window is written. The windows slide by `window_step_ms` if it is set, the `filter` extra
+     * selects a `lowpass` or `highpass` filter with the `cutoff_hz` extra the samples pass first,
+     * and `decimation` applies after the filter. The window is rounded up to a whole number of
+     * steps, of at most {@link WindowAggregator#MAX_STEPS}, and the effective window and step are
+     * written with the session ID. When the stream ends, the samples after the last window are
+     * written as a `partial` window.
+     */
+    static class SensorStream extends ResultReturner.BinaryOutput implements SensorEventListener {
+        static final int DEFAULT_BUFFER_SIZE = 4096;
+
+        static final String FORMAT_JSON = "json";
+        static final String FORMAT_BINARY = "binary";
+
+        /** The statistics that can be written for every window, in the order they are written. */
+        static final String[] WINDOW_STATS = { "min", "max", "mean", "rms", "stddev", "peaks" };
+        static final String DEFAULT_WINDOW_STATS = "min,max,mean,rms,stddev";
+
+        /** Nanoseconds the writer sleeps at most if it isn't woken up. */
+        private static final long MAX_SLEEP_TIME = 1000000000L;
+        /** Values written for samples of sensor types without a documented number of values. */
+        private static final int MAX_VALUE_COUNT = 16;
+
+        private static final String LOG_TAG = "SensorStream";
+
+        /** A sensor of the stream and the samples waiting to be written. */
+        private static class StreamedSensor {
+            /** The index of the sensor in the stream. */
+            final int id;
+            final SensorRegistration registration;
+            final String name;
+            /** The number of values written for every sample, see {@link #getValueCount(Sensor)}. */
+            final int valueCount;
+            final SensorSampleBuffer buffer;
+            /** Summarizes the samples if windows were requested, only used by the writer thread. */
+            WindowAggregator aggregator;
+            /** Events since the last kept one, only used by the event thread. */
+            int skipped;
+
+            StreamedSensor(int id, SensorRegistration registration, int bufferSize) {
+                this.id = id;
+                this.registration = registration;
+                this.name = registration.sensor.getName();
+                this.valueCount = getValueCount(registration.sensor);
+                this.buffer = new SensorSampleBuffer(bufferSize);
+            }
+        }
+
+        private final SensorHub sensorHub;
+        private final SensorManager sensorManager;
+        /** Run when the stream finished, to end its session. */
+        private final Runnable onFinished;
+        /** Only read once the listener is registered. */
+        private final Map<Sensor, StreamedSensor> streamedSensors = new HashMap<>();
+        private final List<StreamedSensor> sensorList = new ArrayList<>();
+        private final int decimation;
+        private final long limit;
+        private final int delay;
+        private final String format;
+        /** Whether the samples are summarized in windows, and which of the {@link #WINDOW_STATS} are written. */
+        private final boolean windowed;
+        private final boolean[] windowStats = new boolean[WINDOW_STATS.length];
+
+        private final String sessionId;
+        private volatile boolean stopped;
+        /** Whether the result is being written to the client. */
+        volatile boolean connected;
+        private volatile Thread writer;
+        private final AtomicBoolean writerSleeping = new AtomicBoolean();
+
+        SensorStream(String sessionId, SensorHub sensorHub, SensorManager sensorManager, List<SensorRegistration> sensors, Intent intent, Runnable onFinished) {
+            this.sessionId = sessionId;
+            this.sensorHub = sensorHub;
+            this.sensorManager = sensorManager;
+            this.onFinished = onFinished;
+            int bufferSize = intent.getIntExtra("buffer_size", DEFAULT_BUFFER_SIZE);
+            if (bufferSize < SensorSampleBuffer.MIN_CAPACITY || bufferSize > SensorSampleBuffer.MAX_CAPACITY)
+                throw new IllegalArgumentException("Invalid 'buffer_size' extra " + bufferSize + ", must be from "
+                        + SensorSampleBuffer.MIN_CAPACITY + " to " + SensorSampleBuffer.MAX_CAPACITY);
+            for (SensorRegistration registration : sensors) {
+                StreamedSensor streamedSensor = new StreamedSensor(sensorList.size(), registration, bufferSize);
+                streamedSensors.put(registration.sensor, streamedSensor);
+                sensorList.add(streamedSensor);
+            }
+            int decimationExtra = Math.max(1, intent.getIntExtra("decimation", 1));
+            long windowNanos = TimeUnit.MILLISECONDS.toNanos(intent.getIntExtra("window_ms", 0));
+            windowed = windowNanos > 0;
+            if (windowed) {
+                long stepNanos = TimeUnit.MILLISECONDS.toNanos(intent.getIntExtra("window_step_ms", 0));
+                int filter = getFilter(intent.getStringExtra("filter"));
+                float cutoffHz = intent.getFloatExtra("cutoff_hz", 0);
+                if (filter != WindowAggregator.FILTER_NONE && cutoffHz <= 0)
+                    Logger.logError(LOG_TAG, "Missing 'cutoff_hz' extra, not filtering");
+                float peakThreshold = intent.getFloatExtra("peak_threshold", Float.NEGATIVE_INFINITY);
+                for (StreamedSensor streamedSensor : sensorList) {
+                    try {
+                        streamedSensor.aggregator = new WindowAggregator(windowNanos, stepNanos, decimationExtra, filter, cutoffHz, peakThreshold);
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Invalid 'window_ms' extra " + intent.getIntExtra("window_ms", 0)
+                                + ", must be at most " + WindowAggregator.MAX_STEPS + " times 'window_step_ms'");
+                    }
+                }
+                String stats = intent.getStringExtra("stats");
+                for (String stat : (stats != null ? stats : DEFAULT_WINDOW_STATS).split(",")) {
+                    int index = Arrays.asList(WINDOW_STATS).indexOf(stat.trim().toLowerCase());
+                    if (index != -1) {
+                        windowStats[index] = true;
+                    } else {
+                        Logger.logError(LOG_TAG, "Ignoring unknown window stat \"" + stat + "\"");
+                    }
+                }
+            }
+            // samples of windows are decimated after the filter on the writer thread
+            decimation = windowed ? 1 : decimationExtra;
+            int limitExtra = intent.getIntExtra("limit", -1);
+            limit = limitExtra > 0 ? limitExtra : Long.MAX_VALUE;
+            delay = Math.max(0, intent.getIntExtra("delay", 0));
+            String formatExtra = intent.getStringExtra("format");
+            if (formatExtra != null && !FORMAT_JSON.equals(formatExtra) && !FORMAT_BINARY.equals(formatExtra))
+                Logger.logError(LOG_TAG, "Invalid 'format' extra \"" + formatExtra + "\", using " + FORMAT_JSON);
+            format = FORMAT_BINARY.equals(formatExtra) ? FORMAT_BINARY : FORMAT_JSON;
+            if (windowed && FORMAT_BINARY.equals(format))
+                Logger.logError(LOG_TAG, "Windows are only written as " + FORMAT_JSON);
+        }
+
+        private static int getFilter(String filter) {
+            if (filter == null) return WindowAggregator.FILTER_NONE;
+            switch (filter) {
+                case "lowpass":
+                    return WindowAggregator.FILTER_LOW_PASS;
+                case "highpass":
+                    return WindowAggregator.FILTER_HIGH_PASS;
+                default:
+                    Logger.logError(LOG_TAG, "Invalid 'filter' extra \"" + filter + "\", not filtering");
+                    return WindowAggregator.FILTER_NONE;
+            }
+        }
+
+        /**
+         * The number of values of the samples of the sensor in {@link #FORMAT_BINARY}, which has to
+         * be known before its first sample. It is the documented number for the sensor types that
+         * have one, and the maximum of {@link #MAX_VALUE_COUNT} for others.
+         */
+        static int getValueCount(Sensor sensor) {
+            switch (sensor.getType()) {
+                case Sensor.TYPE_LIGHT:
+                case Sensor.TYPE_PRESSURE:
+                case Sensor.TYPE_PROXIMITY:
+                case Sensor.TYPE_RELATIVE_HUMIDITY:
+                case Sensor.TYPE_AMBIENT_TEMPERATURE:
+                case Sensor.TYPE_SIGNIFICANT_MOTION:
+                case Sensor.TYPE_STEP_DETECTOR:
+                case Sensor.TYPE_STEP_COUNTER:
+                case Sensor.TYPE_HEART_RATE:
+                case Sensor.TYPE_STATIONARY_DETECT:
+                case Sensor.TYPE_MOTION_DETECT:
+                case Sensor.TYPE_HEART_BEAT:
+                case Sensor.TYPE_LOW_LATENCY_OFFBODY_DETECT:
+                    return 1;
+                case Sensor.TYPE_ACCELEROMETER:
+                case Sensor.TYPE_MAGNETIC_FIELD:
+                case Sensor.TYPE_ORIENTATION:
+                case Sensor.TYPE_GYROSCOPE:
+                case Sensor.TYPE_GRAVITY:
+                case Sensor.TYPE_LINEAR_ACCELERATION:
+                    return 3;
+                case Sensor.TYPE_GAME_ROTATION_VECTOR:
+                    return 4;
+                case Sensor.TYPE_ROTATION_VECTOR:
+                case Sensor.TYPE_GEOMAGNETIC_ROTATION_VECTOR:
+                    return 5;
+                case Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED:
+                case Sensor.TYPE_GYROSCOPE_UNCALIBRATED:
+                case Sensor.TYPE_ACCELEROMETER_UNCALIBRATED:
+                    return 6;
+                case Sensor.TYPE_POSE_6DOF:
+                    return 15;
+                default:
+                    return MAX_VALUE_COUNT;
+            }
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent sensorEvent) {
+            StreamedSensor streamedSensor = streamedSensors.get(sensorEvent.sensor);
+            if (streamedSensor == null) return;
+
+            int skipped = streamedSensor.skipped;
+            streamedSensor.skipped = skipped + 1 == decimation ? 0 : skipped + 1;
+            if (skipped != 0) return;
+
+            streamedSensor.buffer.add(sensorEvent.timestamp, sensorEvent.accuracy, sensorEvent.values);
+            if (writerSleeping.get() && writerSleeping.compareAndSet(true, false))
+                LockSupport.unpark(writer);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            // every sample has its accuracy
+        }
+
+        /** Stop the stream, from any thread. */
+        void stop() {
+            stopped = true;
+            Thread thread = writer;
+            if (thread != null) LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void writeResult(OutputStream out) throws Exception {
+            writer = Thread.currentThread();
+            connected = true;
+            getCancellationSignal().setOnCancelListener(() -> {
+                Logger.logInfo(LOG_TAG, "Client disconnected! Stopping stream");
+                stop();
+            });
+
+            for (StreamedSensor streamedSensor : sensorList) {
+                sensorHub.subscribe(sensorManager, streamedSensor.registration, this, SensorManager.SENSOR_DELAY_FASTEST);
+            }
+            Logger.logInfo(LOG_TAG, "Streaming " + sensorList.size() + " sensors");
+
+            SampleWriter sampleWriter;
+            if (windowed) {
+                sampleWriter = new WindowSampleWriter(out, sessionId, windowStats, sensorList);
+            } else if (FORMAT_BINARY.equals(format)) {
+                sampleWriter = new BinarySampleWriter(out, sessionId, sensorList);
+            } else {
+                sampleWriter = new JsonSampleWriter(out, sessionId);
+            }
+            try {
+                long written = 0;
+                while (!stopped && written < limit) {
+                    int drained = drain(sampleWriter, limit - written);
+                    written += drained;
+                    if (drained > 0) sampleWriter.flush();
+
+                    if (delay > 0) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(delay));
+                    } else if (drained == 0) {
+                        writerSleeping.set(true);
+                        // check again, a sample added before the flag was set did not wake us up
+                        if (!stopped && !hasSamples()) LockSupport.parkNanos(MAX_SLEEP_TIME);
+                        writerSleeping.set(false);
+                    }
+                }
+                sampleWriter.end();
+            } finally {
+                connected = false;
+                sensorHub.unsubscribe(sensorManager, this);
+                onFinished.run();
+                sampleWriter.close();
+                for (StreamedSensor streamedSensor : sensorList) {
+                    long dropped = streamedSensor.buffer.getDropped();
+                    if (dropped > 0) Logger.logError(LOG_TAG, "Dropped " + dropped + " samples of " + streamedSensor.name);
+                }
+                Logger.logInfo(LOG_TAG, "Stream finished");
+            }
+        }
+
+        private boolean hasSamples() {
+            for (StreamedSensor streamedSensor : sensorList) {
+                if (streamedSensor.buffer.available() > 0) return true;
+            }
+            return false;
+        }
+
+        /** Write the waiting samples, at most max of them, and return how many were written. */
+        private int drain(SampleWriter sampleWriter, long max) throws IOException {
+            int drained = 0;
+            for (StreamedSensor streamedSensor : sensorList) {
+                SensorSampleBuffer buffer = streamedSensor.buffer;
+                int available = (int) Math.min(buffer.available(), max - drained);
+                for (int i = 0; i < available; i++) {
+                    sampleWriter.writeSample(streamedSensor, buffer, i);
+                }
+                buffer.remove(available);
+                drained += available;
+            }
+            return drained;
+        }
+
+        /** Writes the samples of the stream in one of the output formats. */
+        private interface SampleWriter extends Closeable {
+            void writeSample(StreamedSensor streamedSensor, SensorSampleBuffer buffer, int offset) throws IOException;
+
+            /** Send the written samples to the client. */
+            void flush() throws IOException;
+
+            /**
+             * Called after the last sample if the stream was not ended by an error, like when it
+             * reached its limit, was cleaned up or the client disconnected.
+             */
+            void end() throws IOException;
+        }
+
+        /** Writes every sample as an NDJSON line, the default {@link #FORMAT_JSON}. */
+        private static class JsonSampleWriter implements SampleWriter {
+            final JsonWriter json;
+
+            JsonSampleWriter(OutputStream out, String sessionId) throws IOException {
+                this(out, sessionId, null);
+            }
+
+            /** @param window The aggregator of the windows whose effective settings are written, if any. */
+            JsonSampleWriter(OutputStream out, String sessionId, WindowAggregator window) throws IOException {
+                json = new JsonWriter(out, JsonWriter.MODE_NDJSON);
+                json.setFlushLines(false);
+                json.beginArray();
+                // the ID to clean up the session with, before the first sample
+                json.beginObject().name("session").value(sessionId);
+                if (window != null) {
+                    json.name("window_ms").value(TimeUnit.NANOSECONDS.toMillis(window.getWindowNanos()));
+                    json.name("window_step_ms").value(TimeUnit.NANOSECONDS.toMillis(window.getStepNanos()));
+                }
+                json.endObject();
+                json.flush();
+            }
+
+            @Override
+            public void writeSample(StreamedSensor streamedSensor, SensorSampleBuffer buffer, int offset) throws IOException {
+                json.beginObject();
+                json.name("sensor").value(streamedSensor.name);
+                json.name("timestamp").value(buffer.getTimestamp(offset));
+                json.name("accuracy").value(buffer.getAccuracy(offset));
+                json.name("values").beginArray();
+                int valueCount = buffer.getValueCount();
+                for (int j = 0; j < valueCount; j++) {
+                    float value = buffer.getValue(offset, j);
+                    if (Float.isNaN(value) || Float.isInfinite(value)) {
+                        json.nullValue();
+                    } else {
+                        json.floatValue(value);
+                    }
+                }
+                json.endArray();
+                json.endObject();
+            }
+
+            @Override
+            public void flush() throws IOException {
+                json.flush();
+            }
+
+            @Override
+            public void end() throws IOException {
+                json.endArray();
+                json.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                json.finish();
+            }
+        }
+
+        /**
+         * Adds the samples to the {@link WindowAggregator} of their sensor and writes an NDJSON line
+         * with the `start` and `end` timestamps, number of samples and stats of every completed
+         * window, with a value for every axis of each stat. The samples after the last window of
+         * every sensor are written as a window with `partial` set when the stream ends.
+         */
+        private static class WindowSampleWriter extends JsonSampleWriter implements WindowAggregator.WindowListener {
+            private final boolean[] stats;
+            private final List<StreamedSensor> sensorList;
+            private float[] values = new float[MAX_VALUE_COUNT];
+            /** The sensor of the sample being added. */
+            private StreamedSensor streamedSensor;
+
+            WindowSampleWriter(OutputStream out, String sessionId, boolean[] stats, List<StreamedSensor> sensorList) throws IOException {
+                // all sensors have aggregators with the same settings
+                super(out, sessionId, sensorList.isEmpty() ? null : sensorList.get(0).aggregator);
+                this.stats = stats;
+                this.sensorList = sensorList;
+            }
+
+            @Override
+            public void end() throws IOException {
+                for (StreamedSensor streamedSensor : sensorList) {
+                    this.streamedSensor = streamedSensor;
+                    streamedSensor.aggregator.flush(this);
+                }
+                super.end();
+            }
+
+            @Override
+            public void writeSample(StreamedSensor streamedSensor, SensorSampleBuffer buffer, int offset) throws IOException {
+                int valueCount = buffer.getValueCount();
+                if (values.length < valueCount) values = new float[valueCount];
+                for (int j = 0; j < valueCount; j++) values[j] = buffer.getValue(offset, j);
+                this.streamedSensor = streamedSensor;
+                streamedSensor.aggregator.add(buffer.getTimestamp(offset), values, valueCount, this);
+            }
+
+            @Override
+            public void onWindow(WindowAggregator window) throws IOException {
+                json.beginObject();
+                json.name("sensor").value(streamedSensor.name);
+                json.name("start").value(window.getWindowStart());
+                json.name("end").value(window.getWindowEnd());
+                json.name("count").value(window.getCount());
+                if (window.isPartial()) json.name("partial").value(true);
+                int valueCount = window.getValueCount();
+                for (int i = 0; i < stats.length; i++) {
+                    if (!stats[i]) continue;
+                    json.name(WINDOW_STATS[i]).beginArray();
+                    for (int axis = 0; axis < valueCount; axis++) {
+                        switch (i) {
+                            case 0: writeValue(window.getMin(axis)); break;
+                            case 1: writeValue(window.getMax(axis)); break;
+                            case 2: writeValue(window.getMean(axis)); break;
+                            case 3: writeValue(window.getRms(axis)); break;
+                            case 4: writeValue(window.getStddev(axis)); break;
+                            default: json.value(window.getPeaks(axis)); break;
+                        }
+                    }
+                    json.endArray();
+                }
+                json.endObject();
+            }
+
+            private void writeValue(float value) throws IOException {
+                if (Float.isNaN(value) || Float.isInfinite(value)) {
+                    json.nullValue();
+                } else {
+                    json.floatValue(value);
+                }
+            }
+
+            private void writeValue(double value) throws IOException {
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    json.nullValue();
+                } else {
+                    json.value(value);
+                }
+            }
+        }
+
+        /**
+         * Writes the samples as fixed size little endian records for {@link #FORMAT_BINARY}, which
+         * NumPy can load as a structured array, after a header describing the sensors:
+         *
+         * `char[4] "TSNS" | u16 version | u16 sensor count | u32 header size | u16 record size | u16 values per record`
+         *
+         * followed by `u16 sensor id | u16 value count | u16 name length | UTF-8 name` for every
+         * sensor and `u16 session ID length | UTF-8 session ID`. Every record is `u16 sensor id | i64 timestamp ns | i16 accuracy | f32 values[]`
+         * with the values per record of the header, the most of any sensor. The values a sensor
+         * doesn't have are 0.
+         */
+        private static class BinarySampleWriter implements SampleWriter {
+            private static final byte[] MAGIC = { 'T', 'S', 'N', 'S' };
+            private static final int VERSION = 1;
+            private static final int FIXED_HEADER_SIZE = 16;
+            private static final int RECORD_HEADER_SIZE = 12;
+
+            private final OutputStream out;
+            private final ByteBuffer buffer;
+            private final int valuesPerRecord;
+
+            BinarySampleWriter(OutputStream out, String sessionId, List<StreamedSensor> sensorList) throws IOException {
+                this.out = out;
+                int valuesPerRecord = 1;
+                byte[] session = sessionId.getBytes(StandardCharsets.UTF_8);
+                int headerSize = FIXED_HEADER_SIZE + 2 + session.length;
+                byte[][] names = new byte[sensorList.size()][];
+                for (int i = 0; i < sensorList.size(); i++) {
+                    valuesPerRecord = Math.max(valuesPerRecord, sensorList.get(i).valueCount);
+                    names[i] = sensorList.get(i).name.getBytes(StandardCharsets.UTF_8);
+                    headerSize += 6 + names[i].length;
+                }
+                this.valuesPerRecord = valuesPerRecord;
+
+                int recordSize = RECORD_HEADER_SIZE + 4 * valuesPerRecord;
+                buffer = ByteBuffer.allocate(Math.max(headerSize, recordSize * 256)).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.put(MAGIC);
+                buffer.putShort((short) VERSION);
+                buffer.putShort((short) sensorList.size());
+                buffer.putInt(headerSize);
+                buffer.putShort((short) recordSize);
+                buffer.putShort((short) valuesPerRecord);
+                for (int i = 0; i < sensorList.size(); i++) {
+                    buffer.putShort((short) i);
+                    buffer.putShort((short) sensorList.get(i).valueCount);
+                    buffer.putShort((short) names[i].length);
+                    buffer.put(names[i]);
+                }
+                buffer.putShort((short) session.length);
+                buffer.put(session);
+                // the client knows the sensors before the first sample arrives
+                flush();
+            }
+
+            @Override
+            public void writeSample(StreamedSensor streamedSensor, SensorSampleBuffer sampleBuffer, int offset) throws IOException {
+                if (buffer.remaining() < RECORD_HEADER_SIZE + 4 * valuesPerRecord) writeBuffer();
+                buffer.putShort((short) streamedSensor.id);
+                buffer.putLong(sampleBuffer.getTimestamp(offset));
+                buffer.putShort((short) sampleBuffer.getAccuracy(offset));
+                int valueCount = Math.min(streamedSensor.valueCount, sampleBuffer.getValueCount());
+                for (int j = 0; j < valueCount; j++) buffer.putFloat(sampleBuffer.getValue(offset, j));
+                for (int j = valueCount; j < valuesPerRecord; j++) buffer.putFloat(0);
+            }
+
+            private void writeBuffer() throws IOException {
+                out.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writeBuffer();
+                out.flush();
+            }
+
+            @Override
+            public void end() throws IOException {
+                flush();
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+    }
+
+    /**
+     * A sensor to listen to, with the sampling period and maximum report latency the client
+     * requested for it.
+     *
+     * With a maximum report latency, the sensor hub collects events in its FIFO, which has room for
+     * {@link Sensor#getFifoMaxEventCount()} events, and delivers them in batches, so the CPU is woken
+     * up far less often for long recordings. Events keep the time they were sampled at.
+     */
+    static class SensorRegistration {
+        /** Use the default of the output mode, or no batching for the latency. */
+        static final int DEFAULT = -1;
+
+        final Sensor sensor;
+        /** Microseconds, or one of the `SensorManager.SENSOR_DELAY_*` constants from 0 to 3. */
+        final int samplingPeriodUs;
+        final int maxReportLatencyUs;
+
+        SensorRegistration(Sensor sensor, int samplingPeriodUs, int maxReportLatencyUs) {
+            this.sensor = sensor;
+            this.samplingPeriodUs = samplingPeriodUs;
+            this.maxReportLatencyUs = maxReportLatencyUs;
+        }
+
+        /**
+         * The sampling period in microseconds.
+         *
+         * @param defaultSamplingPeriod The sampling period if the client did not request one.
+         */
+        int getSamplingPeriodUs(int defaultSamplingPeriod) {
+            int samplingPeriod = samplingPeriodUs != DEFAULT ? samplingPeriodUs : defaultSamplingPeriod;
+            // the periods of the constants, so the ones of different clients can be compared
+            switch (samplingPeriod) {
+                case SensorManager.SENSOR_DELAY_FASTEST:
+                    return 0;
+                case SensorManager.SENSOR_DELAY_GAME:
+                    return 20000;
+                case SensorManager.SENSOR_DELAY_UI:
+                    return 66667;
+                case SensorManager.SENSOR_DELAY_NORMAL:
+                    return 200000;
+                default:
+                    return samplingPeriod;
+            }
+        }
+
+        int getMaxReportLatencyUs() {
+            return maxReportLatencyUs != DEFAULT ? maxReportLatencyUs : 0;
+        }
+    }
+
+    /**
+     * The sensors registered with the {@link SensorManager}, shared by all sessions listening to
+     * them.
+     *
+     * Every sensor is registered once, with the shortest sampling period and maximum report latency
+     * its subscribers requested, on a thread of the {@link LooperPool} that all of its events are
+     * delivered on, and every event is passed to all subscribers. When a subscriber comes or goes
+     * and the shortest period or latency changes, the sensor is registered again with them, and it
+     * is unregistered with its last subscriber. Subscribers that asked for a longer sampling period
+     * get the events of the shorter one.
+     */
+    static class SensorHub {
+        /** Registered with no sensor. */
+        private static final int UNREGISTERED = -1;
+
+        private static final String LOG_TAG = "SensorHub";
+
+        /** A listener subscribed to a sensor with the sampling period and latency it requested. */
+        private static class Subscription {
+            final SensorEventListener listener;
+            final int samplingPeriodUs;
+            final int maxReportLatencyUs;
+
+            Subscription(SensorEventListener listener, int samplingPeriodUs, int maxReportLatencyUs) {
+                this.listener = listener;
+                this.samplingPeriodUs = samplingPeriodUs;
+                this.maxReportLatencyUs = maxReportLatencyUs;
+            }
+        }
+
+        /** A sensor and its subscribers, registered as the listener of the sensor. */
+        private static class SharedSensor implements SensorEventListener {
+            final Sensor sensor;
+            final Handler handler = LooperPool.getHandler();
+            /** Guarded by the {@link SensorHub}. */
+            final List<Subscription> subscriptions = new ArrayList<>();
+            /** The listeners of the subscriptions, replaced when they change, for the event thread. */
+            volatile SensorEventListener[] listeners = new SensorEventListener[0];
+            int samplingPeriodUs = UNREGISTERED;
+            int maxReportLatencyUs = UNREGISTERED;
+
+            SharedSensor(Sensor sensor) {
+                this.sensor = sensor;
+            }
+
+            @Override
+            public void onSensorChanged(SensorEvent sensorEvent) {
+                for (SensorEventListener listener : listeners) {
+                    listener.onSensorChanged(sensorEvent);
+                }
+            }
+
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int accuracy) {
+                for (SensorEventListener listener : listeners) {
+                    listener.onAccuracyChanged(sensor, accuracy);
+                }
+            }
+        }
+
+        private final Map<Sensor, SharedSensor> sharedSensors = new LinkedHashMap<>();
+
+        /**
+         * Subscribe the listener to the sensor of the registration, registering the sensor if it
+         * has no subscribers yet.
+         *
+         * @param defaultSamplingPeriod The sampling period if the client did not request one.
+         * @return false if the sensor could not be registered.
+         */
+        synchronized boolean subscribe(SensorManager sensorManager, SensorRegistration registration,
+                                       SensorEventListener listener, int defaultSamplingPeriod) {
+            SharedSensor sharedSensor = sharedSensors.get(registration.sensor);
+            if (sharedSensor == null) {
+                sharedSensor = new SharedSensor(registration.sensor);
+                sharedSensors.put(registration.sensor, sharedSensor);
+            }
+            Subscription subscription = new Subscription(listener,
+                    registration.getSamplingPeriodUs(defaultSamplingPeriod), registration.getMaxReportLatencyUs());
+            sharedSensor.subscriptions.add(subscription);
+            if (update(sensorManager, sharedSensor)) return true;
+
+            // keep the registration of the other subscribers
+            sharedSensor.subscriptions.remove(subscription);
+            if (sharedSensor.subscriptions.isEmpty()) {
+                sharedSensors.remove(registration.sensor);
+            } else {
+                update(sensorManager, sharedSensor);
+            }
+            return false;
+        }
+
+        /**
+         * Unsubscribe the listener from all its sensors, unregistering the ones that have no
+         * subscribers left.
+         */
+        synchronized void unsubscribe(SensorManager sensorManager, SensorEventListener listener) {
+            Iterator<SharedSensor> iterator = sharedSensors.values().iterator();
+            while (iterator.hasNext()) {
+                SharedSensor sharedSensor = iterator.next();
+                boolean removed = false;
+                Iterator<Subscription> subscriptions = sharedSensor.subscriptions.iterator();
+                while (subscriptions.hasNext()) {
+                    if (subscriptions.next().listener == listener) {
+                        subscriptions.remove();
+                        removed = true;
+                    }
+                }
+                if (!removed) continue;
+
+                if (sharedSensor.subscriptions.isEmpty()) {
+                    sharedSensor.listeners = new SensorEventListener[0];
+                    sensorManager.unregisterListener(sharedSensor);
+                    iterator.remove();
+                    Logger.logDebug(LOG_TAG, "Unregistered " + sharedSensor.sensor.getName());
+                } else {
+                    update(sensorManager, sharedSensor);
+                }
+            }
+        }
+
+        /** Unregister all sensors, whose subscribers get no more events. */
+        synchronized void unregisterAll(SensorManager sensorManager) {
+            for (SharedSensor sharedSensor : sharedSensors.values()) {
+                sharedSensor.listeners = new SensorEventListener[0];
+                sensorManager.unregisterListener(sharedSensor);
+            }
+            sharedSensors.clear();
+        }
+
+        /** The registered sensors with their number of subscribers, sampling period and latency. */
+        synchronized JSONArray toJson() throws JSONException {
+            JSONArray registrations = new JSONArray();
+            for (SharedSensor sharedSensor : sharedSensors.values()) {
+                JSONObject registration = new JSONObject();
+                registration.put("sensor", sharedSensor.sensor.getName());
+                registration.put("subscribers", sharedSensor.subscriptions.size());
+                registration.put("sampling_period_us", sharedSensor.samplingPeriodUs);
+                registration.put("max_report_latency_us", sharedSensor.maxReportLatencyUs);
+                registrations.put(registration);
+            }
+            return registrations;
+        }
+
+        /**
+         * Pass the events to the current subscribers of the sensor, and register it again if
+         * their shortest sampling period or latency changed.
+         */
+        private boolean update(SensorManager sensorManager, SharedSensor sharedSensor) {
+            int samplingPeriodUs = Integer.MAX_VALUE;
+            int maxReportLatencyUs = Integer.MAX_VALUE;
+            SensorEventListener[] listeners = new SensorEventListener[sharedSensor.subscriptions.size()];
+            for (int i = 0; i < listeners.length; i++) {
+                Subscription subscription = sharedSensor.subscriptions.get(i);
+                samplingPeriodUs = Math.min(samplingPeriodUs, subscription.samplingPeriodUs);
+                maxReportLatencyUs = Math.min(maxReportLatencyUs, subscription.maxReportLatencyUs);
+                listeners[i] = subscription.listener;
+            }
+            sharedSensor.listeners = listeners;
+            if (samplingPeriodUs == sharedSensor.samplingPeriodUs && maxReportLatencyUs == sharedSensor.maxReportLatencyUs)
+                return true;
+
+            Sensor sensor = sharedSensor.sensor;
+            if (sharedSensor.samplingPeriodUs != UNREGISTERED) sensorManager.unregisterListener(sharedSensor);
+            AsyncLogger.logDebug(LOG_TAG, "Registering %s for %d subscribers with sampling period %dus, max report latency %dus, min delay %dus and FIFO of %d events",
+                    sensor.getName(), listeners.length, samplingPeriodUs, maxReportLatencyUs, sensor.getMinDelay(), sensor.getFifoMaxEventCount());
+            boolean registered = sensorManager.registerListener(sharedSensor, sensor, samplingPeriodUs, maxReportLatencyUs, sharedSensor.handler);
+            if (registered) {
+                sharedSensor.samplingPeriodUs = samplingPeriodUs;
+                sharedSensor.maxReportLatencyUs = maxReportLatencyUs;
+            } else {
+                sharedSensor.samplingPeriodUs = UNREGISTERED;
+                sharedSensor.maxReportLatencyUs = UNREGISTERED;
+                Logger.logError(LOG_TAG, "Failed to register " + sensor.getName());
+            }
+            return registered;
+        }
+    }
+
     /**
      * Callback interface for handling exceptions that could occur in SensorOutputWriter
      */
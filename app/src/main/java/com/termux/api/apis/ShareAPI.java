@@ -14,6 +14,7 @@ import android.webkit.MimeTypeMap;
 import com.termux.api.R;
 import com.termux.api.TermuxAPIConstants;
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
 import com.termux.api.util.ResultReturner;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.net.uri.UriUtils;
@@ -28,7 +29,7 @@ public class ShareAPI {
     private static final String LOG_TAG = "ShareAPI";
 
     public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, final Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         final String fileExtra = intent.getStringExtra("file");
         final String titleExtra = intent.getStringExtra("title");
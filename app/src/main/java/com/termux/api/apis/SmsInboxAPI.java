@@ -10,12 +10,12 @@ import android.provider.ContactsContract.PhoneLookup;
 import android.provider.Telephony.Sms;
 import android.provider.Telephony.Sms.Conversations;
 import android.provider.Telephony.TextBasedSmsColumns;
-import android.util.JsonWriter;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
 import com.termux.api.util.ResultReturner.ResultJsonWriter;
-import com.termux.shared.logger.Logger;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
@@ -37,7 +37,7 @@ public class SmsInboxAPI {
     private static final String LOG_TAG = "SmsInboxAPI";
 
     public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         final int offset = intent.getIntExtra("offset", 0);
         final int limit = intent.getIntExtra("limit", 10);
@@ -10,6 +10,7 @@ import android.telephony.SubscriptionInfo;
 import androidx.annotation.RequiresPermission;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
 import com.termux.api.util.ResultReturner;
 import com.termux.shared.logger.Logger;
 
@@ -21,7 +22,7 @@ public class SmsSendAPI {
     private static final String LOG_TAG = "SmsSendAPI";
 
     public static void onReceive(TermuxApiReceiver apiReceiver, Context context, final Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         ResultReturner.returnData(apiReceiver, intent, new ResultReturner.WithStringInput() {
             @RequiresPermission(allOf = { Manifest.permission.READ_PHONE_STATE, Manifest.permission.SEND_SMS })
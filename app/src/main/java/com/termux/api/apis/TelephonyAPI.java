@@ -16,12 +16,13 @@ import android.telephony.CellIdentityNr;
 import android.telephony.CellSignalStrength;
 import android.telephony.CellSignalStrengthNr;
 import android.telephony.TelephonyManager;
-import android.util.JsonWriter;
 
 import androidx.annotation.RequiresPermission;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
+import com.termux.api.util.SystemServices;
 import com.termux.shared.logger.Logger;
 
 import java.io.IOException;
@@ -57,7 +58,7 @@ public class TelephonyAPI {
         ResultReturner.returnData(apiReceiver, intent, new ResultReturner.ResultJsonWriter() {
             @Override
             public void writeJson(JsonWriter out) throws Exception {
-                TelephonyManager manager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+                TelephonyManager manager = SystemServices.get(context, Context.TELEPHONY_SERVICE);
                 out.beginArray();
 
                 List<CellInfo> cellInfoData = null;
@@ -193,7 +194,7 @@ public class TelephonyAPI {
             @SuppressLint("HardwareIds")
             @Override
             public void writeJson(JsonWriter out) throws Exception {
-                TelephonyManager manager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+                TelephonyManager manager = SystemServices.get(context, Context.TELEPHONY_SERVICE);
                 out.beginObject();
 
                 {
@@ -11,6 +11,7 @@ import android.speech.tts.TextToSpeech.EngineInfo;
 import android.speech.tts.UtteranceProgressListener;
 import android.util.JsonWriter;
 
+import com.termux.api.util.AsyncLogger;
 import com.termux.api.util.ResultReturner;
 import com.termux.shared.data.IntentUtils;
 import com.termux.shared.logger.Logger;
@@ -28,7 +29,7 @@ public class TextToSpeechAPI {
     private static final String LOG_TAG = "TextToSpeechAPI";
 
     public static void onReceive(final Context context, Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         context.startService(new Intent(context, TextToSpeechService.class).putExtras(intent.getExtras()));
     }
@@ -9,7 +9,9 @@ import android.hardware.camera2.CameraManager;
 import android.widget.Toast;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
 import com.termux.api.util.ResultReturner;
+import com.termux.api.util.SystemServices;
 import com.termux.shared.logger.Logger;
 
 public class TorchAPI {
@@ -18,7 +20,7 @@ public class TorchAPI {
     private static final String LOG_TAG = "TorchAPI";
 
     public static void onReceive(TermuxApiReceiver apiReceiver, final Context context, final Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         boolean enabled = intent.getBooleanExtra("enabled", false);
 
@@ -28,7 +30,7 @@ public class TorchAPI {
 
     private static void toggleTorch(Context context, boolean enabled) {
         try {
-            final CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            final CameraManager cameraManager = SystemServices.get(context, Context.CAMERA_SERVICE);
             String torchCameraId = getTorchCameraId(cameraManager);
 
             if (torchCameraId != null) {
@@ -8,12 +8,14 @@ import android.content.IntentFilter;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbManager;
-import android.os.Looper;
-import android.util.JsonWriter;
 import android.util.SparseArray;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
+import com.termux.api.util.LooperPool;
 import com.termux.api.util.ResultReturner;
+import com.termux.api.util.SystemServices;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxConstants;
 
@@ -21,6 +23,8 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Iterator;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import androidx.annotation.NonNull;
 
@@ -31,7 +35,7 @@ public class UsbAPI {
     private static final String LOG_TAG = "UsbAPI";
 
     public static void onReceive(final TermuxApiReceiver apiReceiver, final Context context, final Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         UsbDevice device;
         String action = intent.getAction();
@@ -82,7 +86,7 @@ public class UsbAPI {
     }
 
     private static void listDevices(final Context context, JsonWriter out) throws IOException {
-        final UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        final UsbManager usbManager = SystemServices.get(context, Context.USB_SERVICE);
         HashMap<String, UsbDevice> deviceList = usbManager.getDeviceList();
         Iterator<String> deviceIterator = deviceList.keySet().iterator();
         out.beginArray();
@@ -94,7 +98,7 @@ public class UsbAPI {
 
     private static UsbDevice getDevice(final TermuxApiReceiver apiReceiver, final Context context, final Intent intent) {
         String deviceName = intent.getStringExtra("device");
-        final UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        final UsbManager usbManager = SystemServices.get(context, Context.USB_SERVICE);
         HashMap<String, UsbDevice> deviceList = usbManager.getDeviceList();
         UsbDevice device = deviceList.get(deviceName);
         if (device == null) {
@@ -104,14 +108,12 @@ public class UsbAPI {
     }
 
     private static boolean hasPermission(final @NonNull UsbDevice device, final Context context) {
-        final UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        final UsbManager usbManager = SystemServices.get(context, Context.USB_SERVICE);
         return usbManager.hasPermission(device);
     }
 
     private static boolean requestPermission(final @NonNull UsbDevice device, final Context context) {
-        Looper.prepare();
-        Looper looper = Looper.myLooper();
-        final boolean[] result = new boolean[1];
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
 
         final String ACTION_USB_PERMISSION = TermuxConstants.TERMUX_API_PACKAGE_NAME + ".USB_PERMISSION";
         final BroadcastReceiver usbReceiver = new BroadcastReceiver() {
@@ -119,31 +121,32 @@ public class UsbAPI {
             public void onReceive(final Context usbContext, final Intent usbIntent) {
                 String action = usbIntent.getAction();
                 if (ACTION_USB_PERMISSION.equals(action)) {
-                    synchronized (this) {
-                        UsbDevice device = usbIntent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
-                        if (usbIntent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false)) {
-                            if (device != null) {
-                                result[0] = true;
-                                if (looper != null) looper.quit();
-                            }
-                        } else {
-                            result[0] = false;
-                            if (looper != null) looper.quit();
+                    UsbDevice device = usbIntent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+                    if (usbIntent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false)) {
+                        if (device != null) {
+                            result.complete(true);
                         }
+                    } else {
+                        result.complete(false);
                     }
-
                 }
             }
         };
 
-        final UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        final UsbManager usbManager = SystemServices.get(context, Context.USB_SERVICE);
         PendingIntent permissionIntent = PendingIntent.getBroadcast(context, 0,
                 new Intent(ACTION_USB_PERMISSION), 0);
         IntentFilter filter = new IntentFilter(ACTION_USB_PERMISSION);
-        context.getApplicationContext().registerReceiver(usbReceiver, filter);
-        usbManager.requestPermission(device, permissionIntent);
-        Looper.loop();
-        return result[0];
+        context.getApplicationContext().registerReceiver(usbReceiver, filter, null, LooperPool.getHandler());
+        try {
+            usbManager.requestPermission(device, permissionIntent);
+            return result.get();
+        } catch (InterruptedException | ExecutionException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to request permission", e);
+            return false;
+        } finally {
+            context.getApplicationContext().unregisterReceiver(usbReceiver);
+        }
     }
 
     private static boolean getPermission(final @NonNull UsbDevice device, final Context context, final Intent intent) {
@@ -156,7 +159,7 @@ public class UsbAPI {
     }
 
     private static int open(final @NonNull UsbDevice device, final Context context) {
-        final UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        final UsbManager usbManager = SystemServices.get(context, Context.USB_SERVICE);
         UsbDeviceConnection connection = usbManager.openDevice(device);
         if (connection == null)
             return -2;
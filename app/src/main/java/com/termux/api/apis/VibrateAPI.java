@@ -8,7 +8,9 @@ import android.os.VibrationEffect;
 import android.os.Vibrator;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
 import com.termux.api.util.ResultReturner;
+import com.termux.api.util.SystemServices;
 import com.termux.shared.logger.Logger;
 
 public class VibrateAPI {
@@ -16,16 +18,16 @@ public class VibrateAPI {
     private static final String LOG_TAG = "VibrateAPI";
 
     public static void onReceive(TermuxApiReceiver apiReceiver, Context context, Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
         new Thread() {
             @Override
             public void run() {
-                Vibrator vibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+                Vibrator vibrator = SystemServices.get(context, Context.VIBRATOR_SERVICE);
                 int milliseconds = intent.getIntExtra("duration_ms", 1000);
                 boolean force = intent.getBooleanExtra("force", false);
 
-                AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+                AudioManager am = SystemServices.get(context, Context.AUDIO_SERVICE);
                 if (am == null) {
                     Logger.logError(LOG_TAG, "Audio service null");
                     return;
@@ -3,12 +3,13 @@ package com.termux.api.apis;
 import android.content.Context;
 import android.content.Intent;
 import android.media.AudioManager;
-import android.util.JsonWriter;
 import android.util.SparseArray;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.AsyncLogger;
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
-import com.termux.shared.logger.Logger;
+import com.termux.api.util.SystemServices;
 
 import java.io.IOException;
 
@@ -29,9 +30,9 @@ public class VolumeAPI {
     private static final String LOG_TAG = "VolumeAPI";
 
     public static void onReceive(final TermuxApiReceiver receiver, final Context context, final Intent intent) {
-        Logger.logDebug(LOG_TAG, "onReceive");
+        AsyncLogger.logDebug(LOG_TAG, "onReceive");
 
-        final AudioManager audioManager = (AudioManager)context.getSystemService(Context.AUDIO_SERVICE);
+        final AudioManager audioManager = SystemServices.get(context, Context.AUDIO_SERVICE);
         String action = intent.getAction();
 
         if ("set-volume".equals(action)) {
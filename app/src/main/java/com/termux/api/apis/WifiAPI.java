@@ -9,10 +9,11 @@ import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.text.TextUtils;
 import android.text.format.Formatter;
-import android.util.JsonWriter;
 
 import com.termux.api.TermuxApiReceiver;
+import com.termux.api.util.JsonWriter;
 import com.termux.api.util.ResultReturner;
+import com.termux.api.util.SystemServices;
 import com.termux.shared.logger.Logger;
 
 import java.util.List;
@@ -28,7 +29,7 @@ public class WifiAPI {
             @SuppressLint("HardwareIds")
             @Override
             public void writeJson(JsonWriter out) throws Exception {
-                WifiManager manager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+                WifiManager manager = SystemServices.get(context, Context.WIFI_SERVICE);
                 WifiInfo info = manager.getConnectionInfo();
                 out.beginObject();
                 if (info == null) {
@@ -52,7 +53,7 @@ public class WifiAPI {
     }
 
     static boolean isLocationEnabled(Context context) {
-        LocationManager lm = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        LocationManager lm = SystemServices.get(context, Context.LOCATION_SERVICE);
         return lm.isProviderEnabled(LocationManager.GPS_PROVIDER);
     }
 
@@ -62,7 +63,7 @@ public class WifiAPI {
         ResultReturner.returnData(apiReceiver, intent, new ResultReturner.ResultJsonWriter() {
             @Override
             public void writeJson(JsonWriter out) throws Exception {
-                WifiManager manager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+                WifiManager manager = SystemServices.get(context, Context.WIFI_SERVICE);
                 List<ScanResult> scans = manager.getScanResults();
                 if (scans == null) {
                     out.beginObject().name("API_ERROR").value("Failed getting scan results").endObject();
@@ -125,7 +126,7 @@ public class WifiAPI {
         ResultReturner.returnData(apiReceiver, intent, new ResultReturner.ResultJsonWriter() {
             @Override
             public void writeJson(JsonWriter out) {
-                WifiManager manager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+                WifiManager manager = SystemServices.get(context, Context.WIFI_SERVICE);
                 boolean state = intent.getBooleanExtra("enabled", false);
                 manager.setWifiEnabled(state);
             }
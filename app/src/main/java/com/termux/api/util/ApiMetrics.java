@@ -0,0 +1,208 @@
+package com.termux.api.util;
+
+import android.content.Intent;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.termux.api.TermuxApiReceiver;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and throughput metrics of every `api_method`, returned by the `Metrics` API.
+ *
+ * The duration of every stage of a request is recorded in a {@link LatencyHistogram}. The times a
+ * request was received and dispatched are passed along in the {@link #EXTRA_RECEIVED_TIME} and
+ * {@link #EXTRA_DISPATCH_TIME} extras, as {@link System#nanoTime()} values, since the stages run
+ * on different threads.
+ *
+ * The total latency of the first call of every API method in the process is kept apart from the
+ * histogram as its cold call, since it also pays for class loading and looking up system services,
+ * along with how long the process took to start, so cold and warm latencies can be compared.
+ */
+public class ApiMetrics {
+
+    /** The time the {@link com.termux.api.SocketListener} received the request. */
+    public static final String EXTRA_RECEIVED_TIME = "metrics_received_time";
+    /** The time the request was dispatched to the {@link com.termux.api.TermuxApiReceiver}. */
+    public static final String EXTRA_DISPATCH_TIME = "metrics_dispatch_time";
+
+    public enum Stage {
+        /** Parsing the request in the {@link com.termux.api.SocketListener}. */
+        PARSE("parse"),
+        /** Waiting for the {@link com.termux.api.ApiScheduler} to allow running the request. */
+        QUEUE("queue"),
+        /** From dispatching the request until the {@link com.termux.api.TermuxApiReceiver} receives it. */
+        DISPATCH("dispatch"),
+        /** Running the handler of the API method in the {@link com.termux.api.TermuxApiReceiver}. */
+        WORK("work"),
+        /** Opening the channel the result is written to, usually a connection to the `socket_output` socket. */
+        CONNECT("connect"),
+        /** Writing the result with the {@link ResultReturner.ResultWriter}. */
+        WRITE("write"),
+        /** From receiving the request, or the start of the result if it was not received by the listener, until the result was sent. */
+        TOTAL("total");
+
+        private final String name;
+
+        Stage(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class ApiStats {
+        final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+        final AtomicLong results = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        /** The total latency of the first call in the process, or -1. Not cleared by {@link #reset()}. */
+        final AtomicLong firstCallNanos = new AtomicLong(-1);
+
+        ApiStats() {
+            for (int i = 0; i < stages.length; i++) stages[i] = new LatencyHistogram();
+        }
+
+        boolean hasLatencies() {
+            if (firstCallNanos.get() != -1) return true;
+            for (LatencyHistogram histogram : stages) {
+                if (histogram.getCount() > 0) return true;
+            }
+            return false;
+        }
+    }
+
+    /** The name the metrics of requests with a missing or unknown `api_method` are recorded under. */
+    public static final String UNKNOWN_API_METHOD = "unknown";
+
+    private static final Map<String, ApiStats> stats = new ConcurrentHashMap<>();
+    private static volatile long resetTime = System.nanoTime();
+    /** Milliseconds from the start of the process until the app finished its onCreate(), or -1. */
+    private static volatile long startupMillis = -1;
+    private static volatile boolean warmMode;
+
+    private static ApiStats getStats(String apiMethod) {
+        // the api_method is sent by the client, so any others would add an entry for every name
+        if (!TermuxApiReceiver.isApiMethod(apiMethod)) apiMethod = UNKNOWN_API_METHOD;
+        ApiStats apiStats = stats.get(apiMethod);
+        if (apiStats == null) {
+            ApiStats newStats = new ApiStats();
+            apiStats = stats.putIfAbsent(apiMethod, newStats);
+            if (apiStats == null) apiStats = newStats;
+        }
+        return apiStats;
+    }
+
+    public static void record(String apiMethod, Stage stage, long nanos) {
+        ApiStats apiStats = getStats(apiMethod);
+        if (stage == Stage.TOTAL && apiStats.firstCallNanos.compareAndSet(-1, nanos)) return;
+        apiStats.stages[stage.ordinal()].recordNanos(nanos);
+    }
+
+    /**
+     * Record that the app finished starting, called at the end of its onCreate().
+     *
+     * @param warm Whether the process is kept warm by the {@link com.termux.api.KeepAliveService}.
+     */
+    public static void recordStartup(boolean warm) {
+        startupMillis = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        warmMode = warm;
+    }
+
+    /** Record the duration from the time in the extra of the intent until now, if the extra is set. */
+    public static void recordSince(Intent intent, String timeExtra, Stage stage) {
+        long time = intent.getLongExtra(timeExtra, -1);
+        if (time != -1) record(intent.getStringExtra("api_method"), stage, System.nanoTime() - time);
+    }
+
+    /**
+     * Record a result that was sent.
+     *
+     * @param success Whether the result was written without errors.
+     * @param bytes The number of bytes written.
+     */
+    public static void recordResult(String apiMethod, boolean success, long bytes) {
+        ApiStats apiStats = getStats(apiMethod);
+        apiStats.results.incrementAndGet();
+        if (!success) apiStats.errors.incrementAndGet();
+        apiStats.bytes.addAndGet(bytes);
+    }
+
+    public static void reset() {
+        for (ApiStats apiStats : stats.values()) {
+            for (LatencyHistogram histogram : apiStats.stages) histogram.reset();
+            apiStats.results.set(0);
+            apiStats.errors.set(0);
+            apiStats.bytes.set(0);
+        }
+        resetTime = System.nanoTime();
+    }
+
+    /** Clear the metrics of one API method, like {@link #reset()}, for a run of the `Benchmark` API. */
+    public static void reset(String apiMethod) {
+        ApiStats apiStats = getStats(apiMethod);
+        for (LatencyHistogram histogram : apiStats.stages) histogram.reset();
+        apiStats.results.set(0);
+        apiStats.errors.set(0);
+        apiStats.bytes.set(0);
+    }
+
+    /**
+     * Write the metrics of all API methods that were called since the last {@link #reset()} as a
+     * JSON object.
+     */
+    public static void writeJson(JsonWriter out) throws IOException {
+        double elapsedSeconds = (System.nanoTime() - resetTime) / 1e9;
+        out.beginObject();
+        out.name("elapsed_s").value(elapsedSeconds);
+        out.name("process").beginObject();
+        out.name("warm_mode").value(warmMode);
+        out.name("uptime_s").value((SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime()) / 1e3);
+        out.name("startup_ms").value(startupMillis);
+        out.endObject();
+        out.name("apis").beginObject();
+        for (Map.Entry<String, ApiStats> entry : new TreeMap<>(stats).entrySet()) {
+            ApiStats apiStats = entry.getValue();
+            long results = apiStats.results.get();
+            if (results == 0 && !apiStats.hasLatencies()) continue;
+
+            out.name(entry.getKey());
+            writeStats(out, apiStats, elapsedSeconds);
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+    /**
+     * Write the metrics of one API method as a JSON object.
+     *
+     * @param elapsedSeconds The seconds the results were counted in.
+     */
+    public static void writeJson(JsonWriter out, String apiMethod, double elapsedSeconds) throws IOException {
+        writeStats(out, getStats(apiMethod), elapsedSeconds);
+    }
+
+    private static void writeStats(JsonWriter out, ApiStats apiStats, double elapsedSeconds) throws IOException {
+        long results = apiStats.results.get();
+        out.beginObject();
+        out.name("results").value(results);
+        out.name("results_per_s").value(elapsedSeconds > 0 ? results / elapsedSeconds : 0);
+        out.name("errors").value(apiStats.errors.get());
+        out.name("bytes").value(apiStats.bytes.get());
+        long firstCallNanos = apiStats.firstCallNanos.get();
+        if (firstCallNanos != -1) out.name("first_call_ms").value(firstCallNanos / 1e6);
+        out.name("latency").beginObject();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = apiStats.stages[stage.ordinal()];
+            if (histogram.getCount() == 0) continue;
+            out.name(stage.name);
+            histogram.writeJson(out);
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+}
@@ -0,0 +1,260 @@
+package com.termux.api.util;
+
+import android.content.Intent;
+
+import com.termux.api.TermuxAPIProperties;
+import com.termux.shared.data.IntentUtils;
+import com.termux.shared.logger.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logs messages of the request path on a background thread instead of the thread handling the
+ * request, with the same levels as the {@link Logger} it writes them to.
+ *
+ * Messages are put in a bounded ring buffer without locks and only formatted by the writer thread.
+ * The format and arguments are passed separately, like `String.format()`, so a message of a
+ * disabled level costs a level check and nothing is formatted or written. If the buffer is full
+ * the message is dropped and counted instead of blocking the request.
+ *
+ * {@link Intent} arguments are copied when logged and formatted with
+ * {@link IntentUtils#getIntentString(Intent)}, since the request keeps changing its intent.
+ * Stack traces are still logged synchronously with the {@link Logger}, so they aren't lost if the
+ * app crashes.
+ *
+ * The writer keeps the last {@link #HISTORY_SIZE} messages, returned by the `Log` API method
+ * along with the counters.
+ */
+public class AsyncLogger {
+
+    /** Default number of messages that may wait for the writer, see {@link TermuxAPIProperties#KEY_ASYNC_LOG_BUFFER_SIZE}. */
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+    /** Number of written messages kept for {@link #writeJson(JsonWriter)}. */
+    private static final int HISTORY_SIZE = 256;
+    /** Nanoseconds the writer sleeps at most if it isn't woken up. */
+    private static final long MAX_SLEEP_TIME = 1000000000L;
+
+    private static final String LOG_TAG = "AsyncLogger";
+
+    private enum Level {
+        ERROR("error", Logger.LOG_LEVEL_NORMAL),
+        INFO("info", Logger.LOG_LEVEL_NORMAL),
+        DEBUG("debug", Logger.LOG_LEVEL_DEBUG),
+        VERBOSE("verbose", Logger.LOG_LEVEL_VERBOSE);
+
+        private final String name;
+        /** The lowest {@link Logger#getLogLevel()} the level is enabled at. */
+        private final int minLogLevel;
+
+        Level(String name, int minLogLevel) {
+            this.name = name;
+            this.minLogLevel = minLogLevel;
+        }
+    }
+
+    /** A slot of the ring buffer, reused for every message put into it. */
+    private static class Slot {
+        /**
+         * The position the slot is free for while it equals it, or the position plus one once
+         * a message was put in it and it can be written.
+         */
+        volatile long sequence;
+        long time;
+        Level level;
+        String tag;
+        String format;
+        Object[] args;
+    }
+
+    /** A message that was written, kept in the history. */
+    private static class Message {
+        final long time;
+        final Level level;
+        final String tag;
+        final String text;
+
+        Message(long time, Level level, String tag, String text) {
+            this.time = time;
+            this.level = level;
+            this.tag = tag;
+            this.text = text;
+        }
+    }
+
+    private static volatile Slot[] slots;
+    private static int mask;
+    /** The position the next message is put at. */
+    private static final AtomicLong tail = new AtomicLong();
+    /** The position of the next message to write, only changed by the writer. */
+    private static long head;
+
+    private static final AtomicLong logged = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static final Message[] history = new Message[HISTORY_SIZE];
+    private static long historyCount;
+
+    private static Thread writer;
+    private static final AtomicBoolean writerSleeping = new AtomicBoolean();
+
+    private static synchronized void init() {
+        if (slots != null) return;
+        int size = TermuxAPIProperties.getInt(TermuxAPIProperties.KEY_ASYNC_LOG_BUFFER_SIZE, DEFAULT_BUFFER_SIZE, 16, 65536);
+        // round up to a power of two, so a position is mapped to its slot with a mask
+        int capacity = Integer.highestOneBit(size - 1) << 1;
+        Slot[] newSlots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            newSlots[i] = new Slot();
+            newSlots[i].sequence = i;
+        }
+        mask = capacity - 1;
+
+        writer = new Thread(AsyncLogger::run, LOG_TAG);
+        writer.setDaemon(true);
+        // published last, the fields above are visible to threads that see it
+        slots = newSlots;
+        writer.start();
+    }
+
+    public static void logError(String tag, String format, Object... args) {
+        log(Level.ERROR, tag, format, args);
+    }
+
+    public static void logInfo(String tag, String format, Object... args) {
+        log(Level.INFO, tag, format, args);
+    }
+
+    public static void logDebug(String tag, String format, Object... args) {
+        log(Level.DEBUG, tag, format, args);
+    }
+
+    public static void logVerbose(String tag, String format, Object... args) {
+        log(Level.VERBOSE, tag, format, args);
+    }
+
+    /** Put a message in the buffer, if its level is enabled. */
+    private static void log(Level level, String tag, String format, Object[] args) {
+        if (Logger.getLogLevel() < level.minLogLevel) return;
+        if (slots == null) init();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof Intent) args[i] = new Intent((Intent) args[i]);
+        }
+
+        long position = tail.get();
+        Slot slot;
+        while (true) {
+            slot = slots[(int) position & mask];
+            long difference = slot.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+                position = tail.get();
+            } else if (difference < 0) {
+                // the writer has not written the message a full buffer ago yet
+                dropped.incrementAndGet();
+                return;
+            } else {
+                // another thread took the position
+                position = tail.get();
+            }
+        }
+
+        slot.time = System.currentTimeMillis();
+        slot.level = level;
+        slot.tag = tag;
+        slot.format = format;
+        slot.args = args;
+        slot.sequence = position + 1;
+        logged.incrementAndGet();
+
+        if (writerSleeping.get() && writerSleeping.compareAndSet(true, false))
+            LockSupport.unpark(writer);
+    }
+
+    private static void run() {
+        while (true) {
+            Slot slot = slots[(int) head & mask];
+            if (slot.sequence != head + 1) {
+                writerSleeping.set(true);
+                // check again, a message put in before the flag was set did not wake us up
+                if (slot.sequence != head + 1) LockSupport.parkNanos(MAX_SLEEP_TIME);
+                writerSleeping.set(false);
+                continue;
+            }
+
+            long time = slot.time;
+            Level level = slot.level;
+            String tag = slot.tag;
+            String format = slot.format;
+            Object[] args = slot.args;
+            slot.level = null;
+            slot.tag = null;
+            slot.format = null;
+            slot.args = null;
+            slot.sequence = head + mask + 1;
+            head++;
+
+            try {
+                write(time, level, tag, format(format, args));
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write message of " + tag, e);
+            }
+        }
+    }
+
+    private static String format(String format, Object[] args) {
+        if (args.length == 0) return format;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof Intent) args[i] = IntentUtils.getIntentString((Intent) args[i]);
+        }
+        return String.format(format, args);
+    }
+
+    private static void write(long time, Level level, String tag, String text) {
+        switch (level) {
+            case ERROR:
+                Logger.logError(tag, text);
+                break;
+            case INFO:
+                Logger.logInfo(tag, text);
+                break;
+            case DEBUG:
+                Logger.logDebug(tag, text);
+                break;
+            case VERBOSE:
+                Logger.logVerbose(tag, text);
+                break;
+        }
+
+        synchronized (history) {
+            history[(int) (historyCount++ % HISTORY_SIZE)] = new Message(time, level, tag, text);
+        }
+    }
+
+    /** Write the counters and the last written messages, oldest first, as a JSON object. */
+    public static void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("buffer_size").value(slots == null ? 0 : mask + 1);
+        out.name("logged").value(logged.get());
+        out.name("dropped").value(dropped.get());
+        out.name("messages").beginArray();
+        synchronized (history) {
+            long first = Math.max(0, historyCount - HISTORY_SIZE);
+            for (long i = first; i < historyCount; i++) {
+                Message message = history[(int) (i % HISTORY_SIZE)];
+                out.beginObject();
+                out.name("time").value(message.time);
+                out.name("level").value(message.level.name);
+                out.name("tag").value(message.tag);
+                out.name("message").value(message.text);
+                out.endObject();
+            }
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+}
@@ -0,0 +1,315 @@
+package com.termux.api.util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link JsonWriter} that encodes the values in a binary format instead of JSON text, so the
+ * `writeJson()` of every API method writes {@link JsonWriter#MODE_CBOR} or
+ * {@link JsonWriter#MODE_MSGPACK} results unchanged.
+ *
+ * Subclasses encode single values into the buffer of the {@link JsonWriter}, this class checks the
+ * nesting and counts the elements of every container. Like in {@link JsonWriter#MODE_NDJSON}, every
+ * complete top level value is sent to the client right away, and a result with more than one
+ * value is a sequence of them.
+ *
+ * Unlike in JSON, NaN and infinite numbers are always allowed, and doubles that are exact as floats
+ * are written as floats, which halves the size of most sensor values.
+ */
+abstract class BinaryJsonWriter extends JsonWriter {
+
+    private static final int ARRAY = 1;
+    private static final int OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+
+    /** The scope, start in the buffer and number of elements, or of names for objects, of every open container. */
+    private int[] scopes = new int[32];
+    private int[] starts = new int[32];
+    private int[] sizes = new int[32];
+    private int depth;
+
+    BinaryJsonWriter(OutputStream out) {
+        super(out, MODE_COMPACT);
+    }
+
+    /** Write the start of an array, whose size is not known yet. */
+    abstract void encodeArrayStart() throws IOException;
+
+    /**
+     * Write the end of an array.
+     *
+     * @param start The position in the buffer the array started at, only valid if the buffer was
+     *              not flushed since, see {@link #canFlush()}.
+     * @param size The number of elements of the array.
+     */
+    abstract void encodeArrayEnd(int start, int size) throws IOException;
+
+    /** Write the start of a map, whose size is not known yet. */
+    abstract void encodeMapStart() throws IOException;
+
+    /** Write the end of a map, like {@link #encodeArrayEnd(int, int)}, with the number of names as size. */
+    abstract void encodeMapEnd(int start, int size) throws IOException;
+
+    abstract void encodeString(String value) throws IOException;
+
+    abstract void encodeNull() throws IOException;
+
+    abstract void encodeBoolean(boolean value) throws IOException;
+
+    abstract void encodeLong(long value) throws IOException;
+
+    abstract void encodeDouble(double value) throws IOException;
+
+    /** Whether no container is open, so every written byte is final. */
+    boolean isTopLevel() {
+        return depth == 0;
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push(ARRAY);
+        encodeArrayStart();
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        pop(ARRAY);
+        encodeArrayEnd(starts[depth], sizes[depth]);
+        afterValue();
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push(OBJECT);
+        encodeMapStart();
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        pop(OBJECT);
+        encodeMapEnd(starts[depth], sizes[depth]);
+        afterValue();
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        if (name == null) throw new NullPointerException("name == null");
+        if (depth == 0 || scopes[depth - 1] != OBJECT) throw new IllegalStateException("Nesting problem");
+        scopes[depth - 1] = DANGLING_NAME;
+        sizes[depth - 1]++;
+        encodeString(name);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) return nullValue();
+        beforeValue();
+        encodeString(value);
+        afterValue();
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        encodeNull();
+        afterValue();
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        encodeBoolean(value);
+        afterValue();
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        beforeValue();
+        encodeDouble(value);
+        afterValue();
+        return this;
+    }
+
+    @Override
+    public JsonWriter floatValue(float value) throws IOException {
+        // exact as a float, so written as one
+        return value((double) value);
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        encodeLong(value);
+        afterValue();
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null) return nullValue();
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+                || value instanceof AtomicLong || value instanceof AtomicInteger
+                || (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64)) {
+            return value(value.longValue());
+        }
+        return value(value.doubleValue());
+    }
+
+    /** Parse the compact JSON and write the value it contains in the binary format. */
+    @Override
+    public JsonWriter jsonValue(String json) throws IOException {
+        if (json == null) return nullValue();
+        try {
+            writeParsed(new JSONTokener(json).nextValue());
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON value", e);
+        }
+        return this;
+    }
+
+    private void writeParsed(Object value) throws IOException, JSONException {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            beginObject();
+            Iterator<String> names = object.keys();
+            while (names.hasNext()) {
+                String name = names.next();
+                name(name);
+                writeParsed(object.get(name));
+            }
+            endObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            beginArray();
+            for (int i = 0; i < array.length(); i++) writeParsed(array.get(i));
+            endArray();
+        } else if (value instanceof String) {
+            value((String) value);
+        } else if (value instanceof Boolean) {
+            value((boolean) (Boolean) value);
+        } else if (value instanceof Number) {
+            value((Number) value);
+        } else {
+            nullValue();
+        }
+    }
+
+    private void push(int scope) {
+        if (depth == scopes.length) {
+            scopes = Arrays.copyOf(scopes, depth * 2);
+            starts = Arrays.copyOf(starts, depth * 2);
+            sizes = Arrays.copyOf(sizes, depth * 2);
+        }
+        scopes[depth] = scope;
+        starts[depth] = count;
+        sizes[depth] = 0;
+        depth++;
+    }
+
+    private void pop(int scope) {
+        if (depth == 0 || scopes[depth - 1] != scope) throw new IllegalStateException("Nesting problem");
+        depth--;
+    }
+
+    private void beforeValue() {
+        if (depth == 0) return;
+        switch (scopes[depth - 1]) {
+            case ARRAY:
+                sizes[depth - 1]++;
+                break;
+            case DANGLING_NAME:
+                scopes[depth - 1] = OBJECT;
+                break;
+            default:
+                throw new IllegalStateException("Nesting problem");
+        }
+    }
+
+    /** Send a top level value once it is complete. */
+    private void afterValue() throws IOException {
+        if (depth == 0) flush();
+    }
+
+    /** The number of bytes of the string in UTF-8, with unpaired surrogates replaced by `?`. */
+    static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) continue;
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // 4 bytes for the 2 chars
+                bytes += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /** Write the string in UTF-8, in the {@link #utf8Length(String)} bytes that must fit in the buffer. */
+    void writeUtf8(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xC0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[count++] = '?';
+            } else {
+                buffer[count++] = (byte) (0xE0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /** Write a big endian integer of 2, 4 or 8 bytes at the position, which must fit in the buffer. */
+    void putInteger(int position, long value, int bytes) {
+        for (int i = bytes - 1; i >= 0; i--) {
+            buffer[position + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /** Write a type byte followed by a big endian integer of 0, 1, 2, 4 or 8 bytes. */
+    void writeTyped(int type, long value, int bytes) throws IOException {
+        ensureCapacity(1 + bytes);
+        buffer[count++] = (byte) type;
+        putInteger(count, value, bytes);
+        count += bytes;
+    }
+
+}
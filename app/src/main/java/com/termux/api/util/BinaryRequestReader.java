@@ -0,0 +1,210 @@
+package com.termux.api.util;
+
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader for requests sent to the {@link com.termux.api.SocketListener} in the binary format, as
+ * an alternative to the `am` style command lines read by {@link CommandLineParser}. The extras are
+ * typed and length prefixed, so they need no escaping and are not limited to 64 KB.
+ *
+ * All integers are big endian. A request is:
+ *
+ * `u32 entry count | entry...`
+ *
+ * and every entry is:
+ *
+ * `u8 type | u16 key length | key | u32 value length | value`
+ *
+ * with UTF-8 encoded keys and these value types:
+ *
+ * - {@link #TYPE_ACTION}: the intent action in UTF-8, the key is ignored.
+ * - {@link #TYPE_STRING}: UTF-8 string.
+ * - {@link #TYPE_STRING_ARRAY}: `u32 count` followed by `u32 length | UTF-8 string` for each element.
+ * - {@link #TYPE_INT}: 4 byte int.
+ * - {@link #TYPE_INT_ARRAY}: 4 byte ints.
+ * - {@link #TYPE_LONG_ARRAY}: 8 byte longs.
+ * - {@link #TYPE_FLOAT}: 4 byte IEEE 754 float.
+ * - {@link #TYPE_BOOLEAN}: 1 byte, 0 for false.
+ * - {@link #TYPE_BYTES}: raw bytes, added as a byte array extra.
+ *
+ * Entries are read one at a time from the stream straight into the intent. A request may be at
+ * most {@link #MAX_REQUEST_LENGTH} bytes long, reading stops at the first entry beyond it.
+ */
+public class BinaryRequestReader {
+
+    public static final int TYPE_ACTION = 0;
+    public static final int TYPE_STRING = 1;
+    public static final int TYPE_STRING_ARRAY = 2;
+    public static final int TYPE_INT = 3;
+    public static final int TYPE_INT_ARRAY = 4;
+    public static final int TYPE_LONG_ARRAY = 5;
+    public static final int TYPE_FLOAT = 6;
+    public static final int TYPE_BOOLEAN = 7;
+    public static final int TYPE_BYTES = 8;
+
+    /** Upper bound of the length of a single value. */
+    public static final int MAX_VALUE_LENGTH = 16 * 1024 * 1024;
+    /** Upper bound of the length of a whole request, like the one of a session frame. */
+    public static final int MAX_REQUEST_LENGTH = 16 * 1024 * 1024;
+
+    /** The length of an entry without its key and value. */
+    private static final int ENTRY_HEADER_LENGTH = 7;
+
+    /**
+     * Read a request from the stream and set the action and extras it contains on the intent.
+     *
+     * Invalid entries are skipped, so the whole request is always consumed from the stream unless
+     * it is longer than {@link #MAX_REQUEST_LENGTH} or an {@link IOException} is thrown.
+     *
+     * @return {@code null} if the request was valid, otherwise the newline terminated error
+     * messages that should be returned to the client, one per line.
+     */
+    @Nullable
+    public static String read(@NonNull DataInputStream in, @NonNull Intent intent) throws IOException {
+        StringBuilder errors = null;
+        long count = in.readInt() & 0xFFFFFFFFL;
+        long requestLength = 4 + count * ENTRY_HEADER_LENGTH;
+        for (long i = 0; i < count && requestLength <= MAX_REQUEST_LENGTH; i++) {
+            int type = in.readUnsignedByte();
+            byte[] keyBytes = new byte[in.readUnsignedShort()];
+            in.readFully(keyBytes);
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            long length = in.readInt() & 0xFFFFFFFFL;
+            requestLength += keyBytes.length + length;
+            if (requestLength > MAX_REQUEST_LENGTH) break;
+
+            String error = readValue(in, intent, type, key, length);
+            if (error != null) {
+                if (errors == null) errors = new StringBuilder();
+                errors.append(error).append("\n");
+            }
+        }
+        if (requestLength > MAX_REQUEST_LENGTH) {
+            if (errors == null) errors = new StringBuilder();
+            errors.append("Request longer than ").append(MAX_REQUEST_LENGTH).append(" bytes\n");
+        }
+        return errors == null ? null : errors.toString();
+    }
+
+    /**
+     * Read one value and put it into the intent.
+     *
+     * @return An error message if the value is invalid, in which case it has been skipped.
+     */
+    private static String readValue(DataInputStream in, Intent intent, int type, String key, long length) throws IOException {
+        if (length > MAX_VALUE_LENGTH) {
+            skipFully(in, length);
+            return "Too large extra: " + key + " (" + length + " bytes)";
+        }
+        int len = (int) length;
+
+        switch (type) {
+            case TYPE_ACTION:
+                intent.setAction(readString(in, len));
+                return null;
+            case TYPE_STRING:
+                intent.putExtra(key, readString(in, len));
+                return null;
+            case TYPE_STRING_ARRAY:
+                return readStringArray(in, intent, key, len);
+            case TYPE_INT:
+                if (len != 4) break;
+                intent.putExtra(key, in.readInt());
+                return null;
+            case TYPE_INT_ARRAY: {
+                if (len % 4 != 0) break;
+                int[] ints = new int[len / 4];
+                for (int i = 0; i < ints.length; i++) ints[i] = in.readInt();
+                intent.putExtra(key, ints);
+                return null;
+            }
+            case TYPE_LONG_ARRAY: {
+                if (len % 8 != 0) break;
+                long[] longs = new long[len / 8];
+                for (int i = 0; i < longs.length; i++) longs[i] = in.readLong();
+                intent.putExtra(key, longs);
+                return null;
+            }
+            case TYPE_FLOAT:
+                if (len != 4) break;
+                intent.putExtra(key, in.readFloat());
+                return null;
+            case TYPE_BOOLEAN:
+                if (len != 1) break;
+                intent.putExtra(key, in.readUnsignedByte() != 0);
+                return null;
+            case TYPE_BYTES: {
+                byte[] bytes = new byte[len];
+                in.readFully(bytes);
+                intent.putExtra(key, bytes);
+                return null;
+            }
+            default:
+                skipFully(in, len);
+                return "Unsupported argument type: " + type + " for extra " + key;
+        }
+
+        skipFully(in, len);
+        return "Invalid length " + len + " of type " + type + " extra: " + key;
+    }
+
+    private static String readStringArray(DataInputStream in, Intent intent, String key, int len) throws IOException {
+        if (len < 4) {
+            skipFully(in, len);
+            return "Invalid string array extra: " + key;
+        }
+        int remaining = len - 4;
+        long count = in.readInt() & 0xFFFFFFFFL;
+        // every element needs at least its 4 byte length
+        if (count > remaining / 4) {
+            skipFully(in, remaining);
+            return "Invalid string array extra: " + key;
+        }
+
+        String[] list = new String[(int) count];
+        for (int i = 0; i < list.length; i++) {
+            // the earlier elements may have left less than the length of this one
+            if (remaining < 4) {
+                skipFully(in, remaining);
+                return "Invalid string array extra: " + key;
+            }
+            long elementLength = in.readInt() & 0xFFFFFFFFL;
+            remaining -= 4;
+            if (elementLength > remaining) {
+                skipFully(in, remaining);
+                return "Invalid string array extra: " + key;
+            }
+            list[i] = readString(in, (int) elementLength);
+            remaining -= (int) elementLength;
+        }
+        skipFully(in, remaining);
+        intent.putExtra(key, list);
+        return null;
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void skipFully(DataInputStream in, long length) throws IOException {
+        while (length > 0) {
+            int skipped = in.skipBytes((int) Math.min(length, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                // skipBytes() may return 0 before the end of the stream, read() tells them apart
+                if (in.read() < 0) throw new java.io.EOFException();
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+}
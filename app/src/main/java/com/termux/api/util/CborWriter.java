@@ -0,0 +1,109 @@
+package com.termux.api.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes results as CBOR (RFC 8949) for the {@link JsonWriter#MODE_CBOR} mode.
+ *
+ * Arrays and maps are written with an indefinite length, so nothing has to be kept in the buffer
+ * until they end, and big results are streamed like JSON ones. Integers and lengths use the
+ * shortest encoding.
+ */
+class CborWriter extends BinaryJsonWriter {
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+
+    private static final int INDEFINITE_ARRAY = 0x9F;
+    private static final int INDEFINITE_MAP = 0xBF;
+    private static final int BREAK = 0xFF;
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int FLOAT32 = 0xFA;
+    private static final int FLOAT64 = 0xFB;
+
+    CborWriter(OutputStream out) {
+        super(out);
+    }
+
+    /** Write the type and argument of a data item. */
+    private void writeHead(int major, long argument) throws IOException {
+        int type = major << 5;
+        if (argument >= 0 && argument < 24) {
+            writeTyped(type | (int) argument, 0, 0);
+        } else if (argument >= 0 && argument <= 0xFF) {
+            writeTyped(type | 24, argument, 1);
+        } else if (argument >= 0 && argument <= 0xFFFF) {
+            writeTyped(type | 25, argument, 2);
+        } else if (argument >= 0 && argument <= 0xFFFFFFFFL) {
+            writeTyped(type | 26, argument, 4);
+        } else {
+            // also arguments above Long.MAX_VALUE, which are negative as a long
+            writeTyped(type | 27, argument, 8);
+        }
+    }
+
+    @Override
+    void encodeArrayStart() throws IOException {
+        writeByte(INDEFINITE_ARRAY);
+    }
+
+    @Override
+    void encodeArrayEnd(int start, int size) throws IOException {
+        writeByte(BREAK);
+    }
+
+    @Override
+    void encodeMapStart() throws IOException {
+        writeByte(INDEFINITE_MAP);
+    }
+
+    @Override
+    void encodeMapEnd(int start, int size) throws IOException {
+        writeByte(BREAK);
+    }
+
+    @Override
+    void encodeString(String value) throws IOException {
+        int length = utf8Length(value);
+        writeHead(MAJOR_TEXT, length);
+        ensureCapacity(length);
+        writeUtf8(value);
+    }
+
+    @Override
+    void encodeNull() throws IOException {
+        writeByte(NULL);
+    }
+
+    @Override
+    void encodeBoolean(boolean value) throws IOException {
+        writeByte(value ? TRUE : FALSE);
+    }
+
+    @Override
+    void encodeLong(long value) throws IOException {
+        if (value >= 0) {
+            writeHead(MAJOR_UNSIGNED, value);
+        } else {
+            // -1 - value, which can't overflow
+            writeHead(MAJOR_NEGATIVE, ~value);
+        }
+    }
+
+    @Override
+    void encodeDouble(double value) throws IOException {
+        float f = (float) value;
+        if (f == value || Double.isNaN(value)) {
+            writeTyped(FLOAT32, Float.floatToIntBits(f), 4);
+        } else {
+            writeTyped(FLOAT64, Double.doubleToLongBits(value), 8);
+        }
+    }
+
+}
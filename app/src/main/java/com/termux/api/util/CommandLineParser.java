@@ -0,0 +1,410 @@
+package com.termux.api.util;
+
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+
+/**
+ * Single pass parser for the `am` style command lines sent by termux-api.c to the
+ * {@link com.termux.api.SocketListener}.
+ *
+ * The command line is scanned once and every extra is written straight into the {@link Intent},
+ * without building intermediate strings or maps. The accepted syntax and the error messages are
+ * the same as the ones of the regex based parser this replaced:
+ *
+ * - `-e|--es key "value"`: string extra, `\"` is unescaped to `"`.
+ * - `--esa key "a,b\,c"`: string array extra split on unescaped commas, the first `\,` of every
+ *   element is unescaped to `,`.
+ * - `--ez key value`: boolean extra, see {@link Boolean#parseBoolean(String)}.
+ * - `--ei key -?[0-9]+`: int extra.
+ * - `--ef key -?[0-9]+.[0-9]+`: float extra.
+ * - `--eia|--ela key -?[0-9]+(,-?[0-9]+)*`: int and long array extras.
+ * - `-a action`: the intent action.
+ *
+ * If the same key is passed more than once, the last occurrence is used, whatever its type.
+ */
+public class CommandLineParser {
+
+    /*
+     * The regex based parser extracted one extra type at a time, so at most one error was reported
+     * per type and always in this order. Errors are collected into these slots to keep that output.
+     */
+    private static final int ERROR_INT = 0;
+    private static final int ERROR_FLOAT = 1;
+    private static final int ERROR_INT_LIST = 2;
+    private static final int ERROR_LONG_LIST = 3;
+    private static final int ERROR_UNSUPPORTED_TYPE = 4;
+    private static final int ERROR_COUNT = 5;
+
+    private final String cmdline;
+    private final int length;
+    private final Intent intent;
+    private int pos;
+
+    private final String[] errors = new String[ERROR_COUNT];
+    /** All unparsed non-whitespace characters, reported as unsupported options. */
+    private final StringBuilder unparsed = new StringBuilder();
+
+    private CommandLineParser(String cmdline, Intent intent) {
+        this.cmdline = cmdline;
+        this.length = cmdline.length();
+        this.intent = intent;
+    }
+
+    /**
+     * Parse the command line and set the action and extras it contains on the intent.
+     *
+     * @return {@code null} if the command line was valid, otherwise the newline terminated error
+     * messages that should be returned to the client, one per line. The intent should not be
+     * used in that case, since it may only contain part of the extras.
+     */
+    @Nullable
+    public static String parse(@NonNull String cmdline, @NonNull Intent intent) {
+        return new CommandLineParser(cmdline, intent).parse();
+    }
+
+    private String parse() {
+        while (skipSpaces()) {
+            int start = pos;
+            String option = nextToken();
+            switch (option) {
+                case "-e":
+                case "--es":
+                case "--esa":
+                    parseStringExtra(start, option);
+                    break;
+                case "--ez":
+                    parseBooleanExtra();
+                    break;
+                case "--ei":
+                    parseIntExtra(start);
+                    break;
+                case "--ef":
+                    parseFloatExtra(start);
+                    break;
+                case "--eia":
+                case "--ela":
+                    parseNumberListExtra(start, option);
+                    break;
+                default:
+                    if (option.startsWith("-a")) {
+                        parseAction(option);
+                    } else if (isUnsupportedTypeOption(option)) {
+                        parseUnsupportedTypeExtra(start);
+                    } else {
+                        addUnparsed(option);
+                    }
+            }
+        }
+
+        StringBuilder result = null;
+        for (String error : errors) {
+            if (error == null) continue;
+            if (result == null) result = new StringBuilder();
+            result.append(error).append("\n");
+        }
+        if (unparsed.length() > 0) {
+            if (result == null) result = new StringBuilder();
+            result.append("Unsupported options: ").append(unparsed).append("\n");
+        }
+        return result == null ? null : result.toString();
+    }
+
+
+
+    private void parseStringExtra(int start, String option) {
+        String key = nextArgument();
+        if (key == null) {
+            addUnparsed(option);
+            return;
+        }
+        // the value must follow the key after at least one space and be quoted
+        if (!skipSpaces() || cmdline.charAt(pos) != '"') {
+            addUnparsed(option);
+            addUnparsed(key);
+            return;
+        }
+
+        int valueStart = pos + 1;
+        int valueEnd = -1;
+        for (int i = valueStart; i < length; i++) {
+            if (cmdline.charAt(i) == '"' && cmdline.charAt(i - 1) != '\\') {
+                valueEnd = i;
+                break;
+            }
+        }
+        if (valueEnd < 0) {
+            // unterminated string, the quote and everything after it is parsed as a normal token
+            addUnparsed(option);
+            addUnparsed(key);
+            return;
+        }
+        pos = valueEnd + 1;
+
+        if ("--esa".equals(option)) {
+            intent.putExtra(key, splitStringList(valueStart, valueEnd));
+        } else {
+            intent.putExtra(key, unescape(valueStart, valueEnd, '"', false));
+        }
+    }
+
+    private void parseBooleanExtra() {
+        String key = nextArgument();
+        String value = key == null ? null : nextArgument();
+        if (value == null) {
+            addUnparsed("--ez");
+            if (key != null) addUnparsed(key);
+            return;
+        }
+        intent.putExtra(key, Boolean.parseBoolean(value));
+    }
+
+    private void parseIntExtra(int start) {
+        String key = nextArgument();
+        int valueStart = key == null ? -1 : nextArgumentStart();
+        int valueEnd = valueStart < 0 ? -1 : scanInteger(valueStart);
+        if (valueEnd < 0) {
+            addUnparsed("--ei");
+            if (key != null) addUnparsed(key);
+            return;
+        }
+        try {
+            intent.putExtra(key, Integer.parseInt(cmdline.substring(valueStart, valueEnd)));
+        } catch (NumberFormatException e) {
+            addError(ERROR_INT, "Invalid integer extra: " + cmdline.substring(start, valueEnd));
+        }
+        finishPartialToken(valueEnd);
+    }
+
+    private void parseFloatExtra(int start) {
+        String key = nextArgument();
+        int valueStart = key == null ? -1 : nextArgumentStart();
+        int valueEnd = valueStart < 0 ? -1 : scanFloat(valueStart);
+        if (valueEnd < 0) {
+            // not a valid float, but may still be reported as an unsupported argument type
+            pos = start;
+            nextToken();
+            parseUnsupportedTypeExtra(start);
+            return;
+        }
+        try {
+            intent.putExtra(key, Float.parseFloat(cmdline.substring(valueStart, valueEnd)));
+        } catch (NumberFormatException e) {
+            addError(ERROR_FLOAT, "Invalid float extra: " + cmdline.substring(start, valueEnd));
+        }
+        finishPartialToken(valueEnd);
+    }
+
+    private void parseNumberListExtra(int start, String option) {
+        String key = nextArgument();
+        int valueStart = key == null ? -1 : nextArgumentStart();
+        int valueEnd = valueStart < 0 ? -1 : scanIntegerList(valueStart);
+        if (valueEnd < 0) {
+            addUnparsed(option);
+            if (key != null) addUnparsed(key);
+            return;
+        }
+
+        boolean isLong = "--ela".equals(option);
+        int count = 1;
+        for (int i = valueStart; i < valueEnd; i++) {
+            if (cmdline.charAt(i) == ',') count++;
+        }
+        int[] ints = isLong ? null : new int[count];
+        long[] longs = isLong ? new long[count] : null;
+        try {
+            int elementStart = valueStart;
+            for (int n = 0; n < count; n++) {
+                int elementEnd = cmdline.indexOf(',', elementStart);
+                if (elementEnd < 0 || elementEnd > valueEnd) elementEnd = valueEnd;
+                String element = cmdline.substring(elementStart, elementEnd);
+                if (isLong) longs[n] = Long.parseLong(element);
+                else ints[n] = Integer.parseInt(element);
+                elementStart = elementEnd + 1;
+            }
+            if (isLong) intent.putExtra(key, longs);
+            else intent.putExtra(key, ints);
+        } catch (NumberFormatException e) {
+            if (isLong)
+                addError(ERROR_LONG_LIST, "Invalid long array extra: " + cmdline.substring(start, valueEnd));
+            else
+                addError(ERROR_INT_LIST, "Invalid int array extra: " + cmdline.substring(start, valueEnd));
+        }
+        finishPartialToken(valueEnd);
+    }
+
+    private void parseAction(String option) {
+        // `-a *([^ ]+)`: the action may be attached to the option or follow it after spaces
+        if (option.length() > 2) {
+            intent.setAction(option.substring(2));
+            return;
+        }
+        String action = nextArgument();
+        if (action == null) {
+            addUnparsed(option);
+            return;
+        }
+        intent.setAction(action);
+    }
+
+    /** Returns true for `--eX` options of any extra type not supported by the parser, like `--el`. */
+    private static boolean isUnsupportedTypeOption(String option) {
+        return option.length() == 4 && option.startsWith("--e") && "izs".indexOf(option.charAt(3)) < 0;
+    }
+
+    /** Expects {@link #pos} to be right after the option token starting at start. */
+    private void parseUnsupportedTypeExtra(int start) {
+        String option = cmdline.substring(start, pos);
+        String key = nextArgument();
+        String value = key == null ? null : nextArgument();
+        if (value == null) {
+            addUnparsed(option);
+            if (key != null) addUnparsed(key);
+            return;
+        }
+        addError(ERROR_UNSUPPORTED_TYPE, "Unsupported argument type: " + cmdline.substring(start, pos));
+    }
+
+
+
+    /**
+     * Skip spaces at the current position.
+     *
+     * @return true if there is another token after the spaces.
+     */
+    private boolean skipSpaces() {
+        while (pos < length && cmdline.charAt(pos) == ' ') pos++;
+        return pos < length;
+    }
+
+    /** Returns the token at the current position, which is everything up to the next space. */
+    private String nextToken() {
+        int start = pos;
+        while (pos < length && cmdline.charAt(pos) != ' ') pos++;
+        return cmdline.substring(start, pos);
+    }
+
+    /**
+     * Returns the next space separated token, which must be preceded by at least one space, or
+     * {@code null} if there is none. The position is not changed if there is no token.
+     */
+    private String nextArgument() {
+        int start = nextArgumentStart();
+        if (start < 0) return null;
+        return nextToken();
+    }
+
+    /** Like {@link #nextArgument()}, but only moves to the start of the token and returns it. */
+    private int nextArgumentStart() {
+        if (pos >= length || cmdline.charAt(pos) != ' ') return -1;
+        int saved = pos;
+        if (!skipSpaces()) {
+            pos = saved;
+            return -1;
+        }
+        return pos;
+    }
+
+    /**
+     * The value patterns only have to match a prefix of a token, the rest of it is left unparsed,
+     * like it was by the regexes.
+     */
+    private void finishPartialToken(int valueEnd) {
+        pos = valueEnd;
+        if (pos < length && cmdline.charAt(pos) != ' ') {
+            addUnparsed(nextToken());
+        }
+    }
+
+    /** Scan `-?[0-9]+` and return its end, or -1 if it does not match at start. */
+    private int scanInteger(int start) {
+        int i = start;
+        if (i < length && cmdline.charAt(i) == '-') i++;
+        int digitsStart = i;
+        while (i < length && isDigit(cmdline.charAt(i))) i++;
+        return i == digitsStart ? -1 : i;
+    }
+
+    /** Scan `-?[0-9]+\.[0-9]+` and return its end, or -1 if it does not match at start. */
+    private int scanFloat(int start) {
+        int i = scanInteger(start);
+        if (i < 0 || i + 1 >= length || cmdline.charAt(i) != '.' || !isDigit(cmdline.charAt(i + 1)))
+            return -1;
+        i++;
+        while (i < length && isDigit(cmdline.charAt(i))) i++;
+        return i;
+    }
+
+    /** Scan `-?[0-9]+(,-?[0-9]+)*` and return its end, or -1 if it does not match at start. */
+    private int scanIntegerList(int start) {
+        int end = scanInteger(start);
+        if (end < 0) return -1;
+        while (end < length && cmdline.charAt(end) == ',') {
+            int next = scanInteger(end + 1);
+            if (next < 0) break;
+            end = next;
+        }
+        return end;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Split the string array value on commas not preceded by a backslash. Like
+     * {@link String#split(String)} trailing empty elements are removed.
+     */
+    private String[] splitStringList(int start, int end) {
+        ArrayList<String> list = new ArrayList<>();
+        int elementStart = start;
+        for (int i = start; i < end; i++) {
+            if (cmdline.charAt(i) == ',' && (i == start || cmdline.charAt(i - 1) != '\\')) {
+                list.add(unescape(elementStart, i, ',', true));
+                elementStart = i + 1;
+            }
+        }
+        if (list.isEmpty())
+            return new String[] { unescape(start, end, ',', true) };
+        list.add(unescape(elementStart, end, ',', true));
+
+        int size = list.size();
+        while (size > 0 && list.get(size - 1).isEmpty()) size--;
+        return list.subList(0, size).toArray(new String[0]);
+    }
+
+    /** Remove the backslash before the escaped character, from all occurrences or only the first one. */
+    private String unescape(int start, int end, char escaped, boolean firstOnly) {
+        int i = cmdline.indexOf('\\', start);
+        if (i < 0 || i >= end) return cmdline.substring(start, end);
+
+        StringBuilder sb = new StringBuilder(end - start);
+        int copied = start;
+        for (; i < end - 1; i++) {
+            if (cmdline.charAt(i) == '\\' && cmdline.charAt(i + 1) == escaped) {
+                sb.append(cmdline, copied, i);
+                copied = i + 1;
+                i++;
+                if (firstOnly) break;
+            }
+        }
+        sb.append(cmdline, copied, end);
+        return sb.toString();
+    }
+
+    private void addError(int type, String message) {
+        if (errors[type] == null) errors[type] = message;
+    }
+
+    private void addUnparsed(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            // same characters as the `\s` regex character class
+            if (c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') unparsed.append(c);
+        }
+    }
+
+}
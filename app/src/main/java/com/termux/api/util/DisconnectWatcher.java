@@ -0,0 +1,179 @@
+package com.termux.api.util;
+
+import android.os.CancellationSignal;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
+
+import com.termux.shared.logger.Logger;
+
+import java.io.FileDescriptor;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Watches the connections results are written to and cancels a {@link CancellationSignal} as soon
+ * as the client closes its side, like when the user presses Ctrl-C, so the API call can stop
+ * listeners and release hardware instead of running until its next write fails.
+ *
+ * A single long-lived thread polls all watched connections for `POLLHUP`, and sleeps in the poll
+ * of its wakeup socket while there are none. It polls duplicates of the file descriptors, so the
+ * connections may be closed while watched. Unread input or a client that only shut down its
+ * writing side don't count as closed.
+ *
+ * The wakeup socket is non-blocking and written outside the lock, at most once until the thread
+ * reads it, so a burst of calls can never block on it.
+ */
+public class DisconnectWatcher {
+
+    private static final Map<CancellationSignal, FileDescriptor> watched = new IdentityHashMap<>();
+    /** Duplicates of unwatched connections, only closed by the thread so it never polls a closed file descriptor. */
+    private static final List<FileDescriptor> closing = new ArrayList<>();
+    /** A socket pair written to wake up the thread when the watched connections change. */
+    private static FileDescriptor[] wakeupSockets;
+    /** Whether a wakeup was written that the thread has not read yet. */
+    private static final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private static Thread thread;
+
+    private static final String LOG_TAG = "DisconnectWatcher";
+
+    /**
+     * Cancel the signal when the client closes the connection, until {@link #unwatch(CancellationSignal)}
+     * is called. Does nothing if the file descriptor is {@code null}.
+     */
+    public static void watch(FileDescriptor fd, CancellationSignal signal) {
+        if (fd == null || !fd.valid()) return;
+        synchronized (DisconnectWatcher.class) {
+            try {
+                start();
+                watched.put(signal, Os.dup(fd));
+            } catch (ErrnoException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to watch connection", e);
+                return;
+            }
+        }
+        wakeup();
+    }
+
+    /** Stop watching the connection of the signal. */
+    public static void unwatch(CancellationSignal signal) {
+        synchronized (DisconnectWatcher.class) {
+            FileDescriptor fd = watched.remove(signal);
+            if (fd == null) return;
+            closing.add(fd);
+        }
+        wakeup();
+    }
+
+    /** Start the thread on first use, it then runs for the lifetime of the process. */
+    private static void start() throws ErrnoException {
+        if (thread != null) return;
+        FileDescriptor[] sockets = { new FileDescriptor(), new FileDescriptor() };
+        Os.socketpair(OsConstants.AF_UNIX, OsConstants.SOCK_STREAM | OsConstants.SOCK_NONBLOCK, 0, sockets[0], sockets[1]);
+        wakeupSockets = sockets;
+        thread = new Thread(DisconnectWatcher::run, LOG_TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void wakeup() {
+        if (!wakeupPending.compareAndSet(false, true)) return;
+        try {
+            Os.write(wakeupSockets[1], new byte[] { 0 }, 0, 1);
+        } catch (ErrnoException e) {
+            // a full socket wakes up the thread all the same
+            if (e.errno != OsConstants.EAGAIN)
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to wake up watcher", e);
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to wake up watcher", e);
+        }
+    }
+
+    /** Read all pending wakeups, so the next poll only returns for new ones. */
+    private static void drainWakeups(byte[] buffer) {
+        wakeupPending.set(false);
+        try {
+            while (Os.read(wakeupSockets[0], buffer, 0, buffer.length) > 0) {
+                // drained until EAGAIN
+            }
+        } catch (ErrnoException e) {
+            if (e.errno != OsConstants.EAGAIN)
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to read wakeups", e);
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to read wakeups", e);
+        }
+    }
+
+    private static void run() {
+        byte[] buffer = new byte[64];
+        while (true) {
+            StructPollfd[] fds;
+            synchronized (DisconnectWatcher.class) {
+                closeUnwatched();
+
+                fds = new StructPollfd[watched.size() + 1];
+                fds[0] = new StructPollfd();
+                fds[0].fd = wakeupSockets[0];
+                fds[0].events = (short) OsConstants.POLLIN;
+                int i = 1;
+                for (Map.Entry<CancellationSignal, FileDescriptor> entry : watched.entrySet()) {
+                    // no events, poll always reports hang up and errors
+                    fds[i] = new StructPollfd();
+                    fds[i].fd = entry.getValue();
+                    fds[i].userContext = entry.getKey();
+                    i++;
+                }
+            }
+
+            try {
+                Os.poll(fds, -1);
+            } catch (ErrnoException e) {
+                if (e.errno == OsConstants.EINTR) continue;
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to poll connections", e);
+                // don't spin if the error persists, and try again with the connections of then
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ignored) {}
+                continue;
+            }
+            if (fds[0].revents != 0) drainWakeups(buffer);
+
+            List<CancellationSignal> disconnected = new ArrayList<>();
+            synchronized (DisconnectWatcher.class) {
+                for (int i = 1; i < fds.length; i++) {
+                    if ((fds[i].revents & (OsConstants.POLLHUP | OsConstants.POLLERR | OsConstants.POLLNVAL)) == 0) continue;
+                    CancellationSignal signal = (CancellationSignal) fds[i].userContext;
+                    FileDescriptor fd = watched.remove(signal);
+                    if (fd == null) continue;
+                    closing.add(fd);
+                    disconnected.add(signal);
+                }
+            }
+
+            for (CancellationSignal signal : disconnected) {
+                Logger.logDebug(LOG_TAG, "Client closed the connection, cancelling");
+                try {
+                    signal.cancel();
+                } catch (Exception e) {
+                    Logger.logStackTraceWithMessage(LOG_TAG, "Error cancelling", e);
+                }
+            }
+        }
+    }
+
+    private static void closeUnwatched() {
+        for (FileDescriptor fd : closing) {
+            try {
+                Os.close(fd);
+            } catch (ErrnoException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to close connection", e);
+            }
+        }
+        closing.clear();
+    }
+
+}
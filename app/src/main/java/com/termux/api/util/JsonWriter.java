@@ -0,0 +1,504 @@
+package com.termux.api.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A replacement for {@link android.util.JsonWriter} with the same methods, which encodes straight
+ * to UTF-8 bytes in a buffer that is reused between results, instead of going through a
+ * {@link java.io.Writer}.
+ *
+ * It has five modes, selected by the client with the {@link #JSON_MODE_EXTRA} extra:
+ * - {@link #MODE_PRETTY}: indented like the output of {@link android.util.JsonWriter} with an
+ *   indent of two spaces, the default.
+ * - {@link #MODE_COMPACT}: without any whitespace.
+ * - {@link #MODE_NDJSON}: newline delimited JSON, where every element of a top level array is
+ *   written as a compact line of its own and flushed to the client right away, so big results can
+ *   be processed as a stream, like with `jq --stream` or `jq -c`.
+ * - {@link #MODE_CBOR} and {@link #MODE_MSGPACK}: the same values encoded as CBOR or MessagePack
+ *   by a {@link BinaryJsonWriter}, which is faster and smaller, mostly for numbers. Use
+ *   {@link #create(OutputStream, String)} to get a writer for any mode.
+ *
+ * Unlike {@link android.util.JsonWriter}, more than one top level value may be written, each on a
+ * line of its own.
+ */
+public class JsonWriter implements Closeable, Flushable {
+
+    /** An extra intent parameter which specifies the mode JSON results are written in. */
+    public static final String JSON_MODE_EXTRA = "json_mode";
+
+    public static final String MODE_PRETTY = "pretty";
+    public static final String MODE_COMPACT = "compact";
+    public static final String MODE_NDJSON = "ndjson";
+    public static final String MODE_CBOR = "cbor";
+    public static final String MODE_MSGPACK = "msgpack";
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+    /** A top level array in {@link #MODE_NDJSON}, whose elements are written as lines. */
+    private static final int NDJSON_ARRAY = 7;
+
+    private static final int BUFFER_SIZE = 8192;
+    /** Buffers of closed writers, kept for the next ones. */
+    private static final ArrayBlockingQueue<byte[]> bufferPool = new ArrayBlockingQueue<>(8);
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    /** The escape sequences of the ASCII characters that need one. */
+    private static final String[] ASCII_REPLACEMENTS = new String[128];
+    static {
+        for (int i = 0; i < 0x20; i++) {
+            ASCII_REPLACEMENTS[i] = String.format("\\u%04x", i);
+        }
+        ASCII_REPLACEMENTS['"'] = "\\\"";
+        ASCII_REPLACEMENTS['\\'] = "\\\\";
+        ASCII_REPLACEMENTS['\t'] = "\\t";
+        ASCII_REPLACEMENTS['\b'] = "\\b";
+        ASCII_REPLACEMENTS['\n'] = "\\n";
+        ASCII_REPLACEMENTS['\r'] = "\\r";
+        ASCII_REPLACEMENTS['\f'] = "\\f";
+    }
+
+    private final OutputStream out;
+    private final boolean ndjson;
+    byte[] buffer;
+    int count;
+
+    private int[] stack = new int[32];
+    private int stackSize = 0;
+
+    private byte[] indent;
+    private boolean lenient;
+    private boolean flushLines = true;
+    private boolean closed;
+
+    public JsonWriter(OutputStream out) {
+        this(out, MODE_COMPACT);
+    }
+
+    /**
+     * @param mode One of {@link #MODE_PRETTY}, {@link #MODE_COMPACT} or {@link #MODE_NDJSON}.
+     */
+    public JsonWriter(OutputStream out, String mode) {
+        if (out == null) throw new NullPointerException("out == null");
+        this.out = out;
+        this.ndjson = MODE_NDJSON.equals(mode);
+        if (MODE_PRETTY.equals(mode)) setIndent("  ");
+        buffer = bufferPool.poll();
+        if (buffer == null) buffer = new byte[BUFFER_SIZE];
+        push(EMPTY_DOCUMENT);
+    }
+
+    /** Create a writer for any of the modes, including the binary ones. */
+    public static JsonWriter create(OutputStream out, String mode) {
+        if (MODE_CBOR.equals(mode)) return new CborWriter(out);
+        if (MODE_MSGPACK.equals(mode)) return new MessagePackWriter(out);
+        return new JsonWriter(out, mode);
+    }
+
+    /** Check whether a mode from the {@link #JSON_MODE_EXTRA} extra is valid. */
+    public static boolean isValidMode(String mode) {
+        return MODE_PRETTY.equals(mode) || MODE_COMPACT.equals(mode) || MODE_NDJSON.equals(mode)
+                || MODE_CBOR.equals(mode) || MODE_MSGPACK.equals(mode);
+    }
+
+    /** Check whether a mode writes a binary encoding instead of JSON text. */
+    public static boolean isBinaryMode(String mode) {
+        return MODE_CBOR.equals(mode) || MODE_MSGPACK.equals(mode);
+    }
+
+    /**
+     * Set the indent of nested values, or no whitespace at all if it is {@code null} or empty.
+     * Ignored in {@link #MODE_NDJSON}.
+     */
+    public void setIndent(String indent) {
+        if (ndjson || indent == null || indent.isEmpty()) {
+            this.indent = null;
+        } else {
+            this.indent = indent.getBytes();
+        }
+    }
+
+    /**
+     * Allow NaN and infinite numbers, which are not valid JSON.
+     */
+    public void setLenient(boolean lenient) {
+        this.lenient = lenient;
+    }
+
+    public boolean isLenient() {
+        return lenient;
+    }
+
+    /**
+     * Set whether every line of {@link #MODE_NDJSON} is flushed to the client right away, the
+     * default, or only when the buffer is full or {@link #flush()} is called, for writers that
+     * write lines in batches.
+     */
+    public void setFlushLines(boolean flushLines) {
+        this.flushLines = flushLines;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        if (ndjson && peek() == EMPTY_DOCUMENT) {
+            // the elements of the array are the lines of the document
+            replaceTop(NONEMPTY_DOCUMENT);
+            push(NDJSON_ARRAY);
+            return this;
+        }
+        beforeValue();
+        push(EMPTY_ARRAY);
+        writeByte('[');
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        if (peek() == NDJSON_ARRAY) {
+            stackSize--;
+            return this;
+        }
+        return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        writeByte('{');
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+    }
+
+    private JsonWriter close(int empty, int nonempty, char closeBracket) throws IOException {
+        int context = peek();
+        if (context != nonempty && context != empty) {
+            throw new IllegalStateException("Nesting problem");
+        }
+        stackSize--;
+        if (context == nonempty) newline();
+        writeByte(closeBracket);
+        afterValue();
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        if (name == null) throw new NullPointerException("name == null");
+        int context = peek();
+        if (context == NONEMPTY_OBJECT) {
+            writeByte(',');
+        } else if (context != EMPTY_OBJECT) {
+            throw new IllegalStateException("Nesting problem");
+        }
+        newline();
+        replaceTop(DANGLING_NAME);
+        string(name);
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) return nullValue();
+        beforeValue();
+        string(value);
+        afterValue();
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        writeAscii("null");
+        afterValue();
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        writeAscii(value ? "true" : "false");
+        afterValue();
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        if (!lenient && (Double.isNaN(value) || Double.isInfinite(value))) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue();
+        writeAscii(Double.toString(value));
+        afterValue();
+        return this;
+    }
+
+    /**
+     * Write a float with the shortest digits that identify it, instead of those of the double it
+     * widens to with {@link #value(double)}, like `0.1` instead of `0.10000000149011612`.
+     */
+    public JsonWriter floatValue(float value) throws IOException {
+        if (!lenient && (Float.isNaN(value) || Float.isInfinite(value))) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue();
+        writeAscii(Float.toString(value));
+        afterValue();
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        writeLong(value);
+        afterValue();
+        return this;
+    }
+
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null) return nullValue();
+        String string = value.toString();
+        if (!lenient && (string.equals("-Infinity") || string.equals("Infinity") || string.equals("NaN"))) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue();
+        writeAscii(string);
+        afterValue();
+        return this;
+    }
+
+    /**
+     * Write a value that is already encoded as compact JSON, like the result of another API call,
+     * without parsing it. The value must be valid JSON.
+     */
+    public JsonWriter jsonValue(String json) throws IOException {
+        if (json == null) return nullValue();
+        beforeValue();
+        int length = json.length();
+        for (int i = 0; i < length; i++) {
+            char c = json.charAt(i);
+            if (c < 0x80) {
+                writeByte(c);
+            } else {
+                // only strings contain other characters, which are encoded the same way there
+                byte[] b = json.substring(i).getBytes(StandardCharsets.UTF_8);
+                writeBytes(b);
+                break;
+            }
+        }
+        afterValue();
+        return this;
+    }
+
+    /** Write the buffered output to the stream and flush it. */
+    @Override
+    public void flush() throws IOException {
+        if (canFlush()) flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Flush the output and give the buffer back for the next writer, without closing the stream.
+     */
+    public void finish() throws IOException {
+        if (buffer == null) return;
+        try {
+            flush();
+        } finally {
+            // buffers grown for a big value are not kept
+            if (buffer.length == BUFFER_SIZE) bufferPool.offer(buffer);
+            buffer = null;
+        }
+    }
+
+    /** Flush the output and close the stream. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private int peek() {
+        if (stackSize == 0) throw new IllegalStateException("JsonWriter is closed");
+        return stack[stackSize - 1];
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) stack = Arrays.copyOf(stack, stackSize * 2);
+        stack[stackSize++] = scope;
+    }
+
+    private void replaceTop(int scope) {
+        stack[stackSize - 1] = scope;
+    }
+
+    private void beforeValue() throws IOException {
+        switch (peek()) {
+            case EMPTY_DOCUMENT:
+                replaceTop(NONEMPTY_DOCUMENT);
+                break;
+            case NONEMPTY_DOCUMENT:
+                // lines of NDJSON already end with a newline
+                if (!ndjson) writeByte('\n');
+                break;
+            case NDJSON_ARRAY:
+                break;
+            case EMPTY_ARRAY:
+                replaceTop(NONEMPTY_ARRAY);
+                newline();
+                break;
+            case NONEMPTY_ARRAY:
+                writeByte(',');
+                newline();
+                break;
+            case DANGLING_NAME:
+                writeByte(':');
+                if (indent != null) writeByte(' ');
+                replaceTop(NONEMPTY_OBJECT);
+                break;
+            default:
+                throw new IllegalStateException("Nesting problem");
+        }
+    }
+
+    /** End the line of an NDJSON value once it is complete. */
+    private void afterValue() throws IOException {
+        if (!ndjson) return;
+        int context = peek();
+        if (context == NDJSON_ARRAY || context == NONEMPTY_DOCUMENT) {
+            writeByte('\n');
+            if (flushLines) flush();
+        }
+    }
+
+    private void newline() throws IOException {
+        if (indent == null) return;
+        writeByte('\n');
+        for (int i = 1; i < stackSize; i++) {
+            writeBytes(indent);
+        }
+    }
+
+    private void string(String value) throws IOException {
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                String replacement = ASCII_REPLACEMENTS[c];
+                if (replacement == null) {
+                    writeByte(c);
+                } else {
+                    writeAscii(replacement);
+                }
+            } else if (c < 0x800) {
+                ensureCapacity(2);
+                buffer[count++] = (byte) (0xC0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c == '\u2028' || c == '\u2029') {
+                // valid in JSON strings, but not in JavaScript ones
+                ensureCapacity(6);
+                buffer[count++] = '\\';
+                buffer[count++] = 'u';
+                buffer[count++] = HEX[c >> 12];
+                buffer[count++] = HEX[(c >> 8) & 0xF];
+                buffer[count++] = HEX[(c >> 4) & 0xF];
+                buffer[count++] = HEX[c & 0xF];
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensureCapacity(4);
+                buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // an unpaired surrogate can't be encoded, replace it like String.getBytes() does
+                writeByte('?');
+            } else {
+                ensureCapacity(3);
+                buffer[count++] = (byte) (0xE0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int start = count;
+        do {
+            buffer[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        // the digits were written in reverse
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+    }
+
+    void writeByte(int b) throws IOException {
+        ensureCapacity(1);
+        buffer[count++] = (byte) b;
+    }
+
+    private void writeAscii(String s) throws IOException {
+        int length = s.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    void writeBytes(byte[] b) throws IOException {
+        ensureCapacity(b.length);
+        System.arraycopy(b, 0, buffer, count, b.length);
+        count += b.length;
+    }
+
+    void ensureCapacity(int length) throws IOException {
+        if (buffer == null) throw new IOException("JsonWriter is closed");
+        if (count + length > buffer.length) {
+            if (canFlush()) flushBuffer();
+            if (count + length > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(count + length, buffer.length * 2));
+        }
+    }
+
+    /**
+     * Whether the buffer may be written to the stream now. Subclasses that still change written
+     * bytes keep them in the buffer, which grows instead.
+     */
+    boolean canFlush() {
+        return true;
+    }
+
+    void flushBuffer() throws IOException {
+        if (buffer == null) throw new IOException("JsonWriter is closed");
+        if (count == 0) return;
+        out.write(buffer, 0, count);
+        count = 0;
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.termux.api.util;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations in microseconds, with buckets like the ones of an HDR
+ * histogram: every power of two range is split into {@link #SUB_BUCKETS} linear buckets, so
+ * percentiles are accurate to about 6% from a microsecond up to days.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Values are capped to 2^40 us, about 12 days. */
+    private static final int MAX_VALUE_BITS = 40;
+    private static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    public void record(long micros) {
+        if (micros < 0) micros = 0;
+        micros = Math.min(micros, (1L << MAX_VALUE_BITS) - 1);
+        buckets.incrementAndGet(bucketIndex(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long currentMax;
+        while (micros > (currentMax = max.get()) && !max.compareAndSet(currentMax, micros));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) buckets.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Get the value at or below which the given fraction of the recorded values lie, rounded up
+     * to the upper bound of its bucket.
+     */
+    public long getPercentile(double fraction) {
+        long total = count.get();
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) return Math.min(bucketUpperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /** Write the histogram as a JSON object with durations in milliseconds. */
+    public void writeJson(JsonWriter out) throws IOException {
+        long total = count.get();
+        out.beginObject();
+        out.name("count").value(total);
+        out.name("mean_ms").value(total == 0 ? 0 : sum.get() / (double) total / 1000);
+        out.name("p50_ms").value(getPercentile(0.5) / 1000.0);
+        out.name("p90_ms").value(getPercentile(0.9) / 1000.0);
+        out.name("p99_ms").value(getPercentile(0.99) / 1000.0);
+        out.name("max_ms").value(max.get() / 1000.0);
+        out.endObject();
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        // the top bit is always set, the next SUB_BUCKET_BITS bits select the linear bucket
+        int subBucket = (int) (value >> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+}
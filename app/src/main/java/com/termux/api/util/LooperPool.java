@@ -0,0 +1,58 @@
+package com.termux.api.util;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of long-lived {@link HandlerThread}s that API methods borrow to receive framework
+ * callbacks, like location updates or camera state changes, instead of preparing a
+ * {@link android.os.Looper} on the thread of every call and blocking it in the loop.
+ *
+ * The callbacks share the threads, so they must never block. They complete a
+ * {@link CompletableFuture} that the thread writing the result waits for.
+ */
+public class LooperPool {
+
+    private static final int THREADS = 2;
+
+    private static final Handler[] handlers = new Handler[THREADS];
+    private static final AtomicInteger nextHandler = new AtomicInteger();
+
+    private static final String LOG_TAG = "LooperPool";
+
+    /** Get the handler of one of the threads, starting it if it isn't running yet. */
+    public static Handler getHandler() {
+        return getHandler((nextHandler.getAndIncrement() & Integer.MAX_VALUE) % THREADS);
+    }
+
+    private static Handler getHandler(int index) {
+        synchronized (handlers) {
+            if (handlers[index] == null) {
+                HandlerThread thread = new HandlerThread(LOG_TAG + "-" + (index + 1));
+                thread.start();
+                handlers[index] = new Handler(thread.getLooper());
+            }
+            return handlers[index];
+        }
+    }
+
+    /** Start all threads now instead of on first use, for warm mode. */
+    public static void startThreads() {
+        for (int i = 0; i < THREADS; i++) getHandler(i);
+    }
+
+    /**
+     * Complete the future with a {@link TimeoutException} if it is not done after the delay. The
+     * timeout is removed from the handler once the future completes.
+     */
+    public static void scheduleTimeout(final Handler handler, final CompletableFuture<?> future, long delayMillis) {
+        final Runnable timeout = () -> future.completeExceptionally(new TimeoutException("Timed out after " + delayMillis + "ms"));
+        handler.postDelayed(timeout, delayMillis);
+        future.whenComplete((result, throwable) -> handler.removeCallbacks(timeout));
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.termux.api.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes results as MessagePack for the {@link JsonWriter#MODE_MSGPACK} mode.
+ *
+ * MessagePack has no arrays or maps of unknown length, so a top level value is kept in the buffer
+ * until it is complete. Every container is started with room for the longest header, which is
+ * replaced by the shortest one for its size when it ends, moving its elements back. Integers and
+ * strings use the shortest encoding.
+ */
+class MessagePackWriter extends BinaryJsonWriter {
+
+    private static final int NIL = 0xC0;
+    private static final int FALSE = 0xC2;
+    private static final int TRUE = 0xC3;
+    private static final int FLOAT32 = 0xCA;
+    private static final int FLOAT64 = 0xCB;
+    private static final int UINT8 = 0xCC;
+    private static final int UINT16 = 0xCD;
+    private static final int UINT32 = 0xCE;
+    private static final int UINT64 = 0xCF;
+    private static final int INT8 = 0xD0;
+    private static final int INT16 = 0xD1;
+    private static final int INT32 = 0xD2;
+    private static final int INT64 = 0xD3;
+    private static final int FIXSTR = 0xA0;
+    private static final int STR8 = 0xD9;
+    private static final int STR16 = 0xDA;
+    private static final int STR32 = 0xDB;
+    private static final int FIXARRAY = 0x90;
+    private static final int ARRAY16 = 0xDC;
+    private static final int ARRAY32 = 0xDD;
+    private static final int FIXMAP = 0x80;
+    private static final int MAP16 = 0xDE;
+    private static final int MAP32 = 0xDF;
+
+    /** The length of the header reserved for every container. */
+    private static final int RESERVED_HEADER_LENGTH = 5;
+
+    MessagePackWriter(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    boolean canFlush() {
+        // the headers of open containers are still written
+        return isTopLevel();
+    }
+
+    @Override
+    void encodeArrayStart() throws IOException {
+        ensureCapacity(RESERVED_HEADER_LENGTH);
+        count += RESERVED_HEADER_LENGTH;
+    }
+
+    @Override
+    void encodeArrayEnd(int start, int size) {
+        writeContainerHeader(start, size, FIXARRAY, ARRAY16, ARRAY32);
+    }
+
+    @Override
+    void encodeMapStart() throws IOException {
+        ensureCapacity(RESERVED_HEADER_LENGTH);
+        count += RESERVED_HEADER_LENGTH;
+    }
+
+    @Override
+    void encodeMapEnd(int start, int size) {
+        writeContainerHeader(start, size, FIXMAP, MAP16, MAP32);
+    }
+
+    /** Replace the reserved header at the start with the shortest one for the size. */
+    private void writeContainerHeader(int start, int size, int fixType, int type16, int type32) {
+        int headerLength = size < 16 ? 1 : size <= 0xFFFF ? 3 : RESERVED_HEADER_LENGTH;
+        if (headerLength < RESERVED_HEADER_LENGTH) {
+            int elementsStart = start + RESERVED_HEADER_LENGTH;
+            System.arraycopy(buffer, elementsStart, buffer, start + headerLength, count - elementsStart);
+            count -= RESERVED_HEADER_LENGTH - headerLength;
+        }
+
+        if (headerLength == 1) {
+            buffer[start] = (byte) (fixType | size);
+        } else if (headerLength == 3) {
+            buffer[start] = (byte) type16;
+            putInteger(start + 1, size, 2);
+        } else {
+            buffer[start] = (byte) type32;
+            putInteger(start + 1, size, 4);
+        }
+    }
+
+    @Override
+    void encodeString(String value) throws IOException {
+        int length = utf8Length(value);
+        if (length < 32) {
+            writeTyped(FIXSTR | length, 0, 0);
+        } else if (length <= 0xFF) {
+            writeTyped(STR8, length, 1);
+        } else if (length <= 0xFFFF) {
+            writeTyped(STR16, length, 2);
+        } else {
+            writeTyped(STR32, length, 4);
+        }
+        ensureCapacity(length);
+        writeUtf8(value);
+    }
+
+    @Override
+    void encodeNull() throws IOException {
+        writeByte(NIL);
+    }
+
+    @Override
+    void encodeBoolean(boolean value) throws IOException {
+        writeByte(value ? TRUE : FALSE);
+    }
+
+    @Override
+    void encodeLong(long value) throws IOException {
+        if (value >= 0) {
+            if (value < 128) {
+                // positive fixint
+                writeByte((int) value);
+            } else if (value <= 0xFF) {
+                writeTyped(UINT8, value, 1);
+            } else if (value <= 0xFFFF) {
+                writeTyped(UINT16, value, 2);
+            } else if (value <= 0xFFFFFFFFL) {
+                writeTyped(UINT32, value, 4);
+            } else {
+                writeTyped(UINT64, value, 8);
+            }
+        } else if (value >= -32) {
+            // negative fixint
+            writeByte((int) value & 0xFF);
+        } else if (value >= Byte.MIN_VALUE) {
+            writeTyped(INT8, value, 1);
+        } else if (value >= Short.MIN_VALUE) {
+            writeTyped(INT16, value, 2);
+        } else if (value >= Integer.MIN_VALUE) {
+            writeTyped(INT32, value, 4);
+        } else {
+            writeTyped(INT64, value, 8);
+        }
+    }
+
+    @Override
+    void encodeDouble(double value) throws IOException {
+        float f = (float) value;
+        if (f == value || Double.isNaN(value)) {
+            writeTyped(FLOAT32, Float.floatToIntBits(f), 4);
+        } else {
+            writeTyped(FLOAT64, Double.doubleToLongBits(value), 8);
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+package com.termux.api.util;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.termux.api.ApiScheduler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of the results of API methods that return a snapshot of some state and have no side
+ * effects, keyed by the API method, action and extras of the request.
+ *
+ * - Identical requests whose results are written at the same time share one execution of the
+ *   {@link ResultReturner.ResultWriter}, the later ones wait for the result of the first one.
+ * - A request with the {@link #MAX_AGE_EXTRA} extra is answered with the last result of an
+ *   identical request if it is at most that old, without running its handler at all.
+ *
+ * The results are kept as the bytes sent to the client. Every execution of a writer counts as a
+ * miss, even if the request had no {@link #MAX_AGE_EXTRA} extra.
+ */
+public class ResultCache {
+
+    /** An extra intent parameter with the age in milliseconds up to which a cached result may be returned. */
+    public static final String MAX_AGE_EXTRA = "max_age_ms";
+
+    /**
+     * API methods whose results may be cached. The `Sensor` method is only cached for the `list`
+     * action. Their cases in {@link com.termux.api.TermuxApiReceiver} look up cached results after
+     * their permission checks.
+     */
+    private static final Set<String> CACHEABLE_API_METHODS = new HashSet<>(Arrays.asList(
+            "AudioInfo",
+            "BatteryStatus",
+            "CameraInfo",
+            "InfraredFrequencies",
+            "Sensor",
+            "TelephonyDeviceInfo",
+            "WifiConnectionInfo"
+    ));
+
+    /** Extras that don't change the result, like the sockets it is sent to. */
+    private static final Set<String> IGNORED_EXTRAS = new HashSet<>(Arrays.asList(
+            "socket_input",
+            "socket_output",
+            "result_channel",
+            ApiMetrics.EXTRA_RECEIVED_TIME,
+            ApiMetrics.EXTRA_DISPATCH_TIME,
+            ApiScheduler.TICKET_EXTRA,
+            MAX_AGE_EXTRA
+    ));
+
+    private static final int MAX_ENTRIES = 64;
+
+    private static class Entry {
+        final byte[] result;
+        final long time;
+
+        Entry(byte[] result, long time) {
+            this.result = result;
+            this.time = time;
+        }
+    }
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private static final Map<String, FutureTask<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong coalesced = new AtomicLong();
+
+    private static final String LOG_TAG = "ResultCache";
+
+    /** Writes a cached result. */
+    private static class CachedResultWriter extends ResultReturner.BinaryOutput {
+        private final byte[] result;
+
+        CachedResultWriter(byte[] result) {
+            this.result = result;
+        }
+
+        @Override
+        public void writeResult(OutputStream out) throws Exception {
+            out.write(result);
+        }
+    }
+
+    /**
+     * Get the key of the result of the request written by the writer.
+     *
+     * @return {@code null} if the result may not be cached.
+     */
+    public static String getCacheKey(Intent intent, ResultReturner.ResultWriter resultWriter) {
+        if (resultWriter instanceof CachedResultWriter || resultWriter instanceof ResultReturner.WithInput
+                || resultWriter instanceof ResultReturner.WithAncillaryFd) return null;
+        return getCacheKey(intent);
+    }
+
+    private static String getCacheKey(Intent intent) {
+        String apiMethod = intent.getStringExtra("api_method");
+        if (apiMethod == null || !CACHEABLE_API_METHODS.contains(apiMethod)) return null;
+        if ("Sensor".equals(apiMethod) && !"list".equals(intent.getAction())) return null;
+
+        StringBuilder key = new StringBuilder(apiMethod).append('|').append(intent.getAction());
+        Bundle extras = intent.getExtras();
+        if (extras != null) {
+            for (String name : new TreeSet<>(extras.keySet())) {
+                if (IGNORED_EXTRAS.contains(name)) continue;
+                key.append('|').append(name).append('=');
+                appendValue(key, extras.get(name));
+            }
+        }
+        return key.toString();
+    }
+
+    private static void appendValue(StringBuilder key, Object value) {
+        if (value != null && value.getClass().isArray()) {
+            key.append('[');
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) key.append(',');
+                appendValue(key, Array.get(value, i));
+            }
+            key.append(']');
+        } else {
+            key.append(value);
+        }
+    }
+
+    /**
+     * Get a writer for the cached result of the request, if it is at most as old as the
+     * {@link #MAX_AGE_EXTRA} extra allows.
+     *
+     * @return {@code null} if there is none.
+     */
+    public static ResultReturner.ResultWriter getCachedResultWriter(Intent intent) {
+        int maxAge = intent.getIntExtra(MAX_AGE_EXTRA, 0);
+        if (maxAge <= 0) return null;
+        String key = getCacheKey(intent);
+        if (key == null) return null;
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null || SystemClock.elapsedRealtime() - entry.time > maxAge) return null;
+        hits.incrementAndGet();
+        return new CachedResultWriter(entry.result);
+    }
+
+    /**
+     * Get the result of the writer, from the execution of an identical request that is still
+     * running if there is one, otherwise by running the writer and caching the result.
+     */
+    public static byte[] getResult(String key, ResultReturner.ResultWriter resultWriter) throws Exception {
+        FutureTask<byte[]> task = new FutureTask<>(() -> {
+            byte[] result = render(resultWriter);
+            synchronized (entries) {
+                entries.put(key, new Entry(result, SystemClock.elapsedRealtime()));
+            }
+            return result;
+        });
+        FutureTask<byte[]> runningTask = inFlight.putIfAbsent(key, task);
+        if (runningTask != null) {
+            coalesced.incrementAndGet();
+            AsyncLogger.logDebug(LOG_TAG, "Waiting for the result of an identical request");
+            task = runningTask;
+        } else {
+            misses.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key);
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    private static byte[] render(ResultReturner.ResultWriter resultWriter) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintWriter writer = new PrintWriter(out);
+        if (resultWriter instanceof ResultReturner.BinaryOutput) {
+            ((ResultReturner.BinaryOutput) resultWriter).setOutput(out);
+        }
+        resultWriter.writeResult(writer);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    /** Write the counters of the cache as a JSON object. */
+    public static void writeStats(JsonWriter out) throws IOException {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        out.beginObject();
+        out.name("entries").value(size);
+        out.name("hits").value(hits.get());
+        out.name("misses").value(misses.get());
+        out.name("coalesced").value(coalesced.get());
+        out.endObject();
+    }
+
+    public static void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        coalesced.set(0);
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.termux.api.util;
+
+import android.content.Intent;
+import android.os.Looper;
+
+import com.termux.api.TermuxAPIProperties;
+import com.termux.shared.logger.Logger;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The threads {@link ResultReturner#returnData(Object, Intent, ResultReturner.ResultWriter)} runs
+ * API calls on, instead of starting a new thread for every call.
+ *
+ * There are two bounded pools:
+ * - The quick pool, with a few threads and a queue, for calls that return a snapshot of some state
+ *   and finish in milliseconds.
+ * - The blocking pool, without a queue, for calls that wait for the user, the hardware or input,
+ *   like `Location`, `Sensor` or `SpeechToText`, so they can't hold up the quick calls.
+ *
+ * What happens to a call when its pool is full is set with {@link TermuxAPIProperties#KEY_RESULT_EXECUTOR_ADMISSION}.
+ */
+public class ResultExecutor {
+
+    /** API methods whose calls may block for a long time. */
+    private static final Set<String> BLOCKING_API_METHODS = new HashSet<>(Arrays.asList(
+            "Batch",
+            "Benchmark",
+            "CameraPhoto",
+            "Dialog",
+            "Fingerprint",
+            "Location",
+            "MediaScanner",
+            "Nfc",
+            "SAF",
+            "Sensor",
+            "SpeechToText",
+            "TextToSpeech",
+            "Usb"
+    ));
+
+    /** Run calls that don't fit into their pool on a new thread, like before there were pools. */
+    public static final String ADMISSION_NEW_THREAD = "new-thread";
+    /**
+     * Run calls that don't fit into their pool on the thread of the caller, or reject them if that
+     * is the main thread, like for broadcasts, which must not block on sockets or handlers.
+     */
+    public static final String ADMISSION_CALLER_RUNS = "caller-runs";
+    /** Fail calls that don't fit into their pool. */
+    public static final String ADMISSION_REJECT = "reject";
+
+    private static final int DEFAULT_QUICK_THREADS = 4;
+    private static final int DEFAULT_QUICK_QUEUE_SIZE = 64;
+    private static final int DEFAULT_BLOCKING_THREADS = 32;
+
+    private static Pool quickPool;
+    private static Pool blockingPool;
+    private static String admission;
+
+    private static final String LOG_TAG = "ResultExecutor";
+
+    /**
+     * Run the call of an API method.
+     *
+     * @param blocking Whether the call may block regardless of its API method, like calls reading input.
+     * @param rejected Run instead of the call if it is rejected.
+     */
+    public static void execute(Intent intent, boolean blocking, Runnable runnable, Runnable rejected) {
+        init();
+
+        String apiMethod = intent.getStringExtra("api_method");
+        Pool pool = blocking || isBlocking(apiMethod) ? blockingPool : quickPool;
+        try {
+            pool.executor.execute(runnable);
+            return;
+        } catch (RejectedExecutionException e) {
+            pool.rejected.incrementAndGet();
+        }
+
+        switch (admission) {
+            case ADMISSION_CALLER_RUNS:
+                if (Looper.myLooper() == Looper.getMainLooper()) {
+                    AsyncLogger.logError(LOG_TAG, "The %s pool is full, rejecting %s received on the main thread", pool.name, apiMethod);
+                    rejected.run();
+                    break;
+                }
+                AsyncLogger.logDebug(LOG_TAG, "The %s pool is full, running %s on the calling thread", pool.name, apiMethod);
+                runnable.run();
+                break;
+            case ADMISSION_REJECT:
+                AsyncLogger.logError(LOG_TAG, "The %s pool is full, rejecting %s", pool.name, apiMethod);
+                rejected.run();
+                break;
+            default:
+                AsyncLogger.logDebug(LOG_TAG, "The %s pool is full, running %s on a new thread", pool.name, apiMethod);
+                new Thread(runnable).start();
+        }
+    }
+
+    /** Whether calls of the API method may block for a long time. */
+    public static boolean isBlocking(String apiMethod) {
+        return BLOCKING_API_METHODS.contains(apiMethod);
+    }
+
+    private static synchronized void init() {
+        if (quickPool != null) return;
+
+        int quickThreads = TermuxAPIProperties.getInt(TermuxAPIProperties.KEY_RESULT_EXECUTOR_QUICK_THREADS, DEFAULT_QUICK_THREADS, 1, 64);
+        int quickQueueSize = TermuxAPIProperties.getInt(TermuxAPIProperties.KEY_RESULT_EXECUTOR_QUICK_QUEUE_SIZE, DEFAULT_QUICK_QUEUE_SIZE, 1, 4096);
+        int blockingThreads = TermuxAPIProperties.getInt(TermuxAPIProperties.KEY_RESULT_EXECUTOR_BLOCKING_THREADS, DEFAULT_BLOCKING_THREADS, 1, 1024);
+        admission = TermuxAPIProperties.getString(TermuxAPIProperties.KEY_RESULT_EXECUTOR_ADMISSION, ADMISSION_NEW_THREAD,
+                ADMISSION_NEW_THREAD, ADMISSION_CALLER_RUNS, ADMISSION_REJECT);
+
+        quickPool = new Pool("quick", quickThreads, new ArrayBlockingQueue<>(quickQueueSize));
+        // a blocking call waiting in a queue could wait for as long as the calls before it run, so hand it to a thread or reject it
+        blockingPool = new Pool("blocking", blockingThreads, new SynchronousQueue<>());
+        Logger.logDebug(LOG_TAG, "Starting with " + quickThreads + " quick threads, quick queue size " + quickQueueSize
+                + ", " + blockingThreads + " blocking threads and admission " + admission);
+    }
+
+    /**
+     * Write the counters of the pools as a JSON object with an object for each pool.
+     */
+    public static void writeStats(JsonWriter out) throws IOException {
+        init();
+
+        out.beginObject();
+        quickPool.writeStats(out);
+        blockingPool.writeStats(out);
+        out.endObject();
+    }
+
+    private static class Pool {
+        final String name;
+        final ThreadPoolExecutor executor;
+        final AtomicLong rejected = new AtomicLong();
+
+        Pool(String name, int threads, BlockingQueue<Runnable> queue) {
+            this.name = name;
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, queue,
+                    r -> new Thread(r, LOG_TAG + "-" + name + "-" + threadCount.incrementAndGet()));
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        void writeStats(JsonWriter out) throws IOException {
+            out.name(name).beginObject();
+            out.name("threads").value(executor.getMaximumPoolSize());
+            out.name("active").value(executor.getActiveCount());
+            out.name("largest").value(executor.getLargestPoolSize());
+            out.name("queued").value(executor.getQueue().size());
+            out.name("completed").value(executor.getCompletedTaskCount());
+            out.name("rejected").value(rejected.get());
+            out.endObject();
+        }
+    }
+
+}
@@ -9,20 +9,34 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.LocalSocket;
 import android.net.LocalSocketAddress;
+import android.os.CancellationSignal;
 import android.os.ParcelFileDescriptor;
-import android.util.JsonWriter;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 
+import androidx.annotation.Nullable;
+
+import com.termux.api.ApiScheduler;
+import com.termux.api.LongOperationService;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxConstants;
 import com.termux.shared.termux.plugins.TermuxPluginUtils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class ResultReturner {
 
@@ -35,7 +49,7 @@ public abstract class ResultReturner {
      * An extra intent parameter which specifies a linux abstract namespace socket address where output from the API
      * call should be written.
      */
-    private static final String SOCKET_OUTPUT_EXTRA = "socket_output";
+    public static final String SOCKET_OUTPUT_EXTRA = "socket_output";
 
     /**
      * An extra intent parameter which specifies a linux abstract namespace socket address where input to the API call
@@ -43,10 +57,133 @@ public abstract class ResultReturner {
      */
     private static final String SOCKET_INPUT_EXTRA = "socket_input";
 
+    /**
+     * An extra intent parameter which specifies the id of a {@link ResultChannel} registered with
+     * {@link #registerResultChannel(Intent, ResultChannel)} where output from the API call should be
+     * written, instead of the {@link #SOCKET_OUTPUT_EXTRA} socket.
+     */
+    private static final String RESULT_CHANNEL_EXTRA = "result_channel";
+
+    private static final Map<String, ResultChannel> resultChannels = new ConcurrentHashMap<>();
+    private static final AtomicLong lastResultChannelId = new AtomicLong();
+
     public interface ResultWriter {
         void writeResult(PrintWriter out) throws Exception;
     }
 
+    /**
+     * The pending result of an API call that finishes after its handler returned. This wraps the
+     * {@link PendingResult} of the broadcast for requests received by a {@link BroadcastReceiver},
+     * or is provided by a {@link DirectReceiver} for requests dispatched without a broadcast.
+     */
+    public interface AsyncResult {
+        void setResultCode(int resultCode);
+
+        void finish();
+    }
+
+    /**
+     * Implemented by receivers whose handlers may be called directly instead of by a broadcast, in
+     * which case {@link BroadcastReceiver#goAsync()} has no result to return.
+     */
+    public interface DirectReceiver {
+        /**
+         * Like {@link BroadcastReceiver#goAsync()}, only returns the result on the first call.
+         *
+         * @return {@code null} if the receiver was called by a broadcast.
+         */
+        @Nullable
+        AsyncResult goAsyncDirect();
+    }
+
+    /**
+     * Where the result of an API call is written to. By default this is a connection to the
+     * {@link #SOCKET_OUTPUT_EXTRA} socket the client listens on, but the {@link com.termux.api.SocketListener}
+     * can register other channels for the requests it receives.
+     */
+    public interface ResultChannel {
+        /** The stream the result is written to. */
+        OutputStream getOutputStream() throws IOException;
+
+        /**
+         * The stream input to the API call is read from until its end, or {@code null} if it should
+         * be read from the {@link #SOCKET_INPUT_EXTRA} socket.
+         */
+        InputStream getInputStream() throws IOException;
+
+        /** File descriptors to send to the client along with the rest of the result. */
+        void setFileDescriptorsForSend(FileDescriptor[] fds) throws IOException;
+
+        /**
+         * The connection to the client, watched by the {@link DisconnectWatcher} to cancel the API
+         * call when the client closes it, or {@code null} if it can't be watched.
+         */
+        FileDescriptor getFileDescriptor();
+
+        /**
+         * Cancelled by the owner of the channel when it no longer wants the result, which cancels
+         * the API call like a client closing its connection, or {@code null} if it never is.
+         */
+        default CancellationSignal getCancellationSignal() {
+            return null;
+        }
+
+        /** Called before a JSON result is written, with the {@link JsonWriter} mode it is written in. */
+        default void setJsonMode(String mode) {}
+
+        /**
+         * Called once after the result has been written.
+         *
+         * @param resultCode 0 if the result was written successfully, 1 otherwise.
+         */
+        void close(int resultCode) throws IOException;
+    }
+
+    /**
+     * The default {@link ResultChannel} which connects to the {@link #SOCKET_OUTPUT_EXTRA} socket.
+     */
+    private static class SocketResultChannel implements ResultChannel {
+        private final LocalSocket outputSocket = new LocalSocket();
+
+        SocketResultChannel(Intent intent) throws IOException {
+            try {
+                String outputSocketAdress = intent.getStringExtra(SOCKET_OUTPUT_EXTRA);
+                if (outputSocketAdress == null || outputSocketAdress.isEmpty())
+                    throw new IOException("Missing '" + SOCKET_OUTPUT_EXTRA + "' extra");
+                AsyncLogger.logDebug(LOG_TAG, "Connecting to output socket \"%s\"", outputSocketAdress);
+                outputSocket.connect(new LocalSocketAddress(outputSocketAdress));
+            } catch (IOException e) {
+                outputSocket.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return outputSocket.getOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return null;
+        }
+
+        @Override
+        public void setFileDescriptorsForSend(FileDescriptor[] fds) {
+            outputSocket.setFileDescriptorsForSend(fds);
+        }
+
+        @Override
+        public FileDescriptor getFileDescriptor() {
+            return outputSocket.getFileDescriptor();
+        }
+
+        @Override
+        public void close(int resultCode) throws IOException {
+            outputSocket.close();
+        }
+    }
+
     /**
      * Possible subclass of {@link ResultWriter} when input is to be read from stdin.
      */
@@ -63,12 +200,39 @@ public abstract class ResultReturner {
      */
     public static abstract class BinaryOutput implements ResultWriter {
         private OutputStream out;
+        private CancellationSignal cancellationSignal = new CancellationSignal();
         
         public void setOutput(OutputStream outputStream) {
             this.out = outputStream;
         }
+
+        public final void setCancellationSignal(CancellationSignal cancellationSignal) {
+            this.cancellationSignal = cancellationSignal;
+        }
+
+        /**
+         * Cancelled when the client closes its connection before the result has been written, so
+         * that writers waiting for events can stop listening and return right away.
+         */
+        protected final CancellationSignal getCancellationSignal() {
+            return cancellationSignal;
+        }
         
         public abstract void writeResult(OutputStream out) throws Exception;
+
+        /**
+         * Copy the rest of the file to the output. If the source is a regular file and the client
+         * passed a file or pipe for the output with its request, the bytes are copied by the kernel
+         * without going through a buffer in the app.
+         */
+        protected final void writeFile(FileInputStream in) throws IOException {
+            if (out instanceof CountingOutputStream && ((CountingOutputStream) out).transferFrom(in)) return;
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
     
         /**
          * writeResult with a PrintWriter is marked as final and overwritten, so you don't accidentally use it
@@ -114,13 +278,39 @@ public abstract class ResultReturner {
         }
     }
 
-    public static abstract class ResultJsonWriter implements ResultWriter {
+    /**
+     * Possible subclass of {@link ResultWriter} when the output is JSON, written with a
+     * {@link JsonWriter} in the mode the client selected with the {@link JsonWriter#JSON_MODE_EXTRA} extra.
+     */
+    public static abstract class ResultJsonWriter extends BinaryOutput {
+        private String mode = JsonWriter.MODE_PRETTY;
+
+        public final void setMode(String mode) {
+            this.mode = mode;
+        }
+
         @Override
-        public final void writeResult(PrintWriter out) throws Exception {
-            JsonWriter writer = new JsonWriter(out);
-            writer.setIndent("  ");
-            writeJson(writer);
-            out.println(); // To add trailing newline.
+        public final void writeResult(OutputStream out) throws Exception {
+            // the result channel is closed by returnData(), even if writeJson() closes the writer
+            JsonWriter writer = JsonWriter.create(new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.flush();
+                }
+            }, mode);
+            try {
+                writeJson(writer);
+            } finally {
+                writer.finish();
+            }
+            // lines of NDJSON already end with a newline, and binary values need none
+            if (!writer.isClosed() && !JsonWriter.MODE_NDJSON.equals(mode) && !JsonWriter.isBinaryMode(mode))
+                out.write('\n'); // To add trailing newline.
         }
 
         public abstract void writeJson(JsonWriter out) throws Exception;
@@ -137,61 +327,154 @@ public abstract class ResultReturner {
         newIntent.putExtra("api_method", origIntent.getStringExtra("api_method"));
         newIntent.putExtra(SOCKET_OUTPUT_EXTRA, origIntent.getStringExtra(SOCKET_OUTPUT_EXTRA));
         newIntent.putExtra(SOCKET_INPUT_EXTRA, origIntent.getStringExtra(SOCKET_INPUT_EXTRA));
+        newIntent.putExtra(RESULT_CHANNEL_EXTRA, origIntent.getStringExtra(RESULT_CHANNEL_EXTRA));
+        newIntent.putExtra(JsonWriter.JSON_MODE_EXTRA, origIntent.getStringExtra(JsonWriter.JSON_MODE_EXTRA));
+        if (origIntent.hasExtra(ApiScheduler.TICKET_EXTRA))
+            newIntent.putExtra(ApiScheduler.TICKET_EXTRA, origIntent.getLongExtra(ApiScheduler.TICKET_EXTRA, -1));
+        if (origIntent.hasExtra(ApiMetrics.EXTRA_RECEIVED_TIME))
+            newIntent.putExtra(ApiMetrics.EXTRA_RECEIVED_TIME, origIntent.getLongExtra(ApiMetrics.EXTRA_RECEIVED_TIME, 0));
+    }
+
+    /**
+     * Register a channel the result of the API call for the intent should be written to, instead of
+     * connecting to the {@link #SOCKET_OUTPUT_EXTRA} socket. The channel is used for one result.
+     *
+     * @return The id of the channel, to be passed to {@link #unregisterResultChannel(String)} if the
+     * result will never be written.
+     */
+    public static String registerResultChannel(Intent intent, ResultChannel channel) {
+        String id = Long.toString(lastResultChannelId.incrementAndGet());
+        resultChannels.put(id, channel);
+        intent.putExtra(RESULT_CHANNEL_EXTRA, id);
+        return id;
+    }
 
+    public static void unregisterResultChannel(String id) {
+        resultChannels.remove(id);
+    }
+
+    private static ResultChannel openResultChannel(Intent intent) throws IOException {
+        String id = intent.getStringExtra(RESULT_CHANNEL_EXTRA);
+        if (id == null || id.isEmpty())
+            return new SocketResultChannel(intent);
+
+        ResultChannel channel = resultChannels.remove(id);
+        if (channel == null)
+            throw new IOException("Result channel '" + id + "' is closed or already used");
+        return channel;
     }
 
     /**
-     * Run in a separate thread, unless the context is an IntentService.
+     * Run on a thread of the {@link ResultExecutor}, unless the context is an IntentService.
      */
     public static void returnData(Object context, final Intent intent, final ResultWriter resultWriter) {
-        final PendingResult asyncResult = (context instanceof BroadcastReceiver) ? ((BroadcastReceiver) context)
-                .goAsync() : null;
+        AsyncResult pendingResult = goAsync(context);
+        if (pendingResult != null && ResultReturner.context != null && LongOperationService.isLongOperation(intent)) {
+            // don't let the call race the deadline of the broadcast
+            pendingResult = LongOperationService.adopt(ResultReturner.context, intent, pendingResult);
+        }
+        final AsyncResult asyncResult = pendingResult;
         final Activity activity = (Activity) ((context instanceof Activity) ? context : null);
 
-        final Runnable runnable = () -> {
+        if (!intent.hasExtra(ApiMetrics.EXTRA_RECEIVED_TIME))
+            intent.putExtra(ApiMetrics.EXTRA_RECEIVED_TIME, System.nanoTime());
+
+        final Runnable runnable = createResultRunnable(asyncResult, activity, intent, resultWriter, null);
+
+        if (context instanceof IntentService) {
+            runnable.run();
+        } else {
+            ResultExecutor.execute(intent, resultWriter instanceof WithInput, runnable,
+                    createResultRunnable(asyncResult, activity, intent, null, "Too many concurrent requests to the plugin\n"));
+        }
+    }
+
+    /**
+     * Return an error message with result code 1 as the result of a request that was never
+     * dispatched to its API method, like one rejected by the {@link ApiScheduler}.
+     */
+    public static void returnError(Context context, final Intent intent, final String message) {
+        if (!intent.hasExtra(ApiMetrics.EXTRA_RECEIVED_TIME))
+            intent.putExtra(ApiMetrics.EXTRA_RECEIVED_TIME, System.nanoTime());
+
+        final Runnable runnable = createResultRunnable(null, null, intent, null, message);
+        ResultExecutor.execute(intent, false, runnable, runnable);
+    }
+
+    /**
+     * Create the runnable writing the result of an API call.
+     *
+     * @param error An error to return instead of running the result writer, like when the call
+     *              was rejected by the {@link ResultExecutor}.
+     */
+    private static Runnable createResultRunnable(final AsyncResult asyncResult, final Activity activity, final Intent intent,
+                                                 final ResultWriter resultWriter, final String error) {
+        return () -> {
+            String apiMethod = intent.getStringExtra("api_method");
             PrintWriter writer = null;
-            LocalSocket outputSocket = null;
+            ResultChannel channel = null;
+            CountingOutputStream output = null;
+            ParcelFileDescriptor pfd = null;
+            CancellationSignal cancellationSignal = new CancellationSignal();
+            CancellationSignal channelSignal = null;
+            int resultCode = 1;
             try {
-                final ParcelFileDescriptor[] pfds = { null };
-                outputSocket = new LocalSocket();
-                String outputSocketAdress = intent.getStringExtra(SOCKET_OUTPUT_EXTRA);
-                if (outputSocketAdress == null || outputSocketAdress.isEmpty())
-                    throw new IOException("Missing '" + SOCKET_OUTPUT_EXTRA + "' extra");
-                Logger.logDebug(LOG_TAG, "Connecting to output socket \"" + outputSocketAdress + "\"");
-                outputSocket.connect(new LocalSocketAddress(outputSocketAdress));
-                writer = new PrintWriter(outputSocket.getOutputStream());
+                long connectTime = System.nanoTime();
+                channel = openResultChannel(intent);
+                ApiMetrics.record(apiMethod, ApiMetrics.Stage.CONNECT, System.nanoTime() - connectTime);
+                output = new CountingOutputStream(channel.getOutputStream());
+                writer = new PrintWriter(output);
+
+                String message = error;
+                channelSignal = channel.getCancellationSignal();
+                if (channelSignal != null) {
+                    // cancelled while waiting to run, don't start the call at all
+                    if (channelSignal.isCanceled() && message == null)
+                        message = "Cancelled\n";
+                    channelSignal.setOnCancelListener(cancellationSignal::cancel);
+                }
+
+                if (message != null) {
+                    writer.print(message);
+                    if (asyncResult != null) {
+                        asyncResult.setResultCode(1);
+                    } else if (activity != null) {
+                        activity.setResult(1);
+                    }
+                    return;
+                }
 
                 if (resultWriter != null) {
                     if (resultWriter instanceof BinaryOutput) {
-                        BinaryOutput bout = (BinaryOutput) resultWriter;
-                        bout.setOutput(outputSocket.getOutputStream());
+                        // only calls that may run for long are worth watching, quick ones finish before a disconnect matters
+                        if (ResultExecutor.isBlocking(apiMethod))
+                            DisconnectWatcher.watch(channel.getFileDescriptor(), cancellationSignal);
+                        ((BinaryOutput) resultWriter).setCancellationSignal(cancellationSignal);
                     }
-                    if (resultWriter instanceof WithInput) {
-                        try (LocalSocket inputSocket = new LocalSocket()) {
-                            String inputSocketAdress = intent.getStringExtra(SOCKET_INPUT_EXTRA);
-                            if (inputSocketAdress == null || inputSocketAdress.isEmpty())
-                                throw new IOException("Missing '" + SOCKET_INPUT_EXTRA + "' extra");
-                            inputSocket.connect(new LocalSocketAddress(inputSocketAdress));
-                            ((WithInput) resultWriter).setInput(inputSocket.getInputStream());
-                            resultWriter.writeResult(writer);
-                        }
+                    long writeTime = System.nanoTime();
+                    if (resultWriter instanceof ResultJsonWriter) {
+                        String jsonMode = getJsonMode(intent);
+                        ((ResultJsonWriter) resultWriter).setMode(jsonMode);
+                        channel.setJsonMode(jsonMode);
+                    }
+                    String cacheKey = ResultCache.getCacheKey(intent, resultWriter);
+                    if (cacheKey != null) {
+                        output.write(ResultCache.getResult(cacheKey, resultWriter));
                     } else {
-                        resultWriter.writeResult(writer);
+                        writeResult(channel, intent, resultWriter, writer, output);
                     }
+                    ApiMetrics.record(apiMethod, ApiMetrics.Stage.WRITE, System.nanoTime() - writeTime);
                     if(resultWriter instanceof WithAncillaryFd) {
                         int fd = ((WithAncillaryFd) resultWriter).getFd();
                         if (fd >= 0) {
-                            pfds[0] = ParcelFileDescriptor.adoptFd(fd);
-                            FileDescriptor[] fds = { pfds[0].getFileDescriptor() };
-                            outputSocket.setFileDescriptorsForSend(fds);
+                            pfd = ParcelFileDescriptor.adoptFd(fd);
+                            FileDescriptor[] fds = { pfd.getFileDescriptor() };
+                            channel.setFileDescriptorsForSend(fds);
                         }
                     }
                 }
 
-                if(pfds[0] != null) {
-                    pfds[0].close();
-                }
-
+                resultCode = 0;
                 if (asyncResult != null) {
                     asyncResult.setResultCode(0);
                 } else if (activity != null) {
@@ -210,15 +493,32 @@ public abstract class ResultReturner {
                     activity.setResult(1);
                 }
             } finally {
+                DisconnectWatcher.unwatch(cancellationSignal);
+                if (channelSignal != null)
+                    channelSignal.setOnCancelListener(null);
                 try {
                     if (writer != null)
                         writer.close();
-                    if (outputSocket != null)
-                        outputSocket.close();
+                    if (channel != null)
+                        channel.close(resultCode);
                 } catch (Exception e) {
                     Logger.logStackTraceWithMessage(LOG_TAG, "Failed to close", e);
                 }
 
+                // only close the fd after the rest of the result has been sent along with it
+                try {
+                    if (pfd != null)
+                        pfd.close();
+                } catch (Exception e) {
+                    Logger.logStackTraceWithMessage(LOG_TAG, "Failed to close fd", e);
+                }
+
+                // let the next waiting request of the API method run
+                ApiScheduler.release(intent);
+
+                ApiMetrics.recordResult(apiMethod, resultCode == 0, output == null ? 0 : output.count);
+                ApiMetrics.recordSince(intent, ApiMetrics.EXTRA_RECEIVED_TIME, ApiMetrics.Stage.TOTAL);
+
                 try {
                     if (asyncResult != null) {
                         asyncResult.finish();
@@ -230,12 +530,118 @@ public abstract class ResultReturner {
                 }
             }
         };
+    }
 
-        if (context instanceof IntentService) {
-            runnable.run();
+    /**
+     * Run the writer, with the input from the client if it is a {@link WithInput}.
+     */
+    private static void writeResult(ResultChannel channel, Intent intent, ResultWriter resultWriter,
+                                    PrintWriter writer, OutputStream output) throws Exception {
+        if (resultWriter instanceof BinaryOutput) {
+            BinaryOutput bout = (BinaryOutput) resultWriter;
+            bout.setOutput(output);
+        }
+        if (resultWriter instanceof WithInput) {
+            InputStream channelInput = channel.getInputStream();
+            if (channelInput != null) {
+                ((WithInput) resultWriter).setInput(channelInput);
+                resultWriter.writeResult(writer);
+            } else {
+                try (LocalSocket inputSocket = new LocalSocket()) {
+                    String inputSocketAdress = intent.getStringExtra(SOCKET_INPUT_EXTRA);
+                    if (inputSocketAdress == null || inputSocketAdress.isEmpty())
+                        throw new IOException("Missing '" + SOCKET_INPUT_EXTRA + "' extra");
+                    inputSocket.connect(new LocalSocketAddress(inputSocketAdress));
+                    ((WithInput) resultWriter).setInput(inputSocket.getInputStream());
+                    resultWriter.writeResult(writer);
+                }
+            }
         } else {
-            new Thread(runnable).start();
+            resultWriter.writeResult(writer);
+        }
+    }
+
+    private static String getJsonMode(Intent intent) {
+        String mode = intent.getStringExtra(JsonWriter.JSON_MODE_EXTRA);
+        if (mode == null || mode.isEmpty()) return JsonWriter.MODE_PRETTY;
+        if (!JsonWriter.isValidMode(mode)) {
+            Logger.logError(LOG_TAG, "Invalid '" + JsonWriter.JSON_MODE_EXTRA + "' extra \"" + mode + "\", using " + JsonWriter.MODE_PRETTY);
+            return JsonWriter.MODE_PRETTY;
+        }
+        return mode;
+    }
+
+    /** Counts the bytes of the result for the {@link ApiMetrics}. */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
         }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        /**
+         * Copy the rest of a regular file with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+         * if the output is a file descriptor of the client.
+         *
+         * @return false if the bytes have to be copied through a buffer instead.
+         */
+        boolean transferFrom(FileInputStream in) throws IOException {
+            if (!(out instanceof FileOutputStream)) return false;
+            try {
+                if (!OsConstants.S_ISREG(Os.fstat(in.getFD()).st_mode)) return false;
+            } catch (ErrnoException e) {
+                return false;
+            }
+
+            out.flush();
+            FileChannel source = in.getChannel();
+            FileChannel target = ((FileOutputStream) out).getChannel();
+            long position = source.position();
+            long size = source.size();
+            while (position < size) {
+                long transferred = source.transferTo(position, size - position, target);
+                // the file was truncated while being copied
+                if (transferred <= 0) break;
+                position += transferred;
+                count += transferred;
+            }
+            source.position(position);
+            return true;
+        }
+    }
+
+    private static AsyncResult goAsync(Object context) {
+        if (context instanceof DirectReceiver) {
+            AsyncResult directResult = ((DirectReceiver) context).goAsyncDirect();
+            if (directResult != null) return directResult;
+        }
+        if (!(context instanceof BroadcastReceiver)) return null;
+
+        final PendingResult pendingResult = ((BroadcastReceiver) context).goAsync();
+        if (pendingResult == null) return null;
+        return new AsyncResult() {
+            @Override
+            public void setResultCode(int resultCode) {
+                pendingResult.setResultCode(resultCode);
+            }
+
+            @Override
+            public void finish() {
+                pendingResult.finish();
+            }
+        };
     }
 
     public static void setContext(Context context) {
@@ -0,0 +1,111 @@
+package com.termux.api.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ring buffer of the samples of one sensor, with the timestamp, accuracy and values of every
+ * sample in preallocated primitive arrays, for streaming every sample instead of the last one.
+ *
+ * It has a single producer, the thread the sensor events are delivered on, and a single consumer,
+ * the thread writing them to the client, which hand samples over without locks: the producer fills
+ * the slot and then publishes it by moving the {@link #tail}, the consumer reads the slots up to it
+ * and then frees them by moving the {@link #head}. Nothing is allocated after the value array,
+ * which is sized by the first sample. If the consumer falls behind by the whole capacity, samples
+ * are dropped and counted instead of blocking the event thread.
+ */
+public class SensorSampleBuffer {
+
+    public static final int MIN_CAPACITY = 2;
+    /** The most samples that may wait, which keeps a buffer of 16 values per sample at 4 MB. */
+    public static final int MAX_CAPACITY = 65536;
+
+    private final int mask;
+    private final long[] timestamps;
+    private final int[] accuracies;
+    /** The values of every slot, {@link #valueCount} each, allocated by the first sample. */
+    private float[] values;
+    private int valueCount;
+
+    /** The position the next sample is added at, only changed by the producer. */
+    private final AtomicLong tail = new AtomicLong();
+    /** The position of the next sample to read, only changed by the consumer. */
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity The number of samples that may wait for the consumer, rounded up to a power
+     *                 of two, from {@link #MIN_CAPACITY} to {@link #MAX_CAPACITY}.
+     */
+    public SensorSampleBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(MIN_CAPACITY, Math.min(MAX_CAPACITY, capacity)) - 1) << 1;
+        mask = size - 1;
+        timestamps = new long[size];
+        accuracies = new int[size];
+    }
+
+    /**
+     * Add a sample, called by the producer only. Values beyond the number of values of the first
+     * sample are ignored and missing ones are set to 0.
+     *
+     * @return false if the buffer was full and the sample was dropped.
+     */
+    public boolean add(long timestamp, int accuracy, float[] sampleValues) {
+        long position = tail.get();
+        if (position - head.get() > mask) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (values == null) {
+            valueCount = sampleValues.length;
+            values = new float[(mask + 1) * valueCount];
+        }
+
+        int index = (int) position & mask;
+        timestamps[index] = timestamp;
+        accuracies[index] = accuracy;
+        int count = Math.min(valueCount, sampleValues.length);
+        System.arraycopy(sampleValues, 0, values, index * valueCount, count);
+        if (count < valueCount) Arrays.fill(values, index * valueCount + count, (index + 1) * valueCount, 0);
+        // publishes the slot, and the value array of the first sample, to the consumer
+        tail.lazySet(position + 1);
+        return true;
+    }
+
+    /** The number of samples the consumer can read, which are read with offsets from 0 up to it. */
+    public int available() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /** The number of values of every sample, 0 until the first sample was added and read as {@link #available()}. */
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    public long getTimestamp(int offset) {
+        return timestamps[slot(offset)];
+    }
+
+    public int getAccuracy(int offset) {
+        return accuracies[slot(offset)];
+    }
+
+    public float getValue(int offset, int value) {
+        return values[slot(offset) * valueCount + value];
+    }
+
+    /** Free the first samples after they were read, called by the consumer only. */
+    public void remove(int count) {
+        head.lazySet(head.get() + count);
+    }
+
+    /** The number of samples dropped because the buffer was full. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private int slot(int offset) {
+        return (int) (head.get() + offset) & mask;
+    }
+
+}
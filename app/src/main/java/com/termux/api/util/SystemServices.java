@@ -0,0 +1,70 @@
+package com.termux.api.util;
+
+import android.content.Context;
+
+import com.termux.shared.logger.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of the system service managers of the application context shared by all API methods,
+ * so a call does not look up the `SensorManager`, `LocationManager` and so on from scratch.
+ *
+ * The first lookup of a service in a process asks the service manager for its binder, which is what
+ * makes the first call of an API method slow. In warm mode {@link #preload(Context)} does that for
+ * the services of the common API methods when the process starts.
+ *
+ * Only services that are not bound to a window or activity may be looked up here, since they are
+ * always fetched from the application context.
+ */
+public class SystemServices {
+
+    /** The services looked up by {@link #preload(Context)}. */
+    private static final String[] PRELOADED_SERVICES = {
+            Context.AUDIO_SERVICE,
+            Context.BATTERY_SERVICE,
+            Context.CAMERA_SERVICE,
+            Context.LOCATION_SERVICE,
+            Context.NOTIFICATION_SERVICE,
+            Context.SENSOR_SERVICE,
+            Context.TELEPHONY_SERVICE,
+            Context.USB_SERVICE,
+            Context.VIBRATOR_SERVICE,
+            Context.WIFI_SERVICE
+    };
+
+    private static final Map<String, Object> services = new ConcurrentHashMap<>();
+
+    private static final String LOG_TAG = "SystemServices";
+
+    /**
+     * Get a system service of the application context, like {@link Context#getSystemService(String)}.
+     *
+     * @return The service, or {@code null} if it is not supported on the device.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(Context context, String name) {
+        Object service = services.get(name);
+        if (service == null) {
+            service = context.getApplicationContext().getSystemService(name);
+            if (service == null) return null;
+            services.put(name, service);
+        }
+        return (T) service;
+    }
+
+    /** Look up the services of the common API methods, so their first calls don't have to. */
+    public static void preload(Context context) {
+        long startTime = System.nanoTime();
+        for (String name : PRELOADED_SERVICES) {
+            try {
+                get(context, name);
+            } catch (RuntimeException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to preload \"" + name + "\" service", e);
+            }
+        }
+        Logger.logDebug(LOG_TAG, "Preloaded " + services.size() + " services in " + (System.nanoTime() - startTime) / 1000000 + "ms");
+    }
+
+}
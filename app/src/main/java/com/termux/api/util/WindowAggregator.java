@@ -0,0 +1,362 @@
+package com.termux.api.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Summarizes the samples of one sensor in windows of time, with the minimum, maximum, mean, RMS,
+ * standard deviation and number of peaks of every axis, so only one result per window has to be
+ * written instead of every sample.
+ *
+ * Windows are tumbling if their step is their length, or sliding if the step is shorter, in which
+ * case the length is a whole number of steps. The samples of every step are accumulated into a
+ * pane of primitive sums, minimums and maximums, so adding a sample is O(1), and the panes of a
+ * window are only combined when it completes. Windows start at the timestamp of the first sample
+ * and complete with the first sample after their end, and if there is no sample for longer than a
+ * window they start again with the next one. The samples after the last completed window are
+ * passed as a partial window before such a gap, and by {@link #flush(WindowListener)} when the
+ * stream ends.
+ *
+ * Every sample may first pass a first order IIR low-pass or high-pass filter, which uses the time
+ * between the samples, and be decimated after it, so the low-pass also keeps the kept samples
+ * from aliasing. The sums are of the distance of the values from the first value of every axis,
+ * so the variance of values with a large offset, like the gravity in acceleration, stays exact.
+ *
+ * It is not thread safe, all samples must be added by the same thread.
+ */
+public class WindowAggregator {
+
+    public static final int FILTER_NONE = 0;
+    public static final int FILTER_LOW_PASS = 1;
+    public static final int FILTER_HIGH_PASS = 2;
+
+    /** The maximum number of steps of a window, which is the number of panes kept. */
+    public static final int MAX_STEPS = 1024;
+
+    /** Called for every completed window, which can be read until the method returns. */
+    public interface WindowListener {
+        void onWindow(WindowAggregator window) throws IOException;
+    }
+
+    private final long windowNanos;
+    private final long stepNanos;
+    private final int paneCount;
+    private final int decimation;
+    private final int filter;
+    /** The time constant of the filter in seconds. */
+    private final double rc;
+    private final float peakThreshold;
+
+    /** The number of values of every sample, set by the first sample. */
+    private int valueCount;
+    private double[] offsets;
+    private float[] filtered;
+    /** The last output of the filter, and the last input for the high-pass. */
+    private double[] filterOutputs;
+    private double[] filterInputs;
+    private long lastTimestamp;
+    /** The last kept value and whether the values were rising to it, for the peaks. */
+    private float[] lastValues;
+    private boolean[] rising;
+    /** The pane of the last kept sample, its peaks are counted in, or -1 if it was cleared since. */
+    private int lastPane = -1;
+    private int skipped;
+
+    /** The accumulators of the panes, the ones of axis `i` of pane `p` at `p * valueCount + i`. */
+    private int[] paneCounts;
+    private double[] paneSums;
+    private double[] paneSquareSums;
+    private float[] paneMins;
+    private float[] paneMaxs;
+    private int[] panePeaks;
+    private int pane;
+    private int filledPanes;
+    private long paneEnd;
+    /** The start of the first pane since the start or the last gap, before which no window starts. */
+    private long panesStart;
+    /** Whether samples were added that no window passed to the listener contained yet. */
+    private boolean unreported;
+
+    /** The accumulators of the last completed window. */
+    private int windowCount;
+    private double[] windowSums;
+    private double[] windowSquareSums;
+    private float[] windowMins;
+    private float[] windowMaxs;
+    private int[] windowPeaks;
+    private long windowStart;
+    private long windowEnd;
+    private boolean partial;
+
+    /**
+     * @param windowNanos The length of the windows, rounded up to a whole number of steps.
+     * @param stepNanos The time between the starts of two windows, the window length if not positive
+     *                  or longer.
+     * @param decimation Keep only every Nth sample after the filter.
+     * @param filter One of the `FILTER_*` constants.
+     * @param cutoffHz The cutoff frequency of the filter.
+     * @param peakThreshold The minimum value of a peak.
+     * @throws IllegalArgumentException If the window is not positive or longer than {@link #MAX_STEPS}
+     * steps.
+     */
+    public WindowAggregator(long windowNanos, long stepNanos, int decimation, int filter, double cutoffHz, float peakThreshold) {
+        if (windowNanos <= 0) throw new IllegalArgumentException("Invalid window length " + windowNanos);
+        this.stepNanos = stepNanos > 0 && stepNanos < windowNanos ? stepNanos : windowNanos;
+        long steps = (windowNanos + this.stepNanos - 1) / this.stepNanos;
+        if (steps > MAX_STEPS)
+            throw new IllegalArgumentException("Window of " + steps + " steps, must be at most " + MAX_STEPS);
+        this.paneCount = (int) steps;
+        this.windowNanos = this.paneCount * this.stepNanos;
+        this.decimation = Math.max(1, decimation);
+        this.filter = cutoffHz > 0 ? filter : FILTER_NONE;
+        this.rc = cutoffHz > 0 ? 1 / (2 * Math.PI * cutoffHz) : 0;
+        this.peakThreshold = peakThreshold;
+    }
+
+    /**
+     * Add a sample, after passing the windows completed before it to the listener.
+     *
+     * @param values The values of the sample, of which the first count are used.
+     */
+    public void add(long timestamp, float[] values, int count, WindowListener listener) throws IOException {
+        if (valueCount == 0) {
+            if (count == 0) return;
+            start(timestamp, values, count);
+        }
+
+        filter(timestamp, values, count);
+        lastTimestamp = timestamp;
+        int skipped = this.skipped;
+        this.skipped = skipped + 1 == decimation ? 0 : skipped + 1;
+        // whether the last kept sample was a peak is only known now, count it before its window completes
+        if (skipped == 0) countPeaks();
+        if (timestamp >= paneEnd) advance(timestamp, listener);
+        if (skipped != 0) return;
+
+        unreported = true;
+        int base = pane * valueCount;
+        paneCounts[pane]++;
+        for (int i = 0; i < valueCount; i++) {
+            float value = filtered[i];
+            double distance = value - offsets[i];
+            paneSums[base + i] += distance;
+            paneSquareSums[base + i] += distance * distance;
+            if (value < paneMins[base + i]) paneMins[base + i] = value;
+            if (value > paneMaxs[base + i]) paneMaxs[base + i] = value;
+        }
+        lastPane = pane;
+    }
+
+    /**
+     * Count the last kept value of every axis as a peak in the pane of its sample, if the values
+     * rose to it and fall after it to the value of the sample being added.
+     */
+    private void countPeaks() {
+        for (int i = 0; i < valueCount; i++) {
+            float value = filtered[i];
+            float last = lastValues[i];
+            if (value > last) {
+                rising[i] = true;
+            } else if (value < last) {
+                if (rising[i] && last >= peakThreshold && lastPane != -1) panePeaks[lastPane * valueCount + i]++;
+                rising[i] = false;
+            }
+            lastValues[i] = value;
+        }
+    }
+
+    private void start(long timestamp, float[] values, int count) {
+        valueCount = count;
+        offsets = new double[count];
+        filtered = new float[count];
+        filterOutputs = new double[count];
+        filterInputs = new double[count];
+        lastValues = new float[count];
+        rising = new boolean[count];
+        paneCounts = new int[paneCount];
+        paneSums = new double[paneCount * count];
+        paneSquareSums = new double[paneCount * count];
+        paneMins = new float[paneCount * count];
+        paneMaxs = new float[paneCount * count];
+        panePeaks = new int[paneCount * count];
+        windowSums = new double[count];
+        windowSquareSums = new double[count];
+        windowMins = new float[count];
+        windowMaxs = new float[count];
+        windowPeaks = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            offsets[i] = filter == FILTER_HIGH_PASS ? 0 : values[i];
+            filterOutputs[i] = filter == FILTER_HIGH_PASS ? 0 : values[i];
+            filterInputs[i] = values[i];
+            lastValues[i] = Float.NaN;
+        }
+        lastTimestamp = timestamp;
+        for (int p = 0; p < paneCount; p++) clearPane(p);
+        panesStart = timestamp;
+        paneEnd = timestamp + stepNanos;
+    }
+
+    private void filter(long timestamp, float[] values, int count) {
+        if (filter == FILTER_NONE) {
+            for (int i = 0; i < valueCount; i++) filtered[i] = i < count ? values[i] : 0;
+            return;
+        }
+
+        double dt = (timestamp - lastTimestamp) / 1e9;
+        if (dt < 0) dt = 0;
+        double alpha = filter == FILTER_LOW_PASS ? dt / (rc + dt) : rc / (rc + dt);
+        for (int i = 0; i < valueCount; i++) {
+            double input = i < count ? values[i] : 0;
+            double output = filter == FILTER_LOW_PASS
+                    ? filterOutputs[i] + alpha * (input - filterOutputs[i])
+                    : alpha * (filterOutputs[i] + input - filterInputs[i]);
+            filterOutputs[i] = output;
+            filterInputs[i] = input;
+            filtered[i] = (float) output;
+        }
+    }
+
+    /** Complete the panes that end before the timestamp. */
+    private void advance(long timestamp, WindowListener listener) throws IOException {
+        if (timestamp - paneEnd >= windowNanos) {
+            // none of the panes would have samples, end with what there is and start again
+            completePane(listener);
+            flush(listener);
+            for (int p = 0; p < paneCount; p++) clearPane(p);
+            filledPanes = 0;
+            panesStart = timestamp;
+            paneEnd = timestamp + stepNanos;
+            return;
+        }
+        while (timestamp >= paneEnd) {
+            completePane(listener);
+            paneEnd += stepNanos;
+        }
+    }
+
+    /** Complete the current pane, and the window ending with it once enough panes are filled. */
+    private void completePane(WindowListener listener) throws IOException {
+        if (filledPanes < paneCount) filledPanes++;
+        if (filledPanes == paneCount) {
+            combinePanes();
+            windowStart = paneEnd - windowNanos;
+            windowEnd = paneEnd;
+            partial = false;
+            unreported = false;
+            if (windowCount > 0) listener.onWindow(this);
+        }
+        pane = pane + 1 == paneCount ? 0 : pane + 1;
+        clearPane(pane);
+    }
+
+    /**
+     * Pass the samples added since the last completed window to the listener as a partial window,
+     * if there are any. It ends with the current pane, but starts no earlier than the first pane
+     * since the start or the last gap. Call it once after the last sample.
+     */
+    public void flush(WindowListener listener) throws IOException {
+        if (!unreported) return;
+        unreported = false;
+        combinePanes();
+        windowStart = Math.max(paneEnd - windowNanos, panesStart);
+        windowEnd = paneEnd;
+        partial = true;
+        listener.onWindow(this);
+    }
+
+    private void combinePanes() {
+        windowCount = 0;
+        Arrays.fill(windowSums, 0);
+        Arrays.fill(windowSquareSums, 0);
+        Arrays.fill(windowMins, Float.POSITIVE_INFINITY);
+        Arrays.fill(windowMaxs, Float.NEGATIVE_INFINITY);
+        Arrays.fill(windowPeaks, 0);
+        for (int p = 0; p < paneCount; p++) {
+            if (paneCounts[p] == 0) continue;
+            windowCount += paneCounts[p];
+            int base = p * valueCount;
+            for (int i = 0; i < valueCount; i++) {
+                windowSums[i] += paneSums[base + i];
+                windowSquareSums[i] += paneSquareSums[base + i];
+                windowMins[i] = Math.min(windowMins[i], paneMins[base + i]);
+                windowMaxs[i] = Math.max(windowMaxs[i], paneMaxs[base + i]);
+                windowPeaks[i] += panePeaks[base + i];
+            }
+        }
+    }
+
+    private void clearPane(int p) {
+        if (p == lastPane) lastPane = -1;
+        paneCounts[p] = 0;
+        int base = p * valueCount;
+        Arrays.fill(paneSums, base, base + valueCount, 0);
+        Arrays.fill(paneSquareSums, base, base + valueCount, 0);
+        Arrays.fill(paneMins, base, base + valueCount, Float.POSITIVE_INFINITY);
+        Arrays.fill(paneMaxs, base, base + valueCount, Float.NEGATIVE_INFINITY);
+        Arrays.fill(panePeaks, base, base + valueCount, 0);
+    }
+
+    /** The length of the windows after rounding it up to a whole number of steps, in nanoseconds. */
+    public long getWindowNanos() {
+        return windowNanos;
+    }
+
+    public long getStepNanos() {
+        return stepNanos;
+    }
+
+    /** The timestamp the window started at, in nanoseconds. */
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    public long getWindowEnd() {
+        return windowEnd;
+    }
+
+    /** Whether the window was passed by {@link #flush(WindowListener)} before it completed. */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /** The number of samples in the window. */
+    public int getCount() {
+        return windowCount;
+    }
+
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    public float getMin(int axis) {
+        return windowMins[axis];
+    }
+
+    public float getMax(int axis) {
+        return windowMaxs[axis];
+    }
+
+    public double getMean(int axis) {
+        return offsets[axis] + windowSums[axis] / windowCount;
+    }
+
+    /** The root mean square of the values. */
+    public double getRms(int axis) {
+        double offset = offsets[axis];
+        double squareSum = windowSquareSums[axis] + 2 * offset * windowSums[axis] + windowCount * offset * offset;
+        return Math.sqrt(Math.max(0, squareSum / windowCount));
+    }
+
+    /** The population standard deviation of the values. */
+    public double getStddev(int axis) {
+        double mean = windowSums[axis] / windowCount;
+        return Math.sqrt(Math.max(0, windowSquareSums[axis] / windowCount - mean * mean));
+    }
+
+    /** The number of local maxima of at least the peak threshold. */
+    public int getPeaks(int axis) {
+        return windowPeaks[axis];
+    }
+
+}
@@ -0,0 +1,245 @@
+package com.termux.api.apis;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.Intent;
+
+import com.termux.api.SocketListener;
+import com.termux.api.util.ApiMetrics;
+import com.termux.api.util.JsonWriter;
+import com.termux.api.util.RecordingIntent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link BenchmarkAPI.LoadGenerator} against the real request handling of the
+ * {@link SocketListener}, with connections in memory instead of sockets.
+ */
+public class BenchmarkAPITest {
+
+    private static final Application APP = new Application();
+
+    /**
+     * A {@link BenchmarkAPI.Transport} whose connections are handled by the
+     * {@link SocketListener} on a thread of their own, like on one of its workers. Results can only
+     * be returned on the request connection, as the `socket_output` sockets are not faked.
+     */
+    private static class FakeTransport implements BenchmarkAPI.Transport {
+        final AtomicInteger requests = new AtomicInteger();
+        /** Close the request connection before the last byte of the request was sent. */
+        volatile boolean truncating;
+
+        @Override
+        public BenchmarkAPI.Connection connect() throws IOException {
+            Pipe request = Pipe.open();
+            Pipe reply = Pipe.open();
+            FakeSocket socket = new FakeSocket(request.source(), reply.sink());
+            requests.incrementAndGet();
+            new Thread(() -> SocketListener.handleConnection(APP, socket, 0), "FakeSocket").start();
+            return new ClientConnection(reply.source(), request.sink(), truncating);
+        }
+
+        @Override
+        public BenchmarkAPI.Server listen(String address) throws IOException {
+            throw new IOException("Output sockets are not supported");
+        }
+    }
+
+    /** The client end of a connection. */
+    private static class ClientConnection implements BenchmarkAPI.Connection {
+        private final Pipe.SourceChannel source;
+        private final Pipe.SinkChannel sink;
+        private final InputStream in;
+        private final OutputStream out;
+
+        ClientConnection(Pipe.SourceChannel source, Pipe.SinkChannel sink, boolean truncating) {
+            this.source = source;
+            this.sink = sink;
+            in = Channels.newInputStream(source);
+            OutputStream output = Channels.newOutputStream(sink);
+            out = !truncating ? output : new OutputStream() {
+                @Override
+                public void write(int b) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    output.write(b, off, len - 1);
+                    sink.close();
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+            sink.close();
+        }
+    }
+
+    /** The listener end of a connection, which creates intents that keep their extras. */
+    private static class FakeSocket implements SocketListener.Connection {
+        private final Pipe.SourceChannel source;
+        private final Pipe.SinkChannel sink;
+        private final InputStream in;
+        private final OutputStream out;
+
+        FakeSocket(Pipe.SourceChannel source, Pipe.SinkChannel sink) {
+            this.source = source;
+            this.sink = sink;
+            in = Channels.newInputStream(source);
+            out = Channels.newOutputStream(sink);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) {}
+
+        @Override
+        public FileDescriptor[] getAncillaryFileDescriptors() {
+            return null;
+        }
+
+        @Override
+        public void setFileDescriptorsForSend(FileDescriptor[] fds) {}
+
+        @Override
+        public FileDescriptor getFileDescriptor() {
+            return null;
+        }
+
+        @Override
+        public void shutdownInput() throws IOException {
+            source.close();
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException {
+            sink.close();
+        }
+
+        @Override
+        public String getClient() {
+            return "test";
+        }
+
+        @Override
+        public Intent newIntent(Context context) {
+            return new RecordingIntent();
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+            sink.close();
+        }
+    }
+
+    @Before
+    public void resetMetrics() {
+        ApiMetrics.reset("Echo");
+    }
+
+    /** The metrics of the `Echo` calls as compact JSON. */
+    private static String getEchoMetrics() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JsonWriter out = new JsonWriter(output, JsonWriter.MODE_COMPACT);
+        ApiMetrics.writeJson(out, "Echo", 1);
+        out.flush();
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test(timeout = 10000)
+    public void completesAllRequestsOverTheRequestConnection() throws InterruptedException, IOException {
+        FakeTransport transport = new FakeTransport();
+        BenchmarkAPI.LoadGenerator generator = new BenchmarkAPI.LoadGenerator(transport, 4, 25, 10000, false);
+
+        generator.run();
+
+        assertEquals(100, transport.requests.get());
+        assertEquals(100, generator.completed.get());
+        assertEquals(0, generator.errors.get());
+        assertEquals(100 * 10000, generator.bytes.get());
+        assertEquals(100, generator.latency.getCount());
+        assertTrue(generator.elapsedNanos > 0);
+
+        // the stages recorded before the result was closed, so all of them are counted by now
+        String metrics = getEchoMetrics();
+        for (String stage : new String[] { "parse", "dispatch", "connect", "write" }) {
+            assertTrue(metrics, metrics.contains("\"" + stage + "\":{\"count\":100,"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void countsErrorReplies() throws InterruptedException, IOException {
+        FakeTransport transport = new FakeTransport();
+        transport.truncating = true;
+        BenchmarkAPI.LoadGenerator generator = new BenchmarkAPI.LoadGenerator(transport, 2, 5, 10, false);
+
+        generator.run();
+
+        assertEquals(10, transport.requests.get());
+        assertEquals(0, generator.completed.get());
+        assertEquals(10, generator.errors.get());
+        assertEquals(0, generator.latency.getCount());
+        // the listener rejected the requests before they were parsed
+        assertFalse(getEchoMetrics().contains("\"parse\""));
+    }
+
+    @Test(timeout = 10000)
+    public void cancelStopsTheClients() throws InterruptedException {
+        FakeTransport transport = new FakeTransport();
+        BenchmarkAPI.LoadGenerator generator = new BenchmarkAPI.LoadGenerator(transport, 2, 1000000, 10, false);
+        Thread runner = new Thread(() -> {
+            try {
+                generator.run();
+            } catch (InterruptedException ignored) {}
+        });
+        runner.start();
+
+        while (generator.completed.get() < 10) Thread.sleep(1);
+        generator.cancel();
+        runner.join();
+
+        assertTrue(generator.cancelled);
+        assertTrue(generator.completed.get() < 1000000);
+        assertEquals(0, generator.errors.get());
+        assertFalse(runner.isAlive());
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.termux.api.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ApiMetricsTest {
+
+    @Test
+    public void recordsUnknownApiMethodsTogether() throws IOException {
+        ApiMetrics.recordResult("Echo", true, 10);
+        for (int i = 0; i < 100; i++) {
+            ApiMetrics.recordResult("NoSuchApi" + i, false, 0);
+        }
+        ApiMetrics.recordResult(null, false, 0);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JsonWriter out = new JsonWriter(output, JsonWriter.MODE_COMPACT);
+        ApiMetrics.writeJson(out);
+        out.flush();
+        String json = new String(output.toByteArray(), StandardCharsets.UTF_8);
+
+        assertTrue(json, json.contains("\"Echo\":"));
+        assertTrue(json, json.contains("\"" + ApiMetrics.UNKNOWN_API_METHOD + "\":{\"results\":101,"));
+        assertFalse(json, json.contains("NoSuchApi"));
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.termux.api.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryRequestReaderTest {
+
+    /** Written after every request, which must be the next byte once the request was read. */
+    private static final int SENTINEL = 0x5A;
+
+    /** Builds a request, with the entry count written in {@link #toStream()}. */
+    private static class RequestBuilder {
+        final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(entries);
+        int count;
+
+        RequestBuilder entry(int type, String key, byte[] value) throws IOException {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(type);
+            out.writeShort(keyBytes.length);
+            out.write(keyBytes);
+            out.writeInt(value.length);
+            out.write(value);
+            count++;
+            return this;
+        }
+
+        RequestBuilder string(String key, String value) throws IOException {
+            return entry(BinaryRequestReader.TYPE_STRING, key, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        DataInputStream toStream() throws IOException {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(request);
+            out.writeInt(count);
+            out.write(entries.toByteArray());
+            out.writeByte(SENTINEL);
+            return new DataInputStream(new ByteArrayInputStream(request.toByteArray()));
+        }
+    }
+
+    private static byte[] stringArray(int count, String... elements) throws IOException {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(value);
+        out.writeInt(count);
+        for (String element : elements) {
+            byte[] b = element.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+        return value.toByteArray();
+    }
+
+    @Test
+    public void readsAllTypes() throws IOException {
+        DataInputStream in = new RequestBuilder()
+                .entry(BinaryRequestReader.TYPE_ACTION, "", "list".getBytes(StandardCharsets.UTF_8))
+                .string("title", "a \"quoted\", title")
+                .entry(BinaryRequestReader.TYPE_STRING_ARRAY, "values", stringArray(2, "a,b", ""))
+                .entry(BinaryRequestReader.TYPE_INT, "limit", new byte[] { 0, 0, 1, 0 })
+                .entry(BinaryRequestReader.TYPE_BOOLEAN, "stream", new byte[] { 1 })
+                .toStream();
+        RecordingIntent intent = new RecordingIntent();
+
+        assertNull(BinaryRequestReader.read(in, intent));
+        assertEquals(SENTINEL, in.read());
+        assertEquals("list", intent.action);
+        assertEquals("a \"quoted\", title", intent.extras.get("title"));
+        assertArrayEquals(new String[] { "a,b", "" }, (String[]) intent.extras.get("values"));
+        assertEquals(256, intent.extras.get("limit"));
+        assertEquals(true, intent.extras.get("stream"));
+    }
+
+    @Test
+    public void skipsStringArrayWithTooFewBytesLeftForAnElementLength() throws IOException {
+        // 2 elements fit the count check, but the first leaves 2 bytes for the length of the second
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(value);
+        out.writeInt(2);
+        out.writeInt(2);
+        out.write(new byte[] { 'a', 'b' });
+        out.write(new byte[] { 0, 0 });
+        DataInputStream in = new RequestBuilder()
+                .entry(BinaryRequestReader.TYPE_STRING_ARRAY, "values", value.toByteArray())
+                .string("after", "still read")
+                .toStream();
+        RecordingIntent intent = new RecordingIntent();
+
+        String errors = BinaryRequestReader.read(in, intent);
+
+        assertEquals("Invalid string array extra: values\n", errors);
+        assertNull(intent.extras.get("values"));
+        assertEquals("still read", intent.extras.get("after"));
+        assertEquals(SENTINEL, in.read());
+    }
+
+    @Test
+    public void skipsStringArrayWithTooLongElement() throws IOException {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(value);
+        out.writeInt(1);
+        out.writeInt(100);
+        out.write(new byte[] { 'a', 'b', 'c' });
+        DataInputStream in = new RequestBuilder()
+                .entry(BinaryRequestReader.TYPE_STRING_ARRAY, "values", value.toByteArray())
+                .string("after", "still read")
+                .toStream();
+        RecordingIntent intent = new RecordingIntent();
+
+        assertNotNull(BinaryRequestReader.read(in, intent));
+        assertEquals("still read", intent.extras.get("after"));
+        assertEquals(SENTINEL, in.read());
+    }
+
+    @Test
+    public void skipsInvalidLengthsAndUnknownTypes() throws IOException {
+        DataInputStream in = new RequestBuilder()
+                .entry(BinaryRequestReader.TYPE_INT, "limit", new byte[] { 0, 1, 0 })
+                .entry(99, "unknown", new byte[] { 1, 2, 3, 4, 5 })
+                .string("after", "still read")
+                .toStream();
+        RecordingIntent intent = new RecordingIntent();
+
+        String errors = BinaryRequestReader.read(in, intent);
+
+        assertEquals("Invalid length 3 of type 3 extra: limit\nUnsupported argument type: 99 for extra unknown\n", errors);
+        assertEquals("still read", intent.extras.get("after"));
+        assertEquals(SENTINEL, in.read());
+    }
+
+    @Test
+    public void rejectsTooManyEntriesBeforeReadingThem() throws IOException {
+        RequestBuilder request = new RequestBuilder().string("key", "value");
+        request.count = -1;
+        DataInputStream in = request.toStream();
+        RecordingIntent intent = new RecordingIntent();
+
+        String errors = BinaryRequestReader.read(in, intent);
+
+        assertEquals("Request longer than " + BinaryRequestReader.MAX_REQUEST_LENGTH + " bytes\n", errors);
+        assertTrue(intent.extras.isEmpty());
+    }
+
+    @Test
+    public void stopsAtTheEntryBeyondTheRequestLength() throws IOException {
+        // every value is below the limit of a single value, but not both together
+        int length = BinaryRequestReader.MAX_REQUEST_LENGTH / 2 + 1;
+        RequestBuilder request = new RequestBuilder().entry(BinaryRequestReader.TYPE_BYTES, "first", new byte[length]);
+        request.out.writeByte(BinaryRequestReader.TYPE_BYTES);
+        request.out.writeShort(1);
+        request.out.writeByte('x');
+        request.out.writeInt(length);
+        request.count++;
+        RecordingIntent intent = new RecordingIntent();
+
+        String errors = BinaryRequestReader.read(request.toStream(), intent);
+
+        assertEquals("Request longer than " + BinaryRequestReader.MAX_REQUEST_LENGTH + " bytes\n", errors);
+        assertEquals(length, ((byte[]) intent.extras.get("first")).length);
+        assertFalse(intent.extras.containsKey("x"));
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.termux.api.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertNull;
+
+/**
+ * A micro-benchmark of {@link CommandLineParser} against the {@link LegacyCommandLineParser}, on a
+ * typical request and on one with a large string extra like the ones of `termux-clipboard-set`.
+ * It prints the time per request of both. The times depend on the machine, so it is not run with the
+ * other tests, but only when run on its own after removing the {@link Ignore}.
+ */
+@Ignore("benchmark, run manually")
+public class CommandLineParserBenchmark {
+
+    private static final String TYPICAL = "--es socket_input \"termux-api-input-1234567890\" " +
+            "--es socket_output \"termux-api-output-1234567890\" --es api_method \"Location\" " +
+            "--es provider \"gps\" --es request \"once\" --ei limit 10 --ez stream true";
+
+    private static final int WARMUP_MILLIS = 300;
+    private static final int MEASURE_MILLIS = 700;
+
+    private interface Parser {
+        String parse(String cmdline, RecordingIntent intent);
+    }
+
+    /** Run the parser repeatedly for a while and return the mean time per request in nanoseconds. */
+    private static double measure(Parser parser, String cmdline) {
+        run(parser, cmdline, WARMUP_MILLIS);
+        return run(parser, cmdline, MEASURE_MILLIS);
+    }
+
+    private static double run(Parser parser, String cmdline, long millis) {
+        long end = System.nanoTime() + millis * 1000000L;
+        long start = System.nanoTime();
+        long count = 0;
+        long now;
+        do {
+            // check the time only every few requests, so its cost doesn't count
+            for (int i = 0; i < 16; i++) assertNull(parser.parse(cmdline, new RecordingIntent()));
+            count += 16;
+            now = System.nanoTime();
+        } while (now < end);
+        return (now - start) / (double) count;
+    }
+
+    private static void report(String name, String cmdline) {
+        double legacy = measure(LegacyCommandLineParser::parse, cmdline);
+        double current = measure(CommandLineParser::parse, cmdline);
+        System.out.println(String.format(Locale.ROOT, "%s (%d chars): legacy %.1fus, single pass %.1fus, %.1fx",
+                name, cmdline.length(), legacy / 1000, current / 1000, legacy / current));
+    }
+
+    @Test
+    public void typicalRequest() {
+        report("typical request", TYPICAL);
+    }
+
+    @Test
+    public void largeStringExtra() {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 20 * 1024) text.append("some clipboard text, with \\\"quotes\\\" ");
+        report("20 KB string extra", TYPICAL + " --es text \"" + text + "\"");
+    }
+
+}
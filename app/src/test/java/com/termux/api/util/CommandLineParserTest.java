@@ -0,0 +1,177 @@
+package com.termux.api.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Checks that {@link CommandLineParser} parses like the {@link LegacyCommandLineParser} it replaced. */
+public class CommandLineParserTest {
+
+    /** Parse with both parsers and check they return the same errors, action and extras. */
+    private static RecordingIntent assertSameAsLegacy(String cmdline) {
+        RecordingIntent legacy = new RecordingIntent();
+        RecordingIntent intent = new RecordingIntent();
+        String legacyErrors = LegacyCommandLineParser.parse(cmdline, legacy);
+        String errors = CommandLineParser.parse(cmdline, intent);
+
+        assertEquals("errors of " + cmdline, legacyErrors, errors);
+        // the intent of an invalid command line is never sent
+        if (errors != null) return intent;
+        assertEquals("action of " + cmdline, legacy.action, intent.action);
+        assertEquals("keys of " + cmdline, legacy.extras.keySet(), intent.extras.keySet());
+        for (Map.Entry<String, Object> extra : legacy.extras.entrySet()) {
+            Object value = intent.extras.get(extra.getKey());
+            assertTrue("extra " + extra.getKey() + " of " + cmdline + ": " + toString(extra.getValue()) + " != " + toString(value),
+                    Arrays.deepEquals(new Object[] { extra.getValue() }, new Object[] { value }));
+        }
+        return intent;
+    }
+
+    private static String toString(Object value) {
+        return Arrays.deepToString(new Object[] { value });
+    }
+
+    @Test
+    public void parsesAllTypes() {
+        RecordingIntent intent = assertSameAsLegacy("-a list --es api_method \"Location\" -e provider \"gps\" " +
+                "--esa values \"a,b,c\" --ez stream true --ei limit -5 --ef cutoff 2.5 --eia ids 1,-2,3 --ela times 9000000000,1");
+
+        assertEquals("list", intent.action);
+        assertEquals("Location", intent.extras.get("api_method"));
+        assertArrayEquals(new String[] { "a", "b", "c" }, (String[]) intent.extras.get("values"));
+        assertEquals(true, intent.extras.get("stream"));
+        assertEquals(-5, intent.extras.get("limit"));
+        assertEquals(2.5f, intent.extras.get("cutoff"));
+        assertArrayEquals(new long[] { 9000000000L, 1 }, (long[]) intent.extras.get("times"));
+    }
+
+    @Test
+    public void unescapesQuotesInStrings() {
+        RecordingIntent intent = assertSameAsLegacy("--es text \"say \\\"hi\\\" --ei x 1\" --es empty \"\"");
+
+        assertEquals("say \"hi\" --ei x 1", intent.extras.get("text"));
+        assertEquals("", intent.extras.get("empty"));
+        // a backslash before anything else is kept
+        assertSameAsLegacy("--es path \"C:\\\\dir\\n\"");
+        assertSameAsLegacy("--es multi \"line\nbreak\" --ez b false");
+    }
+
+    @Test
+    public void unescapesOnlyTheFirstEscapedCommaOfArrayElements() {
+        RecordingIntent intent = assertSameAsLegacy("--esa values \"a\\,b,c\\,d\\,e,,f\\\\,g\"");
+
+        assertArrayEquals(new String[] { "a,b", "c,d\\,e", "", "f\\,g" }, (String[]) intent.extras.get("values"));
+        assertSameAsLegacy("--esa trailing \"a,b,,\"");
+        assertSameAsLegacy("--esa empty \"\"");
+        assertSameAsLegacy("--esa quoted \"a\\\"b,c\"");
+    }
+
+    @Test
+    public void reportsErrorsInTheOrderOfTheLegacyParser() {
+        // the errors come one per type in a fixed order, whatever the order of the options
+        assertSameAsLegacy("--eia ids 1,99999999999 --ef f 1.0 --ei big 99999999999 --ela l 99999999999999999999 --ex what ever junk");
+        assertSameAsLegacy("junk --ei a 99999999999 --ei b 99999999999");
+        assertSameAsLegacy("--ex a b --ey c d");
+        assertSameAsLegacy("--ei a x");
+        assertSameAsLegacy("--ef a 1");
+        assertSameAsLegacy("--es unterminated \"value");
+        assertSameAsLegacy("--ez");
+        assertSameAsLegacy("-a");
+
+        String errors = CommandLineParser.parse("--ela l 99999999999999999999 --ei big 99999999999 left over", new RecordingIntent());
+        assertEquals("Invalid integer extra: --ei big 99999999999\n" +
+                "Invalid long array extra: --ela l 99999999999999999999\n" +
+                "Unsupported options: leftover\n", errors);
+    }
+
+    @Test
+    public void acceptsTheQuirksOfTheLegacyParser() {
+        // values may be a prefix of a token, and spaces are optional after -a
+        assertSameAsLegacy("--ei count 12abc");
+        assertSameAsLegacy("--ef f 1.5.5");
+        assertSameAsLegacy("-aaction --es k \"v\"");
+        assertSameAsLegacy("--eia ids 1,2, --ez b yes");
+        assertSameAsLegacy("  --es   spaced    \"v\"   ");
+        assertSameAsLegacy("");
+    }
+
+    @Test
+    public void usesTheLastOccurrenceOfAKey() {
+        // the legacy parser used the type parsed last instead, the one difference to it
+        RecordingIntent intent = new RecordingIntent();
+        assertNull(CommandLineParser.parse("--ei key 1 --es key \"v\" --ei other 1 --ei other 2", intent));
+
+        assertEquals("v", intent.extras.get("key"));
+        assertEquals(2, intent.extras.get("other"));
+    }
+
+    @Test
+    public void parsesGeneratedCommandLinesLikeTheLegacyParser() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            assertSameAsLegacy(generate(random));
+        }
+    }
+
+    private static final String[] STRING_CHARS = { "a", "b", " ", ",", "\\,", "\\\"", "\\", "-", "--ei", "\n", "é", "\"" };
+    private static final String[] NUMBERS = { "0", "-1", "42", "2147483647", "2147483648", "-2147483649", "99999999999999999999", "1.5", "-0.25", "x" };
+
+    /** A command line of options with unique keys, which are mostly valid. */
+    private static String generate(Random random) {
+        StringBuilder cmdline = new StringBuilder();
+        int options = random.nextInt(6);
+        for (int i = 0; i < options; i++) {
+            if (cmdline.length() > 0 || random.nextBoolean()) cmdline.append(random.nextInt(8) == 0 ? "  " : " ");
+            String key = "k" + i;
+            switch (random.nextInt(10)) {
+                case 0:
+                case 1:
+                    cmdline.append(random.nextBoolean() ? "--es " : "-e ").append(key).append(" \"").append(generateString(random)).append('"');
+                    break;
+                case 2:
+                    cmdline.append("--esa ").append(key).append(" \"").append(generateString(random)).append('"');
+                    break;
+                case 3:
+                    cmdline.append("--ez ").append(key).append(' ').append(random.nextBoolean() ? "true" : "False");
+                    break;
+                case 4:
+                    cmdline.append("--ei ").append(key).append(' ').append(NUMBERS[random.nextInt(NUMBERS.length)]);
+                    break;
+                case 5:
+                    cmdline.append("--ef ").append(key).append(' ').append(NUMBERS[random.nextInt(NUMBERS.length)]);
+                    break;
+                case 6:
+                case 7:
+                    cmdline.append(random.nextBoolean() ? "--eia " : "--ela ").append(key).append(' ').append(NUMBERS[random.nextInt(NUMBERS.length)]);
+                    for (int j = random.nextInt(3); j > 0; j--) cmdline.append(',').append(NUMBERS[random.nextInt(NUMBERS.length)]);
+                    break;
+                case 8:
+                    cmdline.append("-a ").append(random.nextBoolean() ? "action" : "list");
+                    break;
+                default:
+                    cmdline.append(random.nextBoolean() ? "--eu " + key + " value" : "stray");
+                    break;
+            }
+        }
+        return cmdline.toString();
+    }
+
+    private static String generateString(Random random) {
+        StringBuilder s = new StringBuilder();
+        for (int i = random.nextInt(8); i > 0; i--) {
+            String c = STRING_CHARS[random.nextInt(STRING_CHARS.length)];
+            // an unescaped quote would end the string
+            if (c.equals("\"") || (c.equals("\\") && i == 1)) continue;
+            s.append(c);
+        }
+        return s.toString();
+    }
+
+}
@@ -0,0 +1,178 @@
+package com.termux.api.util;
+
+import android.content.Intent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regex based parser {@link CommandLineParser} replaced, as it was in the SocketListener, kept
+ * to check that both parse the same and to compare their speed. Only the logging was removed and
+ * the errors are returned instead of written to the connection.
+ */
+class LegacyCommandLineParser {
+
+    private static final Pattern EXTRA_STRING = Pattern.compile("(-e|--es|--esa) +([^ ]+) +\"(.*?)(?<!\\\\)\"", Pattern.DOTALL);
+    private static final Pattern EXTRA_BOOLEAN = Pattern.compile("--ez +([^ ]+) +([^ ]+)");
+    private static final Pattern EXTRA_INT = Pattern.compile("--ei +([^ ]+) +(-?[0-9]+)");
+    private static final Pattern EXTRA_FLOAT = Pattern.compile("--ef +([^ ]+) +(-?[0-9]+(?:\\.[0-9]+))");
+    private static final Pattern EXTRA_INT_LIST = Pattern.compile("--eia +([^ ]+) +(-?[0-9]+(?:,-?[0-9]+)*)");
+    private static final Pattern EXTRA_LONG_LIST = Pattern.compile("--ela +([^ ]+) +(-?[0-9]+(?:,-?[0-9]+)*)");
+    private static final Pattern EXTRA_UNSUPPORTED = Pattern.compile("--e[^izs ] +[^ ]+ +[^ ]+");
+    private static final Pattern ACTION = Pattern.compile("-a *([^ ]+)");
+
+    /**
+     * Parse the command line like {@link CommandLineParser#parse(String, Intent)}, only setting the
+     * extras if it was valid.
+     */
+    static String parse(String cmdline, Intent intent) {
+        StringBuilder out = new StringBuilder();
+        HashMap<String, String> stringExtras = new HashMap<>();
+        HashMap<String, String[]> stringArrayExtras = new HashMap<>();
+        HashMap<String, Boolean> booleanExtras = new HashMap<>();
+        HashMap<String, Integer> intExtras = new HashMap<>();
+        HashMap<String, Float> floatExtras = new HashMap<>();
+        HashMap<String, int[]> intArrayExtras = new HashMap<>();
+        HashMap<String, long[]> longArrayExtras = new HashMap<>();
+        boolean err = false;
+
+        // extract and remove the string extras first, so another argument embedded in a string isn't counted as an argument
+        Matcher m = EXTRA_STRING.matcher(cmdline);
+        while (m.find()) {
+            String option = m.group(1);
+            if ("-e".equals(option) || "--es".equals(option)) {
+                // unescape "
+                stringExtras.put(m.group(2), Objects.requireNonNull(m.group(3)).replaceAll("\\\\\"", "\""));
+            }
+            else {
+                // split the list
+                String[] list = Objects.requireNonNull(m.group(3)).split("(?<!\\\\),");
+                for (int i = 0; i < list.length; i++) {
+                    /// unescape the ","
+                    list[i] = list[i].replaceFirst("\\\\,", ",");
+                }
+                stringArrayExtras.put(m.group(2), list);
+            }
+
+        }
+        cmdline = m.replaceAll("");
+
+        m = EXTRA_BOOLEAN.matcher(cmdline);
+        while (m.find()) {
+            booleanExtras.put(m.group(1), Boolean.parseBoolean(m.group(2)));
+        }
+        cmdline = m.replaceAll("");
+
+        m = EXTRA_INT.matcher(cmdline);
+        while (m.find()) {
+            try {
+                intExtras.put(m.group(1), Integer.parseInt(Objects.requireNonNull(m.group(2))));
+            }
+            catch (NumberFormatException e) {
+                out.append("Invalid integer extra: ").append(m.group(0)).append("\n");
+                err = true;
+                break;
+            }
+        }
+        cmdline = m.replaceAll("");
+
+        m = EXTRA_FLOAT.matcher(cmdline);
+        while (m.find()) {
+            try {
+                floatExtras.put(m.group(1), Float.parseFloat(Objects.requireNonNull(m.group(2))));
+            }
+            catch (NumberFormatException e) {
+                out.append("Invalid float extra: ").append(m.group(0)).append("\n");
+                err = true;
+                break;
+            }
+        }
+        cmdline = m.replaceAll("");
+
+        m = EXTRA_INT_LIST.matcher(cmdline);
+        while (m.find()) {
+            try {
+                String[] parts = Objects.requireNonNull(m.group(2)).split(",");
+                int[] ints = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    ints[i] = Integer.parseInt(parts[i]);
+                }
+                intArrayExtras.put(m.group(1), ints);
+            }
+            catch (NumberFormatException e) {
+                out.append("Invalid int array extra: ").append(m.group(0)).append("\n");
+                err = true;
+                break;
+            }
+        }
+        cmdline = m.replaceAll("");
+
+        m = EXTRA_LONG_LIST.matcher(cmdline);
+        while (m.find()) {
+            try {
+                String[] parts = Objects.requireNonNull(m.group(2)).split(",");
+                long[] longs = new long[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    longs[i] = Long.parseLong(parts[i]);
+                }
+                longArrayExtras.put(m.group(1), longs);
+            }
+            catch (NumberFormatException e) {
+                out.append("Invalid long array extra: ").append(m.group(0)).append("\n");
+                err = true;
+                break;
+            }
+        }
+        cmdline = m.replaceAll("");
+
+        m = ACTION.matcher(cmdline);
+        while (m.find()) {
+            intent.setAction(m.group(1));
+        }
+        cmdline = m.replaceAll("");
+
+        m = EXTRA_UNSUPPORTED.matcher(cmdline);
+        if (m.find()) {
+            out.append("Unsupported argument type: ").append(m.group(0)).append("\n");
+            err = true;
+        }
+        cmdline = m.replaceAll("");
+
+        // check if there are any non-whitespace characters left after parsing all the options
+        cmdline = cmdline.replaceAll("\\s", "");
+        if (!"".equals(cmdline)) {
+            out.append("Unsupported options: ").append(cmdline).append("\n");
+            err = true;
+        }
+
+        if (err) return out.toString();
+
+        // set the intent extras
+        for (Map.Entry<String, String> e : stringExtras.entrySet()) {
+            intent.putExtra(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, String[]> e : stringArrayExtras.entrySet()) {
+            intent.putExtra(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, Integer> e : intExtras.entrySet()) {
+            intent.putExtra(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, Boolean> e : booleanExtras.entrySet()) {
+            intent.putExtra(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, Float> e : floatExtras.entrySet()) {
+            intent.putExtra(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, int[]> e : intArrayExtras.entrySet()) {
+            intent.putExtra(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, long[]> e : longArrayExtras.entrySet()) {
+            intent.putExtra(e.getKey(), e.getValue());
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.termux.api.util;
+
+import android.content.Intent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An {@link Intent} that keeps the extras and action put into it and returns them, since the one
+ * of the android.jar the JVM tests run against doesn't.
+ */
+public class RecordingIntent extends Intent {
+
+    final Map<String, Object> extras = new HashMap<>();
+    String action;
+
+    @Override
+    public Intent setAction(String action) {
+        this.action = action;
+        return this;
+    }
+
+    @Override
+    public Intent putExtra(String name, String value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    @Override
+    public Intent putExtra(String name, String[] value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    @Override
+    public Intent putExtra(String name, int value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    @Override
+    public Intent putExtra(String name, int[] value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    @Override
+    public Intent putExtra(String name, long value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    @Override
+    public Intent putExtra(String name, long[] value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    @Override
+    public Intent putExtra(String name, float value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    @Override
+    public Intent putExtra(String name, float[] value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    @Override
+    public Intent putExtra(String name, boolean value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    @Override
+    public Intent putExtra(String name, byte[] value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    @Override
+    public String getAction() {
+        return action;
+    }
+
+    @Override
+    public boolean hasExtra(String name) {
+        return extras.containsKey(name);
+    }
+
+    @Override
+    public String getStringExtra(String name) {
+        return (String) extras.get(name);
+    }
+
+    @Override
+    public String[] getStringArrayExtra(String name) {
+        return (String[]) extras.get(name);
+    }
+
+    @Override
+    public int getIntExtra(String name, int defaultValue) {
+        Object value = extras.get(name);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    @Override
+    public long getLongExtra(String name, long defaultValue) {
+        Object value = extras.get(name);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+
+    @Override
+    public boolean getBooleanExtra(String name, boolean defaultValue) {
+        Object value = extras.get(name);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.termux.api.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WindowAggregatorTest {
+
+    private static final long MS = 1000000L;
+
+    /** The values of a window passed to the listener, which are only valid during the call. */
+    private static class Window {
+        final long start;
+        final long end;
+        final int count;
+        final boolean partial;
+        final float min;
+        final float max;
+        final double mean;
+        final double rms;
+        final double stddev;
+        final int peaks;
+
+        Window(WindowAggregator window) {
+            start = window.getWindowStart();
+            end = window.getWindowEnd();
+            count = window.getCount();
+            partial = window.isPartial();
+            min = window.getMin(0);
+            max = window.getMax(0);
+            mean = window.getMean(0);
+            rms = window.getRms(0);
+            stddev = window.getStddev(0);
+            peaks = window.getPeaks(0);
+        }
+    }
+
+    private final List<Window> windows = new ArrayList<>();
+    private final WindowAggregator.WindowListener listener = window -> windows.add(new Window(window));
+
+    private static WindowAggregator aggregator(long windowMs, long stepMs) {
+        return new WindowAggregator(windowMs * MS, stepMs * MS, 1, WindowAggregator.FILTER_NONE, 0, 0);
+    }
+
+    /** Add a sample with the value of its time every 10ms from the start, until before the end. */
+    private void addSamples(WindowAggregator aggregator, long startMs, long endMs) throws IOException {
+        for (long t = startMs; t < endMs; t += 10) {
+            aggregator.add(t * MS, new float[] { t }, 1, listener);
+        }
+    }
+
+    @Test
+    public void flushesTheLastTumblingWindowAsPartial() throws IOException {
+        WindowAggregator aggregator = aggregator(100, 0);
+        addSamples(aggregator, 0, 250);
+        aggregator.flush(listener);
+
+        assertEquals(3, windows.size());
+        assertFalse(windows.get(1).partial);
+        Window last = windows.get(2);
+        assertTrue(last.partial);
+        assertEquals(200 * MS, last.start);
+        assertEquals(300 * MS, last.end);
+        assertEquals(5, last.count);
+        assertEquals(220, last.mean, 1e-9);
+    }
+
+    @Test
+    public void flushesOnlyTheSamplesAfterTheLastWindowOnce() throws IOException {
+        WindowAggregator aggregator = aggregator(100, 0);
+        addSamples(aggregator, 0, 200);
+        // completes the window of the samples up to 190ms
+        aggregator.add(200 * MS, new float[] { 200 }, 1, listener);
+        aggregator.flush(listener);
+        aggregator.flush(listener);
+
+        assertEquals(3, windows.size());
+        assertFalse(windows.get(1).partial);
+        assertEquals(10, windows.get(1).count);
+        assertTrue(windows.get(2).partial);
+        assertEquals(1, windows.get(2).count);
+    }
+
+    @Test
+    public void flushesASlidingWindowShorterThanOneWindow() throws IOException {
+        WindowAggregator aggregator = aggregator(1000, 100);
+        addSamples(aggregator, 0, 350);
+        aggregator.flush(listener);
+
+        assertEquals(1, windows.size());
+        Window window = windows.get(0);
+        assertTrue(window.partial);
+        // starts with the first sample, not a window length before the end
+        assertEquals(0, window.start);
+        assertEquals(400 * MS, window.end);
+        assertEquals(35, window.count);
+    }
+
+    @Test
+    public void passesTheSamplesBeforeAGapAsPartialWindow() throws IOException {
+        WindowAggregator aggregator = aggregator(1000, 100);
+        addSamples(aggregator, 0, 300);
+        addSamples(aggregator, 5000, 5050);
+        aggregator.flush(listener);
+
+        assertEquals(2, windows.size());
+        assertTrue(windows.get(0).partial);
+        assertEquals(30, windows.get(0).count);
+        assertEquals(0, windows.get(0).start);
+        assertEquals(300 * MS, windows.get(0).end);
+        assertEquals(5, windows.get(1).count);
+        assertEquals(5000 * MS, windows.get(1).start);
+    }
+
+    @Test
+    public void roundsTheWindowUpToWholeSteps() {
+        WindowAggregator aggregator = aggregator(1050, 100);
+
+        assertEquals(1100 * MS, aggregator.getWindowNanos());
+        assertEquals(100 * MS, aggregator.getStepNanos());
+        assertEquals(500 * MS, aggregator(500, 600).getStepNanos());
+        assertEquals(1024 * MS, aggregator(1024, 1).getWindowNanos());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWindowsOfTooManySteps() {
+        aggregator(1025, 1);
+    }
+
+    @Test
+    public void summarizesValuesWithALargeOffset() throws IOException {
+        WindowAggregator aggregator = aggregator(100, 0);
+        float[] values = { 1000001, 1000004, 1000002, 1000003 };
+        for (int i = 0; i < values.length; i++) {
+            aggregator.add(i * 10 * MS, new float[] { values[i] }, 1, listener);
+        }
+        aggregator.flush(listener);
+
+        Window window = windows.get(0);
+        assertEquals(4, window.count);
+        assertEquals(1000001, window.min, 0);
+        assertEquals(1000004, window.max, 0);
+        assertEquals(1000002.5, window.mean, 1e-9);
+        double squareSum = 0;
+        for (float value : values) squareSum += (double) value * value;
+        assertEquals(Math.sqrt(squareSum / 4), window.rms, 1e-6);
+        // exact although the sum of squares is far larger than the variance
+        assertEquals(Math.sqrt(1.25), window.stddev, 1e-9);
+    }
+
+    @Test
+    public void countsPeaksInTheWindowOfTheirSample() throws IOException {
+        WindowAggregator aggregator = new WindowAggregator(100 * MS, 0, 1, WindowAggregator.FILTER_NONE, 0, 2);
+        for (long t = 0; t < 200; t += 10) {
+            // a peak below the threshold at 20ms, one at 50ms, and one on the last sample of the window
+            float value = t == 20 ? 1 : t == 50 || t == 90 ? 5 : 0;
+            aggregator.add(t * MS, new float[] { value }, 1, listener);
+        }
+        aggregator.flush(listener);
+
+        assertEquals(2, windows.size());
+        assertEquals(2, windows.get(0).peaks);
+        assertEquals(0, windows.get(1).peaks);
+    }
+
+    @Test
+    public void countsPeaksOnceInEverySlidingWindowOfTheirSample() throws IOException {
+        WindowAggregator aggregator = new WindowAggregator(200 * MS, 100 * MS, 1, WindowAggregator.FILTER_NONE, 0, 0);
+        for (long t = 0; t < 400; t += 10) {
+            aggregator.add(t * MS, new float[] { t == 190 ? 1 : 0 }, 1, listener);
+        }
+        aggregator.flush(listener);
+
+        // [0, 200), [100, 300) and the partial [200, 400)
+        assertEquals(3, windows.size());
+        assertEquals(1, windows.get(0).peaks);
+        assertEquals(1, windows.get(1).peaks);
+        assertEquals(0, windows.get(2).peaks);
+    }
+
+    @Test
+    public void lowPassRemovesFastChanges() throws IOException {
+        WindowAggregator aggregator = new WindowAggregator(1000 * MS, 0, 1, WindowAggregator.FILTER_LOW_PASS, 1, 0);
+        // 50 Hz around 5, far above the cutoff of 1 Hz
+        for (long t = 0; t < 2010; t += 10) {
+            aggregator.add(t * MS, new float[] { t % 20 == 0 ? 4 : 6 }, 1, listener);
+        }
+
+        // the second window, after the filter settled
+        Window window = windows.get(1);
+        assertEquals(5, window.mean, 0.05);
+        assertTrue(window.max - window.min < 0.2);
+    }
+
+    @Test
+    public void highPassRemovesTheOffset() throws IOException {
+        WindowAggregator aggregator = new WindowAggregator(1000 * MS, 0, 1, WindowAggregator.FILTER_HIGH_PASS, 1, 0);
+        // 50 Hz around an offset like the gravity, which is removed
+        for (long t = 0; t < 2010; t += 10) {
+            aggregator.add(t * MS, new float[] { t % 20 == 0 ? 8.81f : 10.81f }, 1, listener);
+        }
+
+        Window window = windows.get(1);
+        assertEquals(0, window.mean, 0.05);
+        assertTrue(window.max > 0.9 && window.max < 1.05);
+        assertTrue(window.min < -0.9 && window.min > -1.05);
+    }
+
+    @Test
+    public void keepsEveryNthSampleWhenDecimating() throws IOException {
+        WindowAggregator aggregator = new WindowAggregator(1000 * MS, 0, 3, WindowAggregator.FILTER_NONE, 0, 0);
+        addSamples(aggregator, 0, 300);
+        aggregator.flush(listener);
+
+        Window window = windows.get(0);
+        // the samples at 0, 30, ..., 270ms
+        assertEquals(10, window.count);
+        assertEquals(0, window.min, 0);
+        assertEquals(270, window.max, 0);
+        assertEquals(135, window.mean, 1e-9);
+    }
+
+}